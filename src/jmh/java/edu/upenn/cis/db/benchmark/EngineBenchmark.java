@@ -0,0 +1,81 @@
+package edu.upenn.cis.db.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.DatalogParser;
+import edu.upenn.cis.db.datalog.DatalogProgram;
+import edu.upenn.cis.db.datalog.simpleengine.SimpleDatalogEngine;
+
+/**
+ * SimpleDatalogEngine.executeRules on the synthetic graph: a two-hop join, a selective
+ * join, and a recursive reachability program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+	@Param({"11110", "111110"})
+	public long size;
+
+	private SimpleDatalogEngine engine;
+	private ArrayList<DatalogClause> twoHop;
+	private ArrayList<DatalogClause> selective;
+	private ArrayList<DatalogClause> reach;
+
+	@Setup
+	public void setup() throws IOException {
+		engine = SyntheticGraph.createEngine(size);
+		twoHop = parse("P2(a,c) <- E(e1,a,b,l1), E(e2,b,c,l2).");
+		selective = parse("Q(a,b) <- E(e,a,b,l), N(a,la), N(b,lb), la=\"B\", l=\"X\".");
+		reach = parse("R(a,b) <- E(e,a,b,l).",
+				"R(a,c) <- R(a,b), E(e,b,c,l).");
+	}
+
+	private static ArrayList<DatalogClause> parse(String... rules) {
+		DatalogParser parser = new DatalogParser(new DatalogProgram());
+		ArrayList<DatalogClause> cs = new ArrayList<DatalogClause>();
+		for (String r : rules) {
+			cs.add(parser.ParseQuery(r));
+		}
+		return cs;
+	}
+
+	private int execute(ArrayList<DatalogClause> cs, String head) {
+		engine.removeRelation(head);
+		engine.executeRules(cs);
+		return engine.getRelation(head).size();
+	}
+
+	@Benchmark
+	public int twoHop() {
+		return execute(twoHop, "P2");
+	}
+
+	@Benchmark
+	public int selective() {
+		return execute(selective, "Q");
+	}
+
+	@Benchmark
+	public int reach() {
+		return execute(reach, "R");
+	}
+}
@@ -0,0 +1,84 @@
+package edu.upenn.cis.db.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.upenn.cis.db.ConjunctiveQuery.Atom;
+import edu.upenn.cis.db.ConjunctiveQuery.Term;
+import edu.upenn.cis.db.datalog.simpleengine.Relation;
+import edu.upenn.cis.db.datalog.simpleengine.SimpleDatalogEngine;
+import edu.upenn.cis.db.graphtrans.Config;
+
+/**
+ * Operators of the simple datalog engine on the synthetic graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelationBenchmark {
+	@Param({"11110", "111110"})
+	public long size;
+
+	private Relation edge1; // E(e1,a,b,l1)
+	private Relation edge2; // E(e2,b,c,l2)
+	private Relation node; // N(a,la)
+	private Relation relE;
+	private Set<Atom> noPreds = new HashSet<Atom>();
+	private Set<Atom> labelPred = new HashSet<Atom>();
+	private Atom notInAtom;
+
+	@Setup
+	public void setup() throws IOException {
+		SimpleDatalogEngine engine = SyntheticGraph.createEngine(size);
+		relE = engine.getRelation("E");
+		edge1 = new Relation(relE, new ArrayList<String>(Arrays.asList("e1", "a", "b", "l1")));
+		edge2 = new Relation(relE, new ArrayList<String>(Arrays.asList("e2", "b", "c", "l2")));
+		node = new Relation(engine.getRelation("N"), new ArrayList<String>(Arrays.asList("a", "la")));
+
+		Atom eq = new Atom(Config.predOpEq);
+		eq.getTerms().add(new Term("l1", true));
+		eq.getTerms().add(new Term("\"Y\"", false));
+		labelPred.add(eq);
+
+		notInAtom = new Atom("E", "_e", "a", "_t", "_l"); // nodes without outgoing edges
+	}
+
+	@Benchmark
+	public int join() {
+		return edge1.join(edge2, noPreds).size();
+	}
+
+	@Benchmark
+	public int joinWithFilter() {
+		return edge1.join(edge2, labelPred).size();
+	}
+
+	@Benchmark
+	public int filter() {
+		return edge1.filter(labelPred).size();
+	}
+
+	@Benchmark
+	public int notin() {
+		return node.notin(relE, notInAtom).size();
+	}
+}
@@ -0,0 +1,93 @@
+package edu.upenn.cis.db.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.DatalogProgram;
+import edu.upenn.cis.db.datalog.MagicSetRewriter;
+import edu.upenn.cis.db.datalog.QueryRewriterSubstitution;
+import edu.upenn.cis.db.datalog.rewriter.Rewriter;
+import edu.upenn.cis.db.graphtrans.CommandExecutor;
+import edu.upenn.cis.db.graphtrans.GraphTransServer;
+import edu.upenn.cis.db.graphtrans.parser.QueryParser;
+import edu.upenn.cis.db.graphtrans.store.postgres.PostgresStore;
+
+/**
+ * Query rewriting over the view of SyntheticGraph, and SQL generation for the rewritten rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RewriterBenchmark {
+	private DatalogProgram program;
+	private DatalogClause query;
+	private DatalogClause constantFreeQuery;
+	private ArrayList<DatalogClause> indexRules;
+	private ArrayList<DatalogClause> rewrittenRules;
+	private PostgresStore pgStore;
+
+	@Setup
+	public void setup() {
+		SyntheticGraph.createView();
+		CommandExecutor.run("create ssr on v0");
+		program = GraphTransServer.getProgram();
+		query = new QueryParser().Parse(SyntheticGraph.QUERY);
+		constantFreeQuery = SyntheticGraph.getConstantFreeQuery(query);
+		indexRules = GraphTransServer.getTransRuleList("v0").getIndexRuleList();
+		if (indexRules == null) {
+			indexRules = new ArrayList<DatalogClause>();
+		}
+
+		DatalogProgram rewritten = Rewriter.getProgramForRewrittenQuery(program, constantFreeQuery);
+		rewrittenRules = new ArrayList<DatalogClause>();
+		for (String name : rewritten.getHeadRules()) {
+			rewrittenRules.addAll(rewritten.getRules(name));
+		}
+		pgStore = new PostgresStore(); // SQL generation only, not connected
+	}
+
+	@TearDown
+	public void tearDown() {
+		SyntheticGraph.dropView();
+	}
+
+	@Benchmark
+	public DatalogProgram rewriter() {
+		return Rewriter.getProgramForRewrittenQuery(program, constantFreeQuery);
+	}
+
+	@Benchmark
+	public DatalogProgram magicSet() {
+		return MagicSetRewriter.rewrite(program, constantFreeQuery);
+	}
+
+	@Benchmark
+	public DatalogClause substitution() {
+		return QueryRewriterSubstitution.rewrite(query, indexRules);
+	}
+
+	@Benchmark
+	public int sqlForDatalogClause() {
+		int length = 0;
+		for (DatalogClause c : rewrittenRules) {
+			length += pgStore.getSqlForDatalogClause(c).length();
+		}
+		return length;
+	}
+}
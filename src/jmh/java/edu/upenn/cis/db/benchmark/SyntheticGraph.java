@@ -0,0 +1,132 @@
+package edu.upenn.cis.db.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.upenn.cis.db.ConjunctiveQuery.Atom;
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.simpleengine.LongTuple;
+import edu.upenn.cis.db.datalog.simpleengine.Relation;
+import edu.upenn.cis.db.datalog.simpleengine.SimpleDatalogEngine;
+import edu.upenn.cis.db.datalog.simpleengine.StringDictionary;
+import edu.upenn.cis.db.graphtrans.CommandExecutor;
+import edu.upenn.cis.db.graphtrans.Config;
+import edu.upenn.cis.db.graphtrans.Console;
+import edu.upenn.cis.db.graphtrans.GraphTransServer;
+import edu.upenn.cis.db.graphtrans.experiment.GraphGenerator;
+import edu.upenn.cis.db.helper.Performance;
+
+/**
+ * Inputs of the benchmarks: synthetic graphs of GraphGenerator (nodes A,B,C,D,F and edges X,Y)
+ * loaded into simple datalog relations N(nid,label) and E(eid,from,to,label), and a virtual
+ * view over the same schema for the rewriters.
+ */
+public class SyntheticGraph {
+	public static final long SEED = 12345;
+	public static final long RATE = 1000; // 10% of the subgraphs have labels without postfix
+
+	public static final String VIEW = "CREATE virtual VIEW v0 ON g ("
+			+ " MATCH (c:C)-[x:X]->(d:D)"
+			+ " CONSTRUCT (c:S)-[x:Y]->(d:T)"
+			+ ")";
+	public static final String QUERY = "MATCH (c:S)-[x:Y]->(d:T) FROM v0 RETURN (c),(d),(x)";
+
+	private static final String[] SCHEMA = {
+		"create node A", "create node B", "create node C", "create node D", "create node F",
+		"create node S", "create node T",
+		"create edge X (A -> B)", "create edge X (B -> C)", "create edge X (C -> D)",
+		"create edge X (D -> C)", "create edge Y (C -> D)", "create edge X (D -> F)",
+		"create edge Y (S -> T)",
+	};
+
+	private static boolean isInitialized = false;
+
+	public static synchronized void initialize() {
+		if (isInitialized == true) {
+			return;
+		}
+		try {
+			Config.load("conf/graphview.conf");
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		Config.initialize();
+		Config.setTypeCheckEnabled(false);
+		Config.setTypeCheckPruningEnabled(false);
+		Config.setSubQueryPruningEnabled(false);
+		Config.setUseSimpleDatalogEngine(true);
+		GraphTransServer.initialize();
+		Config.setWorkspace("BENCH");
+		Performance.setup(Config.getWorkspace(), "benchmark");
+		CommandExecutor.setConsole(new Console());
+		isInitialized = true;
+	}
+
+	/**
+	 * Generate a graph of about size nodes and load it into N and E of a new engine.
+	 */
+	public static SimpleDatalogEngine createEngine(long size) throws IOException {
+		initialize();
+		Path dir = Files.createTempDirectory("graph-bench");
+		GraphGenerator.createInputGraph(SEED, size, RATE, 0, 0, 0, false, dir.toString(), false);
+
+		SimpleDatalogEngine engine = new SimpleDatalogEngine();
+		Relation relN = new Relation(new ArrayList<String>(Arrays.asList("_1", "_2")));
+		for (String line : Files.readAllLines(dir.resolve("node.csv"))) {
+			String[] v = line.split(",");
+			relN.addTuple(new LongTuple(Long.parseLong(v[0]), encodeLabel(v[1])));
+		}
+		Relation relE = new Relation(new ArrayList<String>(Arrays.asList("_1", "_2", "_3", "_4")));
+		for (String line : Files.readAllLines(dir.resolve("edge.csv"))) {
+			String[] v = line.split(",");
+			relE.addTuple(new LongTuple(Long.parseLong(v[0]), Long.parseLong(v[1]), Long.parseLong(v[2]), encodeLabel(v[3])));
+		}
+		engine.addRel("N", relN);
+		engine.addRel("E", relE);
+
+		Files.delete(dir.resolve("node.csv"));
+		Files.delete(dir.resolve("edge.csv"));
+		Files.delete(dir);
+		return engine;
+	}
+
+	private static long encodeLabel(String label) {
+		return StringDictionary.encode(label.replace("\"", ""));
+	}
+
+	/**
+	 * Connect to the embedded store and create the schema and VIEW, so that
+	 * GraphTransServer.getProgram() has the view rules.
+	 */
+	public static void createView() {
+		initialize();
+		CommandExecutor.run("connect sd");
+		CommandExecutor.run("create graph bench");
+		CommandExecutor.run("use bench");
+		for (String s : SCHEMA) {
+			CommandExecutor.run(s);
+		}
+		CommandExecutor.run(VIEW);
+	}
+
+	public static void dropView() {
+		CommandExecutor.run("drop bench");
+		CommandExecutor.run("disconnect");
+	}
+
+	/**
+	 * The query with constants moved to interpreted atoms (as CommandExecutor.query does).
+	 */
+	public static DatalogClause getConstantFreeQuery(DatalogClause q) {
+		DatalogClause c = new DatalogClause();
+		c.addAtomToHeads(q.getHead());
+		for (Atom a : q.getBody()) {
+			c.getBody().addAll(a.getAtomBodyStrWithInterpretedAtoms(""));
+		}
+		return c;
+	}
+}
@@ -36,7 +36,8 @@ cmd: quit | schema | egds | views | program | query | load_script |
 	connect | disconnect | create_graph | use_graph | drop_graph | 
 	create_schema | add_constraint |
 	create_view | user_query | import_data | user_query |
-	insert | option | list | prepare_database | create_ssr
+	insert | option | list | prepare_database | create_ssr |
+	prepare_query | execute_query | deallocate_query
 	//pg_view | pg_query
 	;
 
@@ -196,6 +197,15 @@ return a
 */
 user_query: match_clause from_clause? where_clause? return_clause;
 
+/*
+ PREPARE q1 AS MATCH (a:A)-[x:X]->(b:B) FROM v1 WHERE a = $1 RETURN (a)
+ EXECUTE q1 (42)
+ DEALLOCATE q1
+ */
+prepare_query: 'PREPARE' ID 'AS' user_query;
+execute_query: 'EXECUTE' ID ('(' int_or_literal (',' int_or_literal)* ')')?;
+deallocate_query: 'DEALLOCATE' ID;
+
 // clauses for user_query
 //match_clause2: 'match' hop_or_terms;
 hop_or_terms: hop_or_term (',' hop_or_term)*;
@@ -211,7 +221,8 @@ rop: var ('.' prop)? | propValue | skolemFunction | array;
 array: '[' propValue (',' propValue)* ']';
 operator: '=' | '>' | '<' | '>=' | '<=' | '!=' | 'IN';
 prop : ID;
-propValue : int_or_literal;
+propValue : int_or_literal | parameter;
+parameter: '$' INTEGER;
 skolemFunction: 'SK(' skolemFunctionName ',' var (',' var)* ')';
 skolemFunctionName: literal;
 
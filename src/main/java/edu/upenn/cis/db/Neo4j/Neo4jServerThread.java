@@ -32,10 +32,13 @@ import org.neo4j.configuration.helpers.SocketAddress;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
 import org.neo4j.importer.ImportCommandProvider;
 import org.neo4j.io.fs.FileUtils;
 import org.neo4j.kernel.api.procedure.GlobalProcedures;
@@ -50,12 +53,16 @@ import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 import edu.upenn.cis.db.graphtrans.Config;
+import edu.upenn.cis.db.graphtrans.graphdb.neo4j.TranslatorToCypher;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
 import edu.upenn.cis.db.graphtrans.store.neo4j.Neo4jStore;
+import edu.upenn.cis.db.helper.CSVBulkLoader;
 import edu.upenn.cis.db.helper.Util;
 import reactor.util.function.Tuple4;
 import reactor.util.function.Tuples;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -66,9 +73,13 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
@@ -84,6 +95,11 @@ public class Neo4jServerThread extends Thread {
 	private static HashMap<Long, Long> nidToId = new HashMap<Long, Long>();
 	
 	private static ArrayList<String> edgeTriggers = new ArrayList<String>();
+	private static final int batchSize = 10000; // nodes or edges per transaction of batched inserts and CSV import
+
+	// uid -> internal id of the nodes created by addNodes (checked on use since views may delete nodes)
+	private ConcurrentHashMap<Long, Long> uidToNodeId = new ConcurrentHashMap<Long, Long>();
+	private Set<String> indexedLabels = ConcurrentHashMap.newKeySet(); // labels with an index on uid
 
 	public Neo4jServerThread(String database) {
 		this.database = database;
@@ -98,69 +114,207 @@ public class Neo4jServerThread extends Thread {
 	}
 
 	public void addNode(long nid, String label) {
-		//		firstNode = tx.createNode();
-		//		firstNode.setProperty( "message", "Hello, " );
-		//		secondNode = tx.createNode();
-		//		secondNode.setProperty( "message", "World!" );
-		//
-		//		relationship = firstNode.createRelationshipTo( secondNode, RelTypes.KNOWS );
-		//		relationship.setProperty( "message", "brave Neo4j " );
+		ArrayList<Pair<Long, String>> nodes = new ArrayList<Pair<Long, String>>();
+		nodes.add(Pair.of(nid, label));
+		addNodes(nodes);
+	}
 
-		try (Transaction tx = graphDb.beginTx()) {
-//			System.out.println("[Neo4jServerThread] addNode nid: " + nid + " label: " + label);
-			Node node = tx.createNode(Label.label(label));
-			node.setProperty("uid", nid);
-			node.setProperty("level", 0);
-			node.setProperty("c", 0);
-			node.setProperty("d", 99);
-			tx.commit();
+	public void addEdge(long eid, long fromId, long toId, String label) {
+		ArrayList<Tuple4<Long, Long, Long, String>> edges = new ArrayList<Tuple4<Long, Long, Long, String>>();
+		edges.add(Tuples.of(eid, fromId, toId, label));
+		addEdges(edges);
+	}
+
+	/**
+	 * Create nodes (uid, label) with the core API, batchSize nodes per transaction.
+	 * 
+	 * @return # of nodes created
+	 */
+	public long addNodes(List<Pair<Long, String>> nodes) {
+		for (Pair<Long, String> n : nodes) {
+			createUidIndex(n.getRight());
 		}
+		long numCreated = 0;
+		for (int i = 0; i < nodes.size(); i += batchSize) {
+			List<Pair<Long, String>> batch = nodes.subList(i, Math.min(i + batchSize, nodes.size()));
+			HashMap<Long, Long> created = new HashMap<Long, Long>();
+			for (int attempt = 1; ; attempt++) {
+				created.clear();
+				try (Transaction tx = graphDb.beginTx()) {
+					for (Pair<Long, String> n : batch) {
+						Node node = tx.createNode(Label.label(n.getRight()));
+						node.setProperty("uid", n.getLeft());
+						node.setProperty("level", 0);
+						node.setProperty("c", 0);
+						node.setProperty("d", 99);
+						created.put(n.getLeft(), node.getId());
+					}
+					tx.commit();
+					break;
+				} catch (TransientFailureException e) {
+					if (attempt >= 5) {
+						throw e;
+					}
+				}
+			}
+			uidToNodeId.putAll(created);
+			numCreated += created.size();
+		}
+		return numCreated;
 	}
 
-	public void addEdge(long eid, long fromId, long toId, String label) {
-		//		try (Transaction tx = graphDb.beginTx()) {
-		//		    Node fromNode = tx.findNode(null, "nid", fromId);
-		//		    Node toNode = tx.findNode(null, "nid", toId);
-		//		    Relationship edge = fromNode.createRelationshipTo(toNode, RelationshipType.withName(label));
-		//		    edge.setProperty("eid", eid);
-		//		    tx.commit();
-		//		}		
-
-		StringBuilder stmt = new StringBuilder("MATCH (a), (b)\n");
-		stmt.append("WHERE a.uid = ")
-		.append(fromId)
-		.append(" AND b.uid = ")
-		.append(toId)
-		.append("\n")
-		.append("CREATE (a)-[r:")
-		.append(label)
-		.append(" {uid: ")
-		.append(eid)
-		.append(",level:0, c:0, d:99")
-		.append("}]->(b)\n")
-		.append("RETURN r");
-
-		//		System.out.println("addEdge: " + stmt.toString());
+	/**
+	 * Create edges (uid, from uid, to uid, label) with the core API, batchSize edges per transaction.
+	 * Edges whose nodes do not exist are skipped. The edge triggers (IVM) are called once per batch 
+	 * with the uids of its new edges.
+	 * 
+	 * @return # of edges created
+	 */
+	public long addEdges(List<Tuple4<Long, Long, Long, String>> edges) {
+		long numCreated = 0;
+		for (int i = 0; i < edges.size(); i += batchSize) {
+			List<Tuple4<Long, Long, Long, String>> batch = edges.subList(i, Math.min(i + batchSize, edges.size()));
+			ArrayList<Long> eids = new ArrayList<Long>();
+			for (int attempt = 1; ; attempt++) {
+				eids.clear();
+				try (Transaction tx = graphDb.beginTx()) {
+					for (Tuple4<Long, Long, Long, String> e : batch) {
+						Node from = findNode(tx, e.getT2());
+						Node to = findNode(tx, e.getT3());
+						if (from == null || to == null) {
+							continue;
+						}
+						Relationship rel = from.createRelationshipTo(to, RelationshipType.withName(e.getT4()));
+						rel.setProperty("uid", e.getT1());
+						rel.setProperty("level", 0);
+						rel.setProperty("c", 0);
+						rel.setProperty("d", 99);
+						eids.add(e.getT1());
+					}
+					tx.commit();
+					break;
+				} catch (TransientFailureException e) {
+					if (attempt >= 5) {
+						throw e;
+					}
+				}
+			}
+			callEdgeTriggers(eids);
+			numCreated += eids.size();
+		}
+		return numCreated;
+	}
 
-		int tid = Util.startTimer();
-		
-		try (Transaction tx = graphDb.beginTx()) {
-			tx.execute(stmt.toString());
-			tx.commit();
-		}	
-//		System.out.println("[##N4ServeThread] et: " + Util.getElapsedTime(tid));
-		
+	/**
+	 * Call each edge trigger procedure once with the uids of the new edges (in a transaction per procedure).
+	 */
+	private void callEdgeTriggers(List<Long> eids) {
+		if (eids.size() == 0) {
+			return;
+		}
+		HashMap<String, Object> params = new HashMap<String, Object>();
+		params.put("eids", eids);
 		for (int i = 0; i < edgeTriggers.size(); i++) {
-			String procName = edgeTriggers.get(i);
-			String stmt2 = "CALL custom." + procName + "(" + eid + ");";
-//			System.out.println("[Neo4jServerThread] " + stmt2);
+			String stmt = "CALL custom." + edgeTriggers.get(i) + "($eids) YIELD answer RETURN count(*)";
+			try (Transaction tx = graphDb.beginTx()) {
+				tx.execute(stmt, params).close();
+				tx.commit();
+			}
+		}
+	}
 
+	/**
+	 * Node with the uid, looked up by uidToNodeId or the index on uid of its label (null if none).
+	 */
+	private Node findNode(Transaction tx, long uid) {
+		Long id = uidToNodeId.get(uid);
+		if (id != null) {
+			try {
+				Node node = tx.getNodeById(id);
+				if (Long.valueOf(uid).equals(node.getProperty("uid", null)) == true) {
+					return node;
+				}
+			} catch (NotFoundException e) {
+				// deleted (e.g., by a view)
+			}
+			uidToNodeId.remove(uid);
+		}
+		// nodes of copy-and-update views are copies keeping the uid of their base nodes, and have a view label
+		Node found = null;
+		int numFound = 0;
+		HashSet<Long> ids = new HashSet<Long>();
+		for (String label : indexedLabels) {
+			try (ResourceIterator<Node> nodes = tx.findNodes(Label.label(label), "uid", uid)) {
+				while (nodes.hasNext() == true) {
+					Node node = nodes.next();
+					if (ids.add(node.getId()) == false || hasViewLabel(node) == true) {
+						continue;
+					}
+					found = node;
+					numFound++;
+				}
+			}
+		}
+		if (numFound > 1) {
+			throw new IllegalArgumentException("uid [" + uid + "] is ambiguous: " + numFound + " base nodes have it");
+		}
+		if (found == null && ids.size() > 0) { // only copies (e.g., the base node has a view label of an overlay view)
+			if (ids.size() > 1) {
+				throw new IllegalArgumentException("uid [" + uid + "] is ambiguous: " + ids.size() + " nodes have it");
+			}
+			found = tx.getNodeById(ids.iterator().next());
+		}
+		if (found != null) {
+			uidToNodeId.put(uid, found.getId());
+		}
+		return found;
+	}
+
+	private static boolean hasViewLabel(Node node) {
+		for (Label l : node.getLabels()) {
+			if (TranslatorToCypher.isViewLabel(l.name()) == true) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create an index on uid of the nodes of a label (if not yet), so that findNode does not scan all nodes.
+	 * A uniqueness constraint is not used since nodes copied by views may keep the uid of their sources.
+	 */
+	private void createUidIndex(String label) {
+		if (indexedLabels.contains(label) == true || TranslatorToCypher.isViewLabel(label) == true) {
+			return;
+		}
+		synchronized (indexedLabels) {
+			if (indexedLabels.contains(label) == true) {
+				return;
+			}
 			try (Transaction tx = graphDb.beginTx()) {
-				tx.execute(stmt2);
+				tx.execute("CREATE INDEX IF NOT EXISTS FOR (n:`" + label + "`) ON (n.uid)").close();
 				tx.commit();
 			}
+			try (Transaction tx = graphDb.beginTx()) {
+				tx.schema().awaitIndexesOnline(10, TimeUnit.MINUTES);
+			}
+			indexedLabels.add(label);
+		}
+	}
+
+	/**
+	 * Create indexes on uid for the labels of existing nodes (e.g., of a loaded database).
+	 */
+	private void createUidIndexes() {
+		ArrayList<String> labels = new ArrayList<String>();
+		try (Transaction tx = graphDb.beginTx()) {
+			for (Label l : tx.getAllLabelsInUse()) {
+				labels.add(l.name());
+			}
+		}
+		for (String label : labels) {
+			createUidIndex(label);
 		}
-//		System.out.println("[##N4ServeThread] et2 after trigger: " + Util.getElapsedTime(tid));
 	}
 
 	public void createDb() {
@@ -220,6 +374,8 @@ public class Neo4jServerThread extends Thread {
 		registerProcedure(graphDb, apoc.load.LoadCsv.class);
 		registerProcedure(graphDb, apoc.path.PathExplorer.class);
 
+		createUidIndexes();
+
 		setRunning(true);
 		System.out.println("[Neo4jServerThread] Neo4j with database [" + database + "] has started.");
 	}
@@ -260,12 +416,19 @@ public class Neo4jServerThread extends Thread {
 	}   
 
 	public StoreResultSet execute(String stmt, boolean isQuery) {
+		return execute(stmt, null, isQuery);
+	}
+
+	/**
+	 * @param params values of the parameters ($1 is the key "1") of stmt, or null
+	 */
+	public StoreResultSet execute(String stmt, Map<String, Object> params, boolean isQuery) {
 		StoreResultSet rs = null;
 
 		int tid2 = Util.startTimer();
 
 		try (Transaction tx = graphDb.beginTx()) {
-			Result result = tx.execute(stmt);
+			Result result = (params != null) ? tx.execute(stmt, params) : tx.execute(stmt);
 			
 			if (result == null) {
 				throw new IllegalArgumentException("result is null stmt: " + stmt);
@@ -506,6 +669,18 @@ public class Neo4jServerThread extends Thread {
 		}
 	}
 
+	public long getNumNodes() {
+		try (Transaction tx = graphDb.beginTx(); Result result = tx.execute("MATCH (n) RETURN count(n) AS c")) {
+			return (Long)result.next().get("c");
+		}
+	}
+
+	public long getNumEdges() {
+		try (Transaction tx = graphDb.beginTx(); Result result = tx.execute("MATCH ()-[r]->() RETURN count(r) AS c")) {
+			return (Long)result.next().get("c");
+		}
+	}
+
 	public void getApocHelp() {
 		System.out.println("[getApocHelp] graphDb: " + graphDb);
 		StringBuilder stmt = new StringBuilder();
@@ -528,50 +703,56 @@ public class Neo4jServerThread extends Thread {
 		}
 	}
 
-	public void importNodesFromCSV(String filepath) {
-		StringBuilder stmt = new StringBuilder();
-		stmt.append("CALL apoc.periodic.iterate( ")
-		.append("'CALL apoc.load.csv(\"" + filepath + "\") yield list as list return list' ")
-		.append(",'CALL apoc.create.node([list[1]], {uid: list[0]}) YIELD node RETURN count(*)' ")
-		.append(",{batchSize:10000, iterateList:true, parallel:true})");	
+	/**
+	 * Import nodes (id,label) from a CSV file with a header line. Chunks of the file are loaded
+	 * on several threads (see CSVBulkLoader), in transactions of batchSize nodes (see addNodes).
+	 * 
+	 * @return # of nodes created
+	 */
+	public long importNodesFromCSV(String filepath) throws IOException {
+		return CSVBulkLoader.load(filepath, reader -> importCSVChunk(reader, true));
+	}
 
-		try (Transaction tx = graphDb.beginTx()) {
-			Result result = tx.execute(stmt.toString());
-			String rows = null;
-			while ( result.hasNext() )
-			{
-				Map<String,Object> row = result.next();
-				for ( Entry<String,Object> column : row.entrySet() )
-				{
-					rows += column.getKey() + ": " + column.getValue() + "; ";
-				}
-				rows += "\n";
-			}
-			System.out.println("rows: " + rows);
-		}
+	/**
+	 * Import edges (id,from,to,label) from a CSV file with a header line (see importNodesFromCSV).
+	 * Edges whose nodes do not exist are skipped.
+	 * 
+	 * @return # of edges created
+	 */
+	public long importEdgesFromCSV(String filepath) throws IOException {
+		return CSVBulkLoader.load(filepath, reader -> importCSVChunk(reader, false));
 	}
 
-	public void importEdgesFromCSV(String filepath) {
-		StringBuilder stmt = new StringBuilder();
-		stmt.append("CALL apoc.periodic.iterate( ")
-		.append("'CALL apoc.load.csv(\"" + filepath + "\") yield list as list return list' ")
-		.append(",'MATCH (p1 {uid:list[1]}), (p2 {uid:list[2]}) WITH p1, p2, list ")
-		.append("CALL apoc.create.relationship(p1,list[3],{uid:list[0]}, p2) YIELD rel RETURN count(*) '")
-		.append(",{batchSize:10000, iterateList:true, parallel:true})");	
- 
-		try (Transaction tx = graphDb.beginTx()) {
-			Result result = tx.execute(stmt.toString());
-			String rows = null;
-			while ( result.hasNext() ) {
-				Map<String,Object> row = result.next();
-				for ( Entry<String,Object> column : row.entrySet() )
-				{
-					rows += column.getKey() + ": " + column.getValue() + "; ";
-				}
-				rows += "\n";
+	private long importCSVChunk(BufferedReader reader, boolean isNode) throws IOException {
+		ArrayList<Pair<Long, String>> nodes = new ArrayList<Pair<Long, String>>();
+		ArrayList<Tuple4<Long, Long, Long, String>> edges = new ArrayList<Tuple4<Long, Long, Long, String>>();
+		int numCols = (isNode == true) ? 2 : 4;
+		long numCreated = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty() == true) {
+				continue;
+			}
+			String[] cols = line.split(",", -1);
+			if (cols.length != numCols) {
+				throw new IllegalArgumentException("CSV row should have " + numCols + " columns. row: " + line);
+			}
+			long uid = Long.parseLong(cols[0].trim());
+			String label = Util.removeQuotes(cols[numCols - 1].trim());
+			if (isNode == true) {
+				nodes.add(Pair.of(uid, label));
+			} else {
+				edges.add(Tuples.of(uid, Long.parseLong(cols[1].trim()), Long.parseLong(cols[2].trim()), label));
+			}
+
+			if (nodes.size() + edges.size() >= batchSize) {
+				numCreated += (isNode == true) ? addNodes(nodes) : addEdges(edges);
+				nodes.clear();
+				edges.clear();
 			}
-			System.out.println("rows: " + rows);
 		}
+		numCreated += (isNode == true) ? addNodes(nodes) : addEdges(edges);
+		return numCreated;
 	}
 
 	public static void registerProcedure(GraphDatabaseService db, Class<?>...procedures) {
@@ -737,6 +918,71 @@ public class Neo4jServerThread extends Thread {
 		//				);		
 	}	
 
+	/**
+	 * Create the database from CSV files of nodes and edges with the offline import tool, replacing
+	 * the existing one (which must not be running). A file without a header of the import tool
+	 * (e.g., uid:ID,:LABEL) is converted first from the (id,label) or (id,from,to,label) columns
+	 * after its header line.
+	 */
+	public static void importDatabase(List<String> nodeFiles, List<String> edgeFiles) throws IOException {
+		String database = "neo4j";
+		String baseDir = Config.get("neo4j.dbdir");
+		FileUtils.deleteDirectory(Path.of(baseDir + "/data/databases/" + database));
+		FileUtils.deleteDirectory(Path.of(baseDir + "/data/transactions/" + database));
+
+		Path importDir = Path.of(baseDir + "/import");
+		Files.createDirectories(importDir);
+
+		ArrayList<String> params = new ArrayList<String>();
+		params.add("import");
+		params.add("--database=" + database);
+		params.add("--id-type=INTEGER");
+		for (int i = 0; i < nodeFiles.size(); i++) {
+			params.add("--nodes=" + getImportFile(nodeFiles.get(i), importDir.resolve("n" + i + ".csv"), true));
+		}
+		for (int i = 0; i < edgeFiles.size(); i++) {
+			params.add("--relationships=" + getImportFile(edgeFiles.get(i), importDir.resolve("e" + i + ".csv"), false));
+		}
+		// no --skip-bad-relationships: an edge whose nodes are missing fails the import instead of being dropped
+
+		Path neo4j_home = FileSystems.getDefault().getPath(baseDir).toAbsolutePath().normalize();
+		Path neo4j_conf_home = FileSystems.getDefault().getPath("./conf").toAbsolutePath().normalize();
+		System.out.println("[Neo4jServerThread] importDatabase params: " + params);
+
+		ExecutionContext ctx = new ExecutionContext(neo4j_home, neo4j_conf_home);
+		int code = AdminTool.execute(ctx, params.toArray(new String[]{}));
+		if (code != 0) {
+			throw new IOException("Import tool failed with exit code " + code + ". params: " + params);
+		}
+	}
+
+	/**
+	 * @return the file itself if it has a header of the import tool, a converted copy at dst otherwise
+	 */
+	private static String getImportFile(String filePath, Path dst, boolean isNode) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(Path.of(filePath))) {
+			String header = reader.readLine();
+			if (header != null && header.contains((isNode == true) ? ":ID" : ":START_ID") == true) {
+				return filePath;
+			}
+			try (BufferedWriter writer = Files.newBufferedWriter(dst)) {
+				if (isNode == true) {
+					writer.write("uid:ID,:LABEL,level:int,c:int,d:int\n");
+				} else {
+					writer.write("uid:long,:START_ID,:END_ID,:TYPE,level:int,c:int,d:int\n");
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty() == false) {
+						writer.write(line);
+						writer.write(",0,0,99\n");
+					}
+				}
+			}
+		}
+		return dst.toString();
+	}
+
 	public static void prepareDatabase(String dbName, String srcPath, String dstPath) {
 		String database = "neo4j";
 		System.out.println("[Neo4jStore] prepareDatabase " + "dbName[" + dbName + "] srcPath[" + srcPath + "] dstPath [" + dstPath + "] with neo4jBaseDir[" + Config.get("neo4j.dbdir") + "]");
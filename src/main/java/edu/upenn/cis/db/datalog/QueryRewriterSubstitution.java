@@ -20,14 +20,18 @@ import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 import edu.upenn.cis.db.graphtrans.CommandExecutor;
 import edu.upenn.cis.db.graphtrans.Config;
-import edu.upenn.cis.db.graphtrans.GraphTransServer;
 import edu.upenn.cis.db.graphtrans.store.Store;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.graphtrans.store.simpledatalog.SimpleDatalogStore;
 import edu.upenn.cis.db.helper.Util;
 import edu.upenn.cis.db.logicblox.LogicBlox;
 
+/**
+ * Rewriting of a query with the SSR index rules of a view. Each call builds the canonical database
+ * of the query in its own store, so queries are rewritten concurrently.
+ */
 public class QueryRewriterSubstitution {
-	private static ArrayList<Boolean> rewrittenAtoms;
+	private ArrayList<Boolean> rewrittenAtoms;
 //	private static ArrayList<DatalogClause> datalogRules;
 	
 	private static String workspace = "_QUERY_REWRITER";
@@ -35,9 +39,16 @@ public class QueryRewriterSubstitution {
 	private static DatalogProgram p = new DatalogProgram();
 	private static DatalogParser parser = new DatalogParser(p);
 	
-	private static Store store = null;
+	private Store store = null;
 	
-	private static void createCanonicalDatabase(DatalogClause q) {
+	private QueryRewriterSubstitution() {
+		store = new SimpleDatalogStore();
+		store.connect();
+		store.createDatabase(workspace);
+		store.useDatabase(workspace);
+	}
+
+	private void createCanonicalDatabase(DatalogClause q) {
 		ArrayList<Atom> body = q.getBody();
 		
 		Predicate p1 = new Predicate(Config.relname_node + "_" + CommandExecutor.getFrom());
@@ -60,7 +71,7 @@ public class QueryRewriterSubstitution {
 		}
 	}
 	
-	private static StoreResultSet queryCanonicalDatabase(DatalogClause q) {
+	private StoreResultSet queryCanonicalDatabase(DatalogClause q) {
 //		System.out.println("[queryCanonicalDatabase] q: " + q);
 		DatalogClause c = new DatalogClause();
 		
@@ -118,10 +129,15 @@ public class QueryRewriterSubstitution {
 	 * @param q2
 	 */
 	public static DatalogClause rewrite(DatalogClause q1, ArrayList<DatalogClause> rules) {
-		store = GraphTransServer.getBaseStore();
-		store.createDatabase(workspace);
-		store.useDatabase(workspace);
-		
+		QueryRewriterSubstitution rewriter = new QueryRewriterSubstitution();
+		try {
+			return rewriter.rewriteQuery(q1, rules);
+		} finally {
+			rewriter.store.disconnect();
+		}
+	}
+
+	private DatalogClause rewriteQuery(DatalogClause q1, ArrayList<DatalogClause> rules) {
 		DatalogClause rewriting = new DatalogClause();
 		rewrittenAtoms = new ArrayList<Boolean>();
 		
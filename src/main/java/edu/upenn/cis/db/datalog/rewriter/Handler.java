@@ -191,7 +191,7 @@ public class Handler {
 		HashSet<Atom> UDFs = selectUDFAtoms(rwBody);
 		HashSet<String> boundVars = new LinkedHashSet<String>();
 		for (Atom b : rwBody) {
-			if (Rewriter.getProgram().getEDBs().contains(b.getRelName()) == true 
+			if (Rewriter.getEDBs().contains(b.getRelName()) == true 
 					|| Rewriter.getRewrittenProgram().getEDBs().contains(b.getRelName()) == true) {
 				boundVars.addAll(b.getVars());
 			}
@@ -213,7 +213,7 @@ public class Handler {
 			for (Atom a : rwBody) {
 				if (a == u) continue;
 				if (a.isNegated() == true) continue;
-				if (Rewriter.getProgram().getEDBs().contains(a.getRelName()) == false
+				if (Rewriter.getEDBs().contains(a.getRelName()) == false
 						&& Rewriter.getRewrittenProgram().getEDBs().contains(a.getRelName()) == false
 						&& a.isInterpreted() == false) continue;
 
@@ -283,7 +283,7 @@ public class Handler {
 	
 		for (Atom a : atoms) {
 			if (a.isNegated() == true) continue;
-			if (Rewriter.getProgram().getEDBs().contains(a.getPredicate().getRelName()) == true) continue;
+			if (Rewriter.getEDBs().contains(a.getPredicate().getRelName()) == true) continue;
 			if (Rewriter.getProgram().getUDFs().contains(a.getPredicate().getRelName()) == true) continue;
 			if (Rewriter.getRewrittenProgram().getEDBs().contains(a.getPredicate().getRelName()) == true) continue;
 			if (a.isInterpreted() == true) continue;
@@ -308,7 +308,7 @@ public class Handler {
 		for (Atom a : atoms) {
 			if (a.isNegated() == false) continue;
 			if (a.isInterpreted() == true) continue;
-			if (Rewriter.getProgram().getEDBs().contains(a.getRelName()) == true) continue;
+			if (Rewriter.getEDBs().contains(a.getRelName()) == true) continue;
 			if (Rewriter.getProgram().getUDFs().contains(a.getRelName()) == true) continue;
 			if (Rewriter.getRewrittenProgram().getEDBs().contains(a.getRelName()) == true) continue;
 			selectedAtom = a;
@@ -5,21 +5,22 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.upenn.cis.db.ConjunctiveQuery.Atom;
 import edu.upenn.cis.db.ConjunctiveQuery.Term;
 import edu.upenn.cis.db.graphtrans.Config;
 
 public class Helper {
-	private static int predIdx = 0;
-	private static int varIdx = 0;
+	private static AtomicInteger predIdx = new AtomicInteger();
+	private static AtomicInteger varIdx = new AtomicInteger();
 
 	public static String getNewPred() {
-		return "R_" + (predIdx++);
+		return "R_" + predIdx.getAndIncrement();
 	}
 
 	public static String getNewVar() {
-		return "_v" + (varIdx++); 
+		return "_v" + varIdx.getAndIncrement(); 
 	}
 
 	public static HashSet<String> getVars(Set<Atom> atoms) {
@@ -224,7 +225,7 @@ public class Helper {
 					if (boundVars.contains(v) == true) {
 						atomsInSubquery.add(a); //.add(v);
 					}
-				} else if (Rewriter.getProgram().getEDBs().contains(a.getRelName()) == true) {
+				} else if (Rewriter.getEDBs().contains(a.getRelName()) == true) {
 					for (String v : a.getVars()) {
 						if (boundVars.contains(v) == true) {
 							boundVars.addAll(a.getVars());
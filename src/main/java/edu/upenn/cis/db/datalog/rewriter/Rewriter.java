@@ -16,15 +16,31 @@ import edu.upenn.cis.db.graphtrans.Config;
 
 public class Rewriter {
 	final static Logger logger = LogManager.getLogger(Rewriter.class);
-	private static DatalogProgram program; /* given program */
-	private static DatalogProgram rewrittenProgram;
+
+	/**
+	 * State of one rewriting, set for the thread running it, so queries are rewritten concurrently.
+	 * The given program is only read: the heads of unfoldings are added to a copy of its EDBs.
+	 */
+	private static class Context {
+		private DatalogProgram program; /* given program */
+		private DatalogProgram rewrittenProgram;
+		private HashSet<String> edbs;
+	}
+	private static ThreadLocal<Context> context = new ThreadLocal<Context>();
 
 	public static DatalogProgram getProgram() {
-		return program;
+		return context.get().program;
 	}
 	
 	public static DatalogProgram getRewrittenProgram() {
-		return rewrittenProgram;
+		return context.get().rewrittenProgram;
+	}
+
+	/**
+	 * EDBs of the given program, and the heads of the unfoldings of this rewriting
+	 */
+	public static Set<String> getEDBs() {
+		return context.get().edbs;
 	}
 	
 	/**
@@ -51,8 +67,20 @@ public class Rewriter {
 		if (q.getHeads().size() > 1) {
 			throw new UnsupportedOperationException("Query should have 1 head.");
 		}
-		program = p;
-		rewrittenProgram = new DatalogProgram();
+		Context c = new Context();
+		c.program = p;
+		c.rewrittenProgram = new DatalogProgram();
+		c.edbs = new HashSet<String>(p.getEDBs());
+		context.set(c);
+		try {
+			return getRewrittenProgram(q);
+		} finally {
+			context.remove();
+		}
+	}
+
+	private static DatalogProgram getRewrittenProgram(DatalogClause q) {
+		DatalogProgram rewrittenProgram = getRewrittenProgram();
 		
 		HashSet<String> headVars = new LinkedHashSet<String>();
 		for (Atom h : q.getHeads()) {
@@ -101,7 +101,7 @@ public class Unfolder {
 				numOfEmpty++;
 				continue;
 			}						
-			Rewriter.getProgram().getEDBs().add(unfoldHeadAtom.getPredicate().getRelName());
+			Rewriter.getEDBs().add(unfoldHeadAtom.getPredicate().getRelName());
 			DatalogClause c5 = new DatalogClause(unfoldHeadAtom, reUnfolding);
 			c5.addDesc("UNFOLD_DISJUNCTIVE");
 			Rewriter.getRewrittenProgram().addRule(c5);
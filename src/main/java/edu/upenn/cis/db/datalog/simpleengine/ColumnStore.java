@@ -0,0 +1,303 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Columnar storage of a relation of the simple datalog engine.
+ * Each column is a long[] (strings are dictionary-encoded), 
+ * and an open-addressing table over row ids keeps set semantics.
+ */
+public class ColumnStore {
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private long[][] data;
+	private int arity = -1;
+	private int size = 0;
+	private int[] slots; // row id + 1, 0 if empty; built lazily
+	private int[] distinct; // per-column distinct counts, computed lazily
+	private int distinctSize = -1; // size when distinct was computed
+	private ArrayList<HashIndex> hashIndexes = new ArrayList<HashIndex>();
+	private ArrayList<SortedIndex> sortedIndexes = new ArrayList<SortedIndex>();
+	
+	public ColumnStore() {
+	}
+	
+	public ColumnStore(int arity, int capacity) {
+		init(arity, capacity);
+	}
+
+	private void init(int arity, int capacity) {
+		this.arity = arity;
+		data = new long[arity][Math.max(capacity, INITIAL_CAPACITY)];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int arity() {
+		return (arity < 0) ? 0 : arity;
+	}
+	
+	public long get(int row, int col) {
+		return data[col][row];
+	}
+	
+	/**
+	 * Values of the column; only the first size() entries are valid.
+	 */
+	public long[] getColumn(int col) {
+		return data[col];
+	}
+	
+	public long[] getRowValues(int row) {
+		long[] values = new long[arity()];
+		for (int c = 0; c < values.length; c++) {
+			values[c] = data[c][row];
+		}
+		return values;
+	}
+
+	public LongTuple getRow(int row) {
+		return new LongTuple(getRowValues(row));
+	}
+	
+	/**
+	 * Number of distinct values of the column. The count is recomputed only after the
+	 * store has doubled since the last computation, so it may be an underestimate.
+	 */
+	public synchronized int getDistinctCount(int col) {
+		if (size == 0) {
+			return 0;
+		}
+		if (distinct == null || distinctSize * 2 < size) {
+			distinct = new int[arity];
+			for (int c = 0; c < arity; c++) {
+				distinct[c] = countDistinct(data[c], size);
+			}
+			distinctSize = size;
+		}
+		return distinct[col];
+	}
+	
+	private static int countDistinct(long[] values, int n) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < n * 2) {
+			capacity <<= 1;
+		}
+		long[] table = new long[capacity];
+		boolean[] used = new boolean[capacity];
+		int mask = capacity - 1;
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			long v = values[i];
+			int pos = mix(v) & mask;
+			while (used[pos] == true && table[pos] != v) {
+				pos = (pos + 1) & mask;
+			}
+			if (used[pos] == false) {
+				used[pos] = true;
+				table[pos] = v;
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Add a row if it does not exist.
+	 * @return true if the row is added
+	 */
+	public boolean add(long[] values) {
+		if (arity < 0) {
+			init(values.length, INITIAL_CAPACITY);
+		} else if (values.length != arity) {
+			throw new IllegalArgumentException("arity: " + arity + " values: " + Arrays.toString(values));
+		}
+		if (slots == null || (size + 1) * 2 > slots.length) {
+			rebuildSlots(size + 1);
+		}
+		int mask = slots.length - 1;
+		int pos = hash(values) & mask;
+		while (slots[pos] != 0) {
+			if (rowEquals(slots[pos] - 1, values) == true) {
+				return false;
+			}
+			pos = (pos + 1) & mask;
+		}
+		slots[pos] = appendRow(values) + 1;
+		return true;
+	}
+	
+	public boolean contains(long[] values) {
+		if (size == 0 || values.length != arity) {
+			return false;
+		}
+		if (slots == null) {
+			rebuildSlots(size);
+		}
+		int[] table = slots; // readers may share the store
+		int mask = table.length - 1;
+		int pos = hash(values) & mask;
+		while (table[pos] != 0) {
+			if (rowEquals(table[pos] - 1, values) == true) {
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Append a row without checking duplicates. The caller guarantees that the row is new.
+	 * @return row id
+	 */
+	public int append(long[] values) {
+		if (arity < 0) {
+			init(values.length, INITIAL_CAPACITY);
+		}
+		slots = null;
+		return appendRow(values);
+	}
+	
+	/**
+	 * Create a hash index on the columns (or return the existing one).
+	 * The index is maintained on every add/append.
+	 */
+	public HashIndex createHashIndex(int[] cols) {
+		for (HashIndex index : hashIndexes) {
+			if (Arrays.equals(index.getKeyColumns(), cols) == true) {
+				return index;
+			}
+		}
+		HashIndex index = new HashIndex(this, cols);
+		hashIndexes.add(index);
+		return index;
+	}
+
+	/**
+	 * Create a sorted index on the columns (or return the existing one).
+	 */
+	public SortedIndex createSortedIndex(int[] cols, StringDictionary dict) {
+		for (SortedIndex index : sortedIndexes) {
+			if (Arrays.equals(index.getKeyColumns(), cols) == true) {
+				return index;
+			}
+		}
+		SortedIndex index = new SortedIndex(this, cols, dict);
+		sortedIndexes.add(index);
+		return index;
+	}
+	
+	public ArrayList<HashIndex> getHashIndexes() {
+		return hashIndexes;
+	}
+
+	public ArrayList<SortedIndex> getSortedIndexes() {
+		return sortedIndexes;
+	}
+	
+	/**
+	 * Hash index with the most key columns, all of which are in cols; null if none.
+	 */
+	public HashIndex findHashIndex(ArrayList<Integer> cols) {
+		HashIndex best = null;
+		for (HashIndex index : hashIndexes) {
+			boolean isCovered = true;
+			for (int c : index.getKeyColumns()) {
+				if (cols.contains(c) == false) {
+					isCovered = false;
+					break;
+				}
+			}
+			if (isCovered == true && (best == null || index.getKeyColumns().length > best.getKeyColumns().length)) {
+				best = index;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Copy the given rows of src (e.g., a selection vector) into a new store.
+	 */
+	public static ColumnStore gather(ColumnStore src, int[] rows, int n) {
+		ColumnStore store = new ColumnStore(src.arity(), n);
+		for (int c = 0; c < store.arity; c++) {
+			long[] from = src.data[c];
+			long[] to = store.data[c];
+			for (int i = 0; i < n; i++) {
+				to[i] = from[rows[i]];
+			}
+		}
+		store.size = n;
+		return store;
+	}
+	
+	private int appendRow(long[] values) {
+		if (arity > 0 && size == data[0].length) {
+			int capacity = size * 2;
+			for (int c = 0; c < arity; c++) {
+				data[c] = Arrays.copyOf(data[c], capacity);
+			}
+		}
+		for (int c = 0; c < arity; c++) {
+			data[c][size] = values[c];
+		}
+		size++;
+		for (HashIndex index : hashIndexes) {
+			index.add(size - 1);
+		}
+		return size - 1;
+	}
+	
+	private void rebuildSlots(int rows) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < rows * 2) {
+			capacity <<= 1;
+		}
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for (int row = 0; row < size; row++) {
+			int pos = rowHash(row) & mask;
+			while (table[pos] != 0) {
+				pos = (pos + 1) & mask;
+			}
+			table[pos] = row + 1;
+		}
+		slots = table;
+	}
+	
+	private boolean rowEquals(int row, long[] values) {
+		for (int c = 0; c < arity; c++) {
+			if (data[c][row] != values[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private int rowHash(int row) {
+		long h = 1;
+		for (int c = 0; c < arity; c++) {
+			h = 31 * h + data[c][row];
+		}
+		return mix(h);
+	}
+	
+	private static int hash(long[] values) {
+		long h = 1;
+		for (int c = 0; c < values.length; c++) {
+			h = 31 * h + values[c];
+		}
+		return mix(h);
+	}
+	
+	static int mix(long h) {
+		int x = (int)(h ^ (h >>> 32));
+		x ^= (x >>> 16);
+		x *= 0x85ebca6b;
+		x ^= (x >>> 13);
+		return x;
+	}
+}
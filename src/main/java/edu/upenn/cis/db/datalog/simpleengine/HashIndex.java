@@ -0,0 +1,134 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import java.util.Arrays;
+
+/**
+ * Hash index over key columns of a ColumnStore. 
+ * Rows with the same bucket are chained by row id (heads/next arrays).
+ */
+public class HashIndex {
+	private ColumnStore store;
+	private int[] keyCols;
+	private int[] heads;
+	private int[] next;
+	private int count = 0;
+	
+	public HashIndex(ColumnStore store, int[] keyCols) {
+		this.store = store;
+		this.keyCols = keyCols;
+		int capacity = 16;
+		while (capacity < store.size() * 2) {
+			capacity <<= 1;
+		}
+		heads = new int[capacity];
+		Arrays.fill(heads, -1);
+		next = new int[Math.max(store.size(), 16)];
+		for (int row = 0; row < store.size(); row++) {
+			add(row);
+		}
+	}
+	
+	public int[] getKeyColumns() {
+		return keyCols;
+	}
+
+	/**
+	 * Index a row appended to the store. Rows must be added in order of their ids.
+	 */
+	public void add(int row) {
+		if (row >= next.length) {
+			next = Arrays.copyOf(next, Math.max(row + 1, next.length * 2));
+		}
+		if ((count + 1) * 2 > heads.length) {
+			rehash(heads.length * 2);
+		}
+		int b = hashOf(store, row, keyCols) & (heads.length - 1);
+		next[row] = heads[b];
+		heads[b] = row;
+		count++;
+	}
+	
+	/**
+	 * First row whose key equals the values of cols of the given row of other, -1 if none.
+	 */
+	public int find(ColumnStore other, int otherRow, int[] cols) {
+		int row = heads[hashOf(other, otherRow, cols) & (heads.length - 1)];
+		return skip(row, other, otherRow, cols);
+	}
+
+	public int findNext(int row, ColumnStore other, int otherRow, int[] cols) {
+		return skip(next[row], other, otherRow, cols);
+	}
+
+	/**
+	 * First row whose key equals the given values, -1 if none.
+	 */
+	public int find(long[] key) {
+		int row = heads[hashOf(key) & (heads.length - 1)];
+		return skip(row, key);
+	}
+	
+	public int findNext(int row, long[] key) {
+		return skip(next[row], key);
+	}
+	
+	private int skip(int row, ColumnStore other, int otherRow, int[] cols) {
+		while (row >= 0) {
+			boolean isSame = true;
+			for (int i = 0; i < keyCols.length; i++) {
+				if (store.get(row, keyCols[i]) != other.get(otherRow, cols[i])) {
+					isSame = false;
+					break;
+				}
+			}
+			if (isSame == true) {
+				return row;
+			}
+			row = next[row];
+		}
+		return -1;
+	}
+	
+	private int skip(int row, long[] key) {
+		while (row >= 0) {
+			boolean isSame = true;
+			for (int i = 0; i < keyCols.length; i++) {
+				if (store.get(row, keyCols[i]) != key[i]) {
+					isSame = false;
+					break;
+				}
+			}
+			if (isSame == true) {
+				return row;
+			}
+			row = next[row];
+		}
+		return -1;
+	}
+	
+	private void rehash(int capacity) {
+		heads = new int[capacity];
+		Arrays.fill(heads, -1);
+		for (int row = 0; row < count; row++) {
+			int b = hashOf(store, row, keyCols) & (capacity - 1);
+			next[row] = heads[b];
+			heads[b] = row;
+		}
+	}
+	
+	private static int hashOf(ColumnStore s, int row, int[] cols) {
+		long h = 1;
+		for (int i = 0; i < cols.length; i++) {
+			h = 31 * h + s.get(row, cols[i]);
+		}
+		return ColumnStore.mix(h);
+	}
+	
+	private static int hashOf(long[] key) {
+		long h = 1;
+		for (int i = 0; i < key.length; i++) {
+			h = 31 * h + key[i];
+		}
+		return ColumnStore.mix(h);
+	}
+}
@@ -0,0 +1,111 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-arity tuple of the simple datalog engine. 
+ * Every value is kept as a long; strings are dictionary-encoded by the StringDictionary
+ * of the engine the tuple belongs to.
+ */
+public final class LongTuple {
+	private final long[] values;
+	private int hash;
+	
+	/**
+	 * The array is not copied.
+	 */
+	public LongTuple(long ... values) {
+		this.values = values;
+	}
+	
+	public static LongTuple of(List<? extends SimpleTerm> terms, StringDictionary dict) {
+		long[] values = new long[terms.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = encode(terms.get(i), dict);
+		}
+		return new LongTuple(values);
+	}
+	
+	public static long encode(SimpleTerm t, StringDictionary dict) {
+		if (t instanceof StringSimpleTerm) {
+			return dict.encode(t.getString());
+		} else if (t instanceof IntegerSimpleTerm) {
+			return t.getInt();
+		} else if (t instanceof LongSimpleTerm) {
+			return t.getLong();
+		}
+		throw new IllegalArgumentException("t: " + t + " is not supported");
+	}
+	
+	public static SimpleTerm decode(long value, StringDictionary dict) {
+		if (StringDictionary.isString(value) == true) {
+			return new StringSimpleTerm(dict.decode(value));
+		}
+		return new LongSimpleTerm(value);
+	}
+	
+	public int size() {
+		return values.length;
+	}
+	
+	public long get(int i) {
+		return values[i];
+	}
+	
+	public SimpleTerm getTerm(int i, StringDictionary dict) {
+		return decode(values[i], dict);
+	}
+	
+	public long[] getValues() {
+		return values;
+	}
+	
+	public Tuple<SimpleTerm> toTuple(StringDictionary dict) {
+		ArrayList<SimpleTerm> terms = new ArrayList<SimpleTerm>(values.length);
+		for (int i = 0; i < values.length; i++) {
+			terms.add(decode(values[i], dict));
+		}
+		return new Tuple<SimpleTerm>(terms);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = Arrays.hashCode(values);
+			hash = h;
+		}
+		return h;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) 
+			return true;
+		if (obj == null || obj.getClass() != this.getClass())
+			return false;
+		return Arrays.equals(values, ((LongTuple)obj).values);
+	}
+	
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			str.append(String.format("%12s", values[i]));
+		}
+		return str.toString();
+	}
+	
+	public String toString(StringDictionary dict) {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (StringDictionary.isString(values[i]) == true) {
+				str.append(String.format("%12s", dict.decode(values[i])));
+			} else {
+				str.append(String.format("%12s", values[i]));
+			}
+		}
+		return str.toString();
+	}
+}
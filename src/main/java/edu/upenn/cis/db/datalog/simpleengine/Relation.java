@@ -1,12 +1,13 @@
 package edu.upenn.cis.db.datalog.simpleengine;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
@@ -16,142 +17,244 @@ import edu.upenn.cis.db.ConjunctiveQuery.Term;
 import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.helper.Util;
 
-public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
+public class Relation implements Iterable<LongTuple> {
+	private static final int PARALLEL_JOIN_THRESHOLD = 1 << 16; // probe rows
+	
 	ArrayList<String> columns;
-	HashSet<Tuple<T>> tuples;
+	ColumnStore store;
+	StringDictionary dict; // of the engine the relation belongs to
 		
-	public Relation() {
-//		this.columns = new ArrayList<String>();
-		tuples = new HashSet<Tuple<T>>();
+	public Relation(StringDictionary dict) {
+		store = new ColumnStore();
 		columns = new ArrayList<String>();		
+		this.dict = dict;
 	}
 
-//	public Relation(ArrayList<Tuple> tuples) {
-//		this.tuples = tuples;
-//	}
-//
-	public Relation(ArrayList<String> columns) {
+	public Relation(ArrayList<String> columns, StringDictionary dict) {
 		this.columns = columns;
-		tuples = new HashSet<Tuple<T>>();
+		store = new ColumnStore();
+		this.dict = dict;
 	}
 
-	public Relation(HashSet<Tuple<T>> tuples, ArrayList<String> columns) {
-		this.tuples = tuples;
+	public Relation(ColumnStore store, ArrayList<String> columns, StringDictionary dict) {
+		this.store = store;
 		this.columns = columns;
+		this.dict = dict;
 	}
 
-	public Relation(Relation<T> rel, ArrayList<String> columns) {
+	public Relation(Relation rel, ArrayList<String> columns) {
 		if (rel == null) {
 			throw new IllegalArgumentException("rel is null columns: " + columns);
 		}
-		this.tuples = rel.getTuples();
+		this.store = rel.getStore();
 		this.columns = columns;
+		this.dict = rel.getDictionary();
+	}
+
+	public boolean addTuple(LongTuple tuple) {
+		return store.add(tuple.getValues());
 	}
 
-	public void addTuple(Tuple<T> tuple) {
-		this.tuples.add(tuple);
+	public boolean addTuple(long[] values) {
+		return store.add(values);
+	}
+
+	/**
+	 * Create a hash index (point lookups and joins) and a sorted index (range lookups
+	 * on the first column) on the given columns. Both are kept up to date by addTuple.
+	 */
+	public void createIndex(int[] cols) {
+		store.createHashIndex(cols);
+		store.createSortedIndex(cols, dict);
 	}
 
 	public ArrayList<String> getColumns() {
 		return columns;
 	}
 	
-	public HashSet<Tuple<T>> getTuples() {
-		return tuples;
+	public ColumnStore getStore() {
+		return store;
+	}
+	
+	public StringDictionary getDictionary() {
+		return dict;
+	}
+	
+	public int size() {
+		return store.size();
 	}
 	
 	@Override
-	public Iterator<Tuple<T>> iterator() {
+	public Iterator<LongTuple> iterator() {
 		// TODO Auto-generated method stub
-        return new RelationIterator<>(this); 
+        return new RelationIterator(this); 
 	}
 	
 	private int count = 0;
 	private long elapsed = 0;
 	
-	public boolean isSelected(Tuple<T> leftTuple, Tuple<T> rightTuple, 
-			ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> pred) {
+	public static boolean compare(int op, long lvalue, long rvalue, StringDictionary dict) {
+		if (op == 1) { // eq
+			return lvalue == rvalue;
+		} else if (op == 2) { // <
+			return dict.compare(lvalue, rvalue) < 0;
+		} else if (op == 3) { // >
+			return dict.compare(lvalue, rvalue) > 0;
+		} else if (op == 4) { // !=
+			return lvalue != rvalue;
+		} else if (op == 5) { // <=
+			return dict.compare(lvalue, rvalue) <= 0;
+		} else if (op == 6) { // >=
+			return dict.compare(lvalue, rvalue) >= 0;
+		}
+		throw new UnsupportedOperationException("op: " + op + " lvalue: " + lvalue + " rvalue: " + rvalue);
+	}
+
+	/**
+	 * Evaluate predicates on the pair of rows (left row, right row). 
+	 * Column indexes >= leftSize refer to the right row; right may be null. 
+	 */
+	public static boolean isSelected(ColumnStore left, int leftRow, int leftSize, ColumnStore right, int rightRow,
+			ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred, StringDictionary dict) {
 		// op, (index1, index2=-1), or value)
-		int leftTupleSize = leftTuple.getTuple().size();
-		int rightTupleSize = (rightTuple == null) ? 0 : rightTuple.getTuple().size();
-		
-//		int tid = Util.startTimer();
-		
-//		System.out.println("[isSelected] pred: " + pred);
-		
-		boolean isSelected = true;
 		for (int i = 0; i < pred.size(); i++) {
 			int op = pred.get(i).getLeft();
 			int lhv = pred.get(i).getMiddle().getLeft();
 			int rhv = pred.get(i).getMiddle().getRight();
-			T value = pred.get(i).getRight();
-			T lvalue = null;
-			T rvalue = null;
-			if (lhv < leftTupleSize) {
-				lvalue = leftTuple.getTuple().get(lhv); 
+			long lvalue;
+			long rvalue;
+			if (lhv < leftSize) {
+				lvalue = left.get(leftRow, lhv); 
 			} else {
-				lvalue = rightTuple.getTuple().get(lhv - leftTupleSize);
+				lvalue = right.get(rightRow, lhv - leftSize);
 			}
 			if (rhv >= 0) {
-				if (rhv < leftTupleSize) {
-					rvalue = leftTuple.getTuple().get(rhv);
+				if (rhv < leftSize) {
+					rvalue = left.get(leftRow, rhv);
 				} else {
-					rvalue = rightTuple.getTuple().get(rhv - leftTupleSize);
+					rvalue = right.get(rightRow, rhv - leftSize);
 				}
 			} else {
-				rvalue = value;
+				rvalue = pred.get(i).getRight();
 			}
-//			System.out.println("newTuple: " + newTuple);
-//			System.out.println("lvalue: " + lvalue + "[lhv: " + lhv + "] rvalue: " + rvalue + "[rhv: " + rhv + "]");
-			
-//			if (lvalue.getClass().equals(rvalue.getClass()) == false) {
-//				return false;
-//			}
-			if (op == 1) { // eq
-				if (lvalue.compareTo(rvalue) != 0) {
-					isSelected = false;
-					break;
+			if (compare(op, lvalue, rvalue, dict) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Selection vector (row ids) of this relation satisfying the predicates. 
+	 * Each predicate is applied to the column arrays over the rows left by the previous one.
+	 * @return the number of selected rows stored in the head of sel
+	 */
+	private int select(ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred, int[] sel) {
+		int n = lookup(pred, sel);
+		if (n < 0) {
+			n = store.size();
+			for (int i = 0; i < n; i++) {
+				sel[i] = i;
+			}
+		}
+		for (int p = 0; p < pred.size() && n > 0; p++) {
+			int op = pred.get(p).getLeft();
+			long[] lcol = store.getColumn(pred.get(p).getMiddle().getLeft());
+			int rhv = pred.get(p).getMiddle().getRight();
+			int k = 0;
+			if (rhv >= 0) {
+				long[] rcol = store.getColumn(rhv);
+				for (int i = 0; i < n; i++) {
+					if (compare(op, lcol[sel[i]], rcol[sel[i]], dict) == true) {
+						sel[k++] = sel[i];
+					}
 				}
-			} else if (op == 2) { // <
-				if (lvalue.compareTo(rvalue) >= 0) {
-					isSelected = false;
-					break;
+			} else {
+				long value = pred.get(p).getRight();
+				for (int i = 0; i < n; i++) {
+					if (compare(op, lcol[sel[i]], value, dict) == true) {
+						sel[k++] = sel[i];
+					}
 				}
-			} else if (op == 3) { // >
-				if (lvalue.compareTo(rvalue) <= 0) {
-					isSelected = false;
+			}
+			n = k;
+		}
+		return n;
+	}
+	
+	/**
+	 * Candidate rows from an index of the store: a hash index whose key columns all have
+	 * an equality predicate on a constant, or else a sorted index whose first column has
+	 * a comparison with a constant. The candidates still have to be checked by all predicates.
+	 * @return the number of candidate rows stored in the head of sel, -1 if no index applies
+	 */
+	private int lookup(ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred, int[] sel) {
+		HashMap<Integer, Long> eq = new HashMap<Integer, Long>();
+		for (Triple<Integer, Pair<Integer, Integer>, Long> p : pred) {
+			if (p.getLeft() == 1 && p.getMiddle().getRight() < 0) {
+				eq.put(p.getMiddle().getLeft(), p.getRight());
+			}
+		}
+		for (HashIndex index : store.getHashIndexes()) {
+			int[] keyCols = index.getKeyColumns();
+			long[] key = new long[keyCols.length];
+			boolean isCovered = true;
+			for (int i = 0; i < keyCols.length; i++) {
+				if (eq.containsKey(keyCols[i]) == false) {
+					isCovered = false;
 					break;
 				}
-			} else if (op == 4) { // !=
-				if (lvalue.compareTo(rvalue) == 0) {
-					isSelected = false;
-					break;
+				key[i] = eq.get(keyCols[i]);
+			}
+			if (isCovered == true) {
+				int n = 0;
+				for (int row = index.find(key); row >= 0; row = index.findNext(row, key)) {
+					sel[n++] = row;
 				}
-			} else if (op == 5) { // <=
-				if (lvalue.compareTo(rvalue) > 0) {
-					isSelected = false;
-					break;
+				return n;
+			}
+		}
+		for (SortedIndex index : store.getSortedIndexes()) {
+			int col = index.getKeyColumns()[0];
+			int from = 0;
+			int to = index.size();
+			boolean isUsed = false;
+			for (Triple<Integer, Pair<Integer, Integer>, Long> p : pred) {
+				if (p.getMiddle().getLeft() != col || p.getMiddle().getRight() >= 0) continue;
+				int op = p.getLeft();
+				long value = p.getRight();
+				if (op == 1) { // =
+					from = Math.max(from, index.lowerBound(value));
+					to = Math.min(to, index.upperBound(value));
+				} else if (op == 2) { // <
+					to = Math.min(to, index.lowerBound(value));
+				} else if (op == 3) { // >
+					from = Math.max(from, index.upperBound(value));
+				} else if (op == 5) { // <=
+					to = Math.min(to, index.upperBound(value));
+				} else if (op == 6) { // >=
+					from = Math.max(from, index.lowerBound(value));
+				} else {
+					continue;
 				}
-			} else if (op == 6) { // >=
-				if (lvalue.compareTo(rvalue) < 0) {
-					isSelected = false;
-					break;
+				isUsed = true;
+			}
+			if (isUsed == true) {
+				int n = 0;
+				for (int pos = from; pos < to; pos++) {
+					sel[n++] = index.getRow(pos);
 				}
-			} else {
-				throw new UnsupportedOperationException("op: " + op + " lvalue: " + lvalue + " rvalue: " + rvalue);
+				return n;
 			}
 		}
-		
-//		elapsed = elapsed + Util.getElapsedTimeMicro(tid);
-//		count++;
-		return isSelected;
+		return -1;
 	}
 	
-	public ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> getPredicates(Set<Atom> interpretedAtoms, 
+	public ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> getPredicates(Set<Atom> interpretedAtoms, 
 		ArrayList<String> allCols) {
 		
 //		int tid = Util.startTimer();
-        ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> pred = new ArrayList<>();
+        ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred = new ArrayList<>();
         
 		HashMap<String, Integer> varToPos = new HashMap<String, Integer>();
 		for (int i = allCols.size() - 1; i >= 0; i--) { // backward
@@ -184,7 +287,7 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 				throw new UnsupportedOperationException("op: " + op + " a.pred: " + a.getPredicate());
 			}
 			
-			T valueTerm = null;
+			Long valueTerm = null;
 //			System.out.println("aaa: " + a + " term1: " + a.getTerms().get(1) + " isVar: " + a.getTerms().get(1).isVariable());
 			if (a.getTerms().get(1).isVariable() == true) {
 				if (varToPos.containsKey(a.getTerms().get(1).toString()) == true) {
@@ -193,7 +296,7 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 					toAdd = false;
 				}
 			} else {
-				valueTerm = (T)a.getTerms().get(1).getSimpleTerm(); // FIXME
+				valueTerm = LongTuple.encode(a.getTerms().get(1).getSimpleTerm(), dict); // FIXME
 			}
 			
 			if (toAdd == true) {
@@ -209,29 +312,24 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 		
 	}
 	
-	public Relation<T> filter(Set<Atom> interpretedAtoms) {
+	public Relation filter(Set<Atom> interpretedAtoms) {
 //		int tid = Util.startTimer();
-		ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> pred = 
+		ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred = 
 				getPredicates(interpretedAtoms, columns);
-        
-		HashSet<Tuple<T>> newTuples = new HashSet<Tuple<T>>();
-		for (Tuple<T> t : tuples) {
-			if (isSelected(t, null, pred) == true) {
-				newTuples.add(t);
-			}
+		if (pred.size() == 0 || store.size() == 0) {
+			return new Relation(store, columns, dict);
 		}
-		Relation<T> newRel = new Relation(newTuples, columns);
+        
+		int[] sel = new int[store.size()];
+		int n = select(pred, sel);
+		Relation newRel = new Relation(ColumnStore.gather(store, sel, n), columns, dict);
 		
 //		System.out.println(">>time-filter: " + Util.getElapsedTime(tid));
-		
-//		System.out.println("filter elapsed: " + elapsed + " count: " + count);
-//		elapsed = 0;
-//		count = 0;
 		return newRel;
 	}
 	
-	public Relation<T> notin(Relation<T> relR, Atom a) {
-		Relation<T> result = new Relation<T>();
+	public Relation notin(Relation relR, Atom a) {
+		Relation result = new Relation(dict);
 		HashMap<String, Integer> colsMap = new HashMap<String, Integer>();
 		for (int i = 0; i < getColumns().size(); i++) {
 			result.getColumns().add(getColumns().get(i));
@@ -248,77 +346,51 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 			}
 			map.add(colsMap.get(t.getVar()));
 		}
-		
-//		HashSet<Tuple<T>> toBeDeleted = new LinkedHashSet<Tuple<T>>();
-		for (Tuple<T> t1 : tuples) {
-			boolean isIn = false;
-			for (Tuple<T> t2 : relR.getTuples()) {
-				if (isSame(t1, t2, map) == true) {
-					isIn = true;
-					break;
-				}
-			}
-			
-			if (isIn == false) {
-				result.addTuple(t1);
-			}
+		if (relR.size() == 0) {
+			result.store = store;
+			return result;
 		}
-//		tuples.removeAll(toBeDeleted);
 		
-//		System.out.println("notin map: " + map);
-		return result;
-	}
-	
-	private boolean isSame(Tuple<T> t1, Tuple<T> t2, ArrayList<Integer> map) {
-		// TODO Auto-generated method stub
-		boolean isSame = true;
+		// columns of relR bound by this relation; unbound ones (e.g., _) are ignored
+		ArrayList<Integer> leftKeys = new ArrayList<Integer>();
+		ArrayList<Integer> rightKeys = new ArrayList<Integer>();
 		for (int i = 0; i < map.size(); i++) {
 			if (map.get(i) == null) continue;
+			leftKeys.add(map.get(i));
+			rightKeys.add(i);
+		}
 
-			T v1 = t1.getTuple().get(map.get(i));
-			T v2 = t2.getTuple().get(i);
-			
-			if (v1.equals(v2) == false) {
-				isSame = false;
-				break;
+		HashIndex index = new HashIndex(relR.getStore(), toArray(rightKeys));
+		int[] lk = toArray(leftKeys);
+		int[] sel = new int[store.size()];
+		int n = 0;
+		for (int row = 0; row < store.size(); row++) {
+			if (index.find(store, row, lk) < 0) {
+				sel[n++] = row;
 			}
 		}
-		return isSame;
+		result.store = ColumnStore.gather(store, sel, n);
+		
+//		System.out.println("notin map: " + map);
+		return result;
 	}
-
-	public Relation<T> join(Relation<T> rel, Set<Atom> interpretedAtoms) {
-		Relation<T> result = new Relation<T>();
-//		System.out.println("[join] rel.getTuples().size() : " + rel.getTuples().size() + " interpretedAtoms: "+ interpretedAtoms);
-//		System.out.println("[join] rel: " + rel.getTuples());
-
+	
+	public Relation join(Relation rel, Set<Atom> interpretedAtoms) {
+		Relation result = new Relation(dict);
+//		System.out.println("[join] rel.size() : " + rel.size() + " interpretedAtoms: "+ interpretedAtoms);
 
 		int tid = Util.startTimer();
 		ArrayList<String> allCols = new ArrayList<String>(getColumns());
 		allCols.addAll(rel.getColumns());
 
-		ArrayList<String> relColumns = new ArrayList<String>(rel.getColumns());
-		relColumns.removeAll(getColumns());
-
-		ArrayList<String> newColumns = new ArrayList<String>(getColumns());
-		newColumns.addAll(relColumns);
-
-		//HashSet<Pair<Integer, Integer>> equals = new HashSet<Pair<Integer, Integer>>();
 		HashSet<Integer> toBeDeleted = new HashSet<Integer>();
 
 //		System.out.println("[Relation] allCols: " + allCols);
 //		System.out.println("[Relation] columns: " + columns);
 //		System.out.println("[Relation] rel.columns: " + rel.getColumns());
-//		System.out.println("[Relation] newColumns: " + newColumns);
 //		System.out.println("[Relation] interpretedAtoms: " + interpretedAtoms);
 
-		ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> pred = getPredicates(interpretedAtoms, allCols);
-
-//		System.out.println("[Relation] pred_original2: " + pred);
-//		System.out.println("[Relation] columns2: " + columns);
-//		System.out.println("[Relation] rel.columns2: " + rel.getColumns());
-//		System.out.println("[Relation] newColumns2: " + newColumns);
-//		System.out.println("[Relation] interpretedAtoms2: " + interpretedAtoms);
-
+		ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> pred = getPredicates(interpretedAtoms, allCols);
 		
 		for (int i = 0; i < allCols.size(); i++) {
 			if (allCols.get(i).equals("_") == true) {
@@ -330,7 +402,6 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 					continue;
 				}
 				if (allCols.get(i).contentEquals(allCols.get(j)) == true) {
-					//equals.add(Pair.of(i, j));
 					pred.add(Triple.of(1, Pair.of(i, j), null)); // FIXME was 0
 					toBeDeleted.add(j);
 				}
@@ -338,74 +409,223 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 		}
 
 //		System.out.println("[Relation] pred: " + pred);
-
-		ArrayList<Integer> toBeDeletedSorted = new ArrayList<Integer>();
-		toBeDeletedSorted.addAll(toBeDeleted);
-		Collections.sort(toBeDeletedSorted);
-	
-//		System.out.println("toBeDeletedSorted: " + toBeDeletedSorted);
-//		System.out.println("newColumns: " + newColumns);
 		
 		for (int i = 0; i < allCols.size(); i++) {
-			if (toBeDeletedSorted.contains(i) == false) {
+			if (toBeDeleted.contains(i) == false) {
 				result.getColumns().add(allCols.get(i));
 			}
 		}
-		
-//		System.out.println("join time2: " + Util.getElapsedTimeMicro(tid));
 	
-		int cnt = 0;
 		int sizeOfFirstTuple = getColumns().size();
 		int sizeOfSecondTuple = rel.getColumns().size();
-		for (Tuple<T> t1 : tuples) {
-			for (Tuple<T> t2 : rel.getTuples()) {
-				cnt++;
-//				Tuple<T> newTuple = t1.copy(); 	
-//				newTuple.getTuple().addAll(t2.getTuple());
-				
-//				System.out.println("t1: " + t1 + " t2: " + t2 + " isSelected(t1, t2, pred) == true: " + isSelected(t1, t2, pred));
-				if (isSelected(t1, t2, pred) == true) {
-					Tuple<T> newTuple2 = new Tuple<T>();//t1.copy();
-					for (int i = 0; i < sizeOfFirstTuple; i++) {
-						if (toBeDeletedSorted.contains(i) == false) {
-							newTuple2.getTuple().add(t1.getTuple().get(i));
-						}
-					}
-					for (int i = 0; i < sizeOfSecondTuple; i++) {
-						if (toBeDeletedSorted.contains(i+sizeOfFirstTuple) == false) {
-							newTuple2.getTuple().add(t2.getTuple().get(i));
-						}
+		int[] outCols = new int[result.getColumns().size()]; // position in allCols of each output column
+		int k = 0;
+		for (int i = 0; i < allCols.size(); i++) {
+			if (toBeDeleted.contains(i) == false) {
+				outCols[k++] = i;
+			}
+		}
+		if (store.size() == 0 || rel.size() == 0) {
+			return result;
+		}
+
+		// equality predicates between a column of this relation and a column of rel become hash keys,
+		// everything else is checked on the matched pairs.
+		ArrayList<Integer> leftKeys = new ArrayList<Integer>();
+		ArrayList<Integer> rightKeys = new ArrayList<Integer>();
+		ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> residual = new ArrayList<>();
+		for (Triple<Integer, Pair<Integer, Integer>, Long> p : pred) {
+			int lhv = p.getMiddle().getLeft();
+			int rhv = p.getMiddle().getRight();
+			if (p.getLeft() == 1 && rhv >= 0 && (lhv < sizeOfFirstTuple) != (rhv < sizeOfFirstTuple)) {
+				leftKeys.add(Math.min(lhv, rhv));
+				rightKeys.add(Math.max(lhv, rhv) - sizeOfFirstTuple);
+			} else {
+				residual.add(p);
+			}
+		}
+
+		ColumnStore left = store;
+		ColumnStore right = rel.getStore();
+		ColumnStore out = result.getStore();
+		long[] values = new long[outCols.length];
+		if (leftKeys.isEmpty() == true) { // theta join
+			for (int i = 0; i < left.size(); i++) {
+				for (int j = 0; j < right.size(); j++) {
+					if (isSelected(left, i, sizeOfFirstTuple, right, j, pred, dict) == true) {
+						out.add(concat(left, i, right, j, sizeOfFirstTuple, outCols, values));
 					}
-					
-//					for (int i = toBeDeletedSorted.size() - 1; i >=0; i--) {
-//						newTuple.getTuple().remove(toBeDeletedSorted.get(i).intValue());
-//					}
-					result.addTuple(newTuple2);
-					
-//					System.out.println("	[added] newTuple2: " + newTuple2);
-				} else {
-//					System.out.println("[not added] newTuple: " + newTuple);
 				}
 			}
+		} else {
+			// prefer an existing index of either side, otherwise build one on the smaller side
+			HashIndex rightIndex = right.findHashIndex(rightKeys);
+			HashIndex leftIndex = left.findHashIndex(leftKeys);
+			HashIndex index;
+			boolean isBuildLeft;
+			if (rightIndex != null && (leftIndex == null || right.size() >= left.size())) {
+				index = rightIndex;
+				isBuildLeft = false;
+			} else if (leftIndex != null) {
+				index = leftIndex;
+				isBuildLeft = true;
+			} else if (left.size() <= right.size()) {
+				index = new HashIndex(left, toArray(leftKeys));
+				isBuildLeft = true;
+			} else {
+				index = new HashIndex(right, toArray(rightKeys));
+				isBuildLeft = false;
+			}
+
+			// probe columns in the order of the index keys; key pairs not covered by the index are residual
+			ArrayList<Integer> buildKeys = (isBuildLeft == true) ? leftKeys : rightKeys;
+			ArrayList<Integer> probeKeys = (isBuildLeft == true) ? rightKeys : leftKeys;
+			int[] keyCols = index.getKeyColumns();
+			int[] probeCols = new int[keyCols.length];
+			boolean[] isCovered = new boolean[buildKeys.size()];
+			for (int i = 0; i < keyCols.length; i++) {
+				int p = buildKeys.indexOf(keyCols[i]);
+				probeCols[i] = probeKeys.get(p);
+				isCovered[p] = true;
+			}
+			for (int p = 0; p < isCovered.length; p++) {
+				if (isCovered[p] == false) {
+					residual.add(Triple.of(1, Pair.of(leftKeys.get(p), rightKeys.get(p) + sizeOfFirstTuple), null));
+				}
+			}
+			
+			ColumnStore probe = (isBuildLeft == true) ? right : left;
+			ForkJoinPool pool = SimpleDatalogEngine.getPool();
+			if (probe.size() < PARALLEL_JOIN_THRESHOLD || pool.getParallelism() == 1) {
+				int[] rows = new int[probe.size()];
+				for (int i = 0; i < rows.length; i++) {
+					rows[i] = i;
+				}
+				probe(left, right, index, isBuildLeft, probeCols, residual, sizeOfFirstTuple, outCols, rows, rows.length, out, dict);
+			} else {
+				probeInParallel(pool, left, right, index, isBuildLeft, probeCols, residual, sizeOfFirstTuple, outCols, out, dict);
+			}
 		}
-//		System.out.println("join time3: " + Util.getElapsedTimeMicro(tid));
-		
-//		System.out.println("join elapsed: " + elapsed + " count: " + count);
-		elapsed = 0;
-		count = 0;
 //		System.out.println(">>time-join: " + Util.getElapsedTime(tid)
-//				+ " result.size: " + result.getTuples().size() + " cnt: " + cnt
-//				+ " tuples: " + tuples.size() + " rel: " + rel.getTuples().size());
+//				+ " result.size: " + result.size() + " left: " + store.size() + " rel: " + rel.size());
 		
-//		System.out.println("joined: " + result);
 		return result;
 	}
+
+	/**
+	 * Probe the index with the given rows of the probe side (rel if isBuildLeft, otherwise this).
+	 */
+	private static void probe(ColumnStore left, ColumnStore right, HashIndex index, boolean isBuildLeft, int[] probeCols,
+			ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> residual, int sizeOfFirstTuple, int[] outCols,
+			int[] rows, int n, ColumnStore out, StringDictionary dict) {
+		long[] values = new long[outCols.length];
+		if (isBuildLeft == true) { // probe with rel
+			for (int r = 0; r < n; r++) {
+				int j = rows[r];
+				for (int i = index.find(right, j, probeCols); i >= 0; i = index.findNext(i, right, j, probeCols)) {
+					if (isSelected(left, i, sizeOfFirstTuple, right, j, residual, dict) == true) {
+						out.add(concat(left, i, right, j, sizeOfFirstTuple, outCols, values));
+					}
+				}
+			}
+		} else { // probe with this
+			for (int r = 0; r < n; r++) {
+				int i = rows[r];
+				for (int j = index.find(left, i, probeCols); j >= 0; j = index.findNext(j, left, i, probeCols)) {
+					if (isSelected(left, i, sizeOfFirstTuple, right, j, residual, dict) == true) {
+						out.add(concat(left, i, right, j, sizeOfFirstTuple, outCols, values));
+					}
+				}
+			}
+		}
+	}
 	
+	/**
+	 * Hash-partition the probe rows on the join key and probe each partition on the pool.
+	 * The key columns are part of the output, so the partitions produce disjoint tuples and
+	 * are appended to out without another duplicate check.
+	 */
+	private static void probeInParallel(ForkJoinPool pool, final ColumnStore left, final ColumnStore right, 
+			final HashIndex index, final boolean isBuildLeft, final int[] probeCols, 
+			final ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> residual, final int sizeOfFirstTuple, 
+			final int[] outCols, ColumnStore out, final StringDictionary dict) {
+		ColumnStore probe = (isBuildLeft == true) ? right : left;
+		int parts = pool.getParallelism() * 4;
+		final int[][] partRows = new int[parts][];
+		final int[] partSizes = new int[parts];
+		int[] partOf = new int[probe.size()];
+		for (int row = 0; row < probe.size(); row++) {
+			long h = 1;
+			for (int c = 0; c < probeCols.length; c++) {
+				h = 31 * h + probe.get(row, probeCols[c]);
+			}
+			partOf[row] = Math.floorMod(Integer.reverse(ColumnStore.mix(h)), parts);
+			partSizes[partOf[row]]++;
+		}
+		for (int p = 0; p < parts; p++) {
+			partRows[p] = new int[partSizes[p]];
+			partSizes[p] = 0;
+		}
+		for (int row = 0; row < partOf.length; row++) {
+			int p = partOf[row];
+			partRows[p][partSizes[p]++] = row;
+		}
+
+		final ColumnStore[] outs = new ColumnStore[parts];
+		final ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (int p = 0; p < parts; p++) {
+			final int part = p;
+			outs[part] = new ColumnStore(outCols.length, 16);
+			tasks.add(ForkJoinTask.adapt(new Runnable() {
+				@Override
+				public void run() {
+					probe(left, right, index, isBuildLeft, probeCols, residual, sizeOfFirstTuple, outCols, 
+							partRows[part], partSizes[part], outs[part], dict);
+				}
+			}));
+		}
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		
+		for (ColumnStore part : outs) {
+			for (int row = 0; row < part.size(); row++) {
+				out.append(part.getRowValues(row));
+			}
+		}
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] arr = new int[list.size()];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = list.get(i);
+		}
+		return arr;
+	}
+
+	/**
+	 * Fill values with the output columns of the joined row. ColumnStore.add copies the values.
+	 */
+	private static long[] concat(ColumnStore left, int leftRow, ColumnStore right, int rightRow, 
+			int leftSize, int[] outCols, long[] values) {
+		for (int i = 0; i < outCols.length; i++) {
+			if (outCols[i] < leftSize) {
+				values[i] = left.get(leftRow, outCols[i]);
+			} else {
+				values[i] = right.get(rightRow, outCols[i] - leftSize);
+			}
+		}
+		return values;
+	}
+
 	public String toString() {
-//		return "Relation: {\n\tcolumns: " + columns + "\n\tsize: " + tuples.size() + "\n}"; // + "\n\ttuples: " + tuples + "\n}"; 
-		String str = "Relation: {\n\tcolumns: " + columns + "\n\tsize: " + tuples.size() + "\n\ttuples: \n";
-		for (Tuple<T> t : tuples) {
-			str += "\t" + t;
+//		return "Relation: {\n\tcolumns: " + columns + "\n\tsize: " + size() + "\n}";
+		String str = "Relation: {\n\tcolumns: " + columns + "\n\tsize: " + size() + "\n\ttuples: \n";
+		for (LongTuple t : this) {
+			str += "\t" + t.toString(dict);
 			str += "\n";
 		}
 		return str;	
@@ -429,7 +649,7 @@ public class Relation<T extends Comparable<T>> implements Iterable<Tuple<T>> {
 //		
 //		result.getColumns().addAll(columns);
 //		result.getColumns().add(newVar);
-//		for (Tuple<T> t1 : tuples) {
+//		for (LongTuple t1 : tuples) {
 //			Tuple<T> t2 = new Tuple<T>();
 //			ArrayList<Long> keyArr = new ArrayList<Long>();
 //			for (int i = 0; i < a.getTerms().size()-1; i++) {
@@ -2,91 +2,60 @@ package edu.upenn.cis.db.datalog.simpleengine;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
-public class RelationIterator<T extends Comparable<T>> implements Iterator<Tuple<T>> {
-	Relation<T> rel;
-	ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> preds;
+public class RelationIterator implements Iterator<LongTuple> {
+	Relation rel;
+	ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> preds;
 
 	int index;
-    Iterator<Tuple<T>> iter; 
-
-	Tuple<T> nextTuple;
+	int nextIndex;
 	
 	public RelationIterator(Relation rel) {
 		// TODO Auto-generated method stub
 		this.rel = rel;
+		this.preds = new ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>>();
 		index = 0;
+		nextIndex = -1;
 	}
 
-	public RelationIterator(Relation rel, ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> preds) {
+	public RelationIterator(Relation rel, ArrayList<Triple<Integer, Pair<Integer, Integer>, Long>> preds) {
 		// TODO Auto-generated method stub
 		this.rel = rel;
 		this.preds = preds;
 		index = 0;
+		nextIndex = -1;
 	}
 	
-	public boolean isSelected(Tuple<T> t, 
-			ArrayList<Triple<Integer, Pair<Integer, Integer>, T>> pred) {
-		// a > 1, a = 3, a > b, a= b
-		// op, (index1, index2=-1), or value)
-		for (int i = 0; i < pred.size(); i++) {
-			int op = pred.get(i).getLeft();
-			int lhv = pred.get(i).getMiddle().getLeft();
-			int rhv = pred.get(i).getMiddle().getRight();
-			T value = pred.get(i).getRight();
-			T lvalue = t.getTuple().get(lhv);
-			T rvalue; 
-			if (rhv >= 0) {
-				rvalue = t.getTuple().get(rhv);
-			} else {
-				rvalue = value;
-			}
-
-			if (op == 1) { // eq
-				if (lvalue.compareTo(rvalue) != 0) return false;
-			} else if (op == 2) { // <
-				if (lvalue.compareTo(rvalue) >= 0) return false;
-			} else if (op == 3) { // >
-				if (lvalue.compareTo(rvalue) <= 0) return false;
-			}
-		}
-		return true;
-	}
-
 	@Override
 	public boolean hasNext() {
 		// TODO Auto-generated method stub
-		if (iter == null) {
-			 iter = rel.getTuples().iterator();
+		if (nextIndex >= 0) {
+			return true;
 		}
-		nextTuple = null;
-		while(iter.hasNext() == true) {
-			Tuple<T> t = (Tuple<T>)iter.next();
-			if (isSelected(t, preds) == true) {
-				nextTuple = t; //rel.getTuples().get(index);
+		ColumnStore store = rel.getStore();
+		while (index < store.size()) {
+			int row = index++;
+			if (Relation.isSelected(store, row, store.arity(), null, -1, preds, rel.getDictionary()) == true) {
+				nextIndex = row;
 				break;
 			}
-//			iter = iter.next().next();
-//			index++;
 		}
-//		while(index < rel.getTuples().size()) {
-//			Tuple<T> t = rel.getTuples().get(index);
-//			if (isSelected(t, preds) == true) {
-//				nextTuple = rel.getTuples().get(index);
-//				break;
-//			}
-//			index++;
-//		}
-		return nextTuple != null;
+		return nextIndex >= 0;
 	}
 
 	@Override
-	public Tuple<T> next() {
+	public LongTuple next() {
 		// TODO Auto-generated method stub
-		return nextTuple; //rel.getTuples().get(index++);
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+		LongTuple t = rel.getStore().getRow(nextIndex);
+		nextIndex = -1;
+		return t;
 	}
 
 }
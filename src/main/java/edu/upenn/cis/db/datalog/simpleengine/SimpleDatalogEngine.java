@@ -2,12 +2,19 @@ package edu.upenn.cis.db.datalog.simpleengine;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,19 +31,23 @@ import edu.upenn.cis.db.datalog.DatalogProgram;
 import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.helper.Util;
 
-public class SimpleDatalogEngine<T extends Comparable<T>> {
+public class SimpleDatalogEngine {
 	final static Logger logger = LogManager.getLogger(SimpleDatalogEngine.class);
 	
 	private static HashMap<ArrayList<Long>, Long> newIdMap;
-	private static long newIdIndex = 100000000;
+	private static AtomicLong newIdIndex = new AtomicLong(100000000);
+	private static volatile ForkJoinPool pool = null;
 	private static int resultQueryIndex = 0;
 
 	private static HashSet<String> tempRels;
 	private static boolean isQuerying;
 	
-	private HashMap<String, Relation<T>> db;
+	private ConcurrentHashMap<String, Relation> db;
+	private StringDictionary dict; // released with the engine
 //	private HashMap<Integer, HashSet<String>> tempRelsMap = new HashMap<Integer, HashSet<String>>();
 	private int queryIndex = 1000;	
+	
+	private final static String DELTA_PREFIX = "__DELTA_";
 
 //	public static long geteNewId(ArrayList<Long> arr) {
 //		if (newIdMap.containsKey(arr) == false) {
@@ -46,19 +57,51 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 //	}
 	
 	public static long getNewId() {
-		return newIdIndex++;
+		return newIdIndex.getAndIncrement();
+	}
+	
+	/**
+	 * Pool for independent strata and partitioned joins, created once with default.sd_parallelism 
+	 * worker threads (0 or unset: # of cores, 1: everything runs on the calling thread).
+	 */
+	public static ForkJoinPool getPool() {
+		ForkJoinPool p = pool;
+		if (p == null) {
+			synchronized (SimpleDatalogEngine.class) {
+				p = pool;
+				if (p == null) {
+					int parallelism = 0;
+					String v = Config.get("default.sd_parallelism");
+					if (v != null) {
+						parallelism = Integer.parseInt(v.trim());
+					}
+					if (parallelism <= 0) {
+						parallelism = Runtime.getRuntime().availableProcessors();
+					}
+					p = new ForkJoinPool(parallelism);
+					pool = p;
+				}
+			}
+		}
+		return p;
 	}
 	
 	public void renameRelation(String rel1, String rel2) {
-		db.put(rel2, db.get(rel1));
-		db.remove(rel1);
+		if (db.containsKey(rel1) == true) {
+			db.put(rel2, db.get(rel1));
+			db.remove(rel1);
+		}
 	}
 	
 	
-	public Relation<T> getRelation(String name) {
+	public Relation getRelation(String name) {
 		return db.get(name);
 	}
 	
+	public StringDictionary getDictionary() {
+		return dict;
+	}
+	
 	public void removeRelation(String name) {
 		if (db.containsKey(name) == true) {
 			db.remove(name);
@@ -68,17 +111,19 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 	public String getRelationList() {
 		String str = "";
 		for (String rel : db.keySet()) {
-			str += rel + ":" + db.get(rel).getTuples().size() + ", ";
+			str += rel + ":" + db.get(rel).size() + ", ";
 		}
 		return str; 
 	}
 	
 	public SimpleDatalogEngine() {
-		db = new HashMap<String, Relation<T>>();
+		db = new ConcurrentHashMap<String, Relation>();
+		dict = new StringDictionary();
+		getPool();
 		newIdMap = new HashMap<ArrayList<Long>, Long>();
 	}
 
-	public void addRel(String name, Relation<T> rel) {
+	public void addRel(String name, Relation rel) {
 		if (db.containsKey(name) == true) {
 //			throw new IllegalArgumentException("(name: " + name + ") Relation [" + rel +"] exists. db: " + getRelationList());
 //			System.out.println("[ERR] (name: " + name + ") Relation [" + rel +"] exists. db: " + getRelationList());
@@ -86,9 +131,9 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		db.put(name, rel);
 	}
 	
-	public void insertTuple(String name, Tuple<T> t) {
+	public void insertTuple(String name, LongTuple t) {
 //		System.out.println("[Engine] insertTuple name[" + name + "] tuple[" + t + "]");
-		Relation<T> rel = null;
+		Relation rel = null;
 		if (db.containsKey(name) == false) {
 			throw new IllegalArgumentException("db has no rel: " + name);
 		}
@@ -101,13 +146,317 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return "Engine: relations: " + db;
 	}
 	
+	/**
+	 * Evaluates the clauses stratum by stratum. Clauses are grouped into strongly connected
+	 * components of the dependency graph and executed in topological order (ties keep the
+	 * order of cs). Non-recursive components run once; recursive ones run semi-naively.
+	 * Components that do not depend on each other run in parallel on the pool.
+	 */
 	public void executeRules(List<DatalogClause> cs) {
+		int n = cs.size();
+		ArrayList<HashSet<String>> writes = new ArrayList<HashSet<String>>();
+		for (DatalogClause c : cs) {
+			writes.add(getWrittenRelations(c));
+		}
+		
+		// edge i -> j: clause j reads a relation written by clause i
+		ArrayList<ArrayList<Integer>> edges = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < n; i++) {
+			edges.add(new ArrayList<Integer>());
+		}
+		for (int j = 0; j < n; j++) {
+			for (Atom a : cs.get(j).getBody()) {
+				if (a.isInterpreted() == true) continue;
+				String relName = a.getPredicate().getRelName();
+				for (int i = 0; i < n; i++) {
+					if (writes.get(i).contains(relName) == true && edges.get(i).contains(j) == false) {
+						edges.get(i).add(j);
+					}
+				}
+			}
+		}
+		
+		int[] comp = new int[n];
+		int numComps = getComponents(edges, comp);
+
+		ArrayList<ArrayList<DatalogClause>> strata = new ArrayList<ArrayList<DatalogClause>>();
+		ArrayList<HashSet<String>> strataRels = new ArrayList<HashSet<String>>();
+		ArrayList<HashSet<Integer>> succs = new ArrayList<HashSet<Integer>>();
+		boolean[] isRecursive = new boolean[numComps];
+		int[] inDegree = new int[numComps];
+		int[] minIndex = new int[numComps];
+		Arrays.fill(minIndex, Integer.MAX_VALUE);
+		for (int m = 0; m < numComps; m++) {
+			strata.add(new ArrayList<DatalogClause>());
+			strataRels.add(new HashSet<String>());
+			succs.add(new HashSet<Integer>());
+		}
+		for (int i = 0; i < n; i++) {
+			minIndex[comp[i]] = Math.min(minIndex[comp[i]], i);
+			strata.get(comp[i]).add(cs.get(i));
+			strataRels.get(comp[i]).addAll(writes.get(i));
+			for (int j : edges.get(i)) {
+				if (comp[i] == comp[j]) {
+					isRecursive[comp[i]] = true;
+				} else if (succs.get(comp[i]).add(comp[j]) == true) {
+					inDegree[comp[j]]++;
+				}
+			}
+		}
+		
+		if (numComps == 1 || getPool().getParallelism() == 1) {
+			// topological order of components, smallest clause index first
+			boolean[] done = new boolean[numComps];
+			for (int k = 0; k < numComps; k++) {
+				int next = getNextStratum(inDegree, minIndex, done, strataRels, new HashSet<String>());
+				done[next] = true;
+				executeStratum(strata.get(next), strataRels.get(next), isRecursive[next]);
+				for (int m : succs.get(next)) {
+					inDegree[m]--;
+				}
+			}
+		} else {
+			executeStrataInParallel(strata, strataRels, succs, isRecursive, inDegree, minIndex);
+		}
+	}
+	
+	/**
+	 * Runs the strata on the pool. A stratum is started once all strata it reads from are
+	 * done and no running stratum writes the same relations.
+	 */
+	private void executeStrataInParallel(final ArrayList<ArrayList<DatalogClause>> strata, 
+			final ArrayList<HashSet<String>> strataRels, ArrayList<HashSet<Integer>> succs,
+			final boolean[] isRecursive, int[] inDegree, int[] minIndex) {
+		int numComps = strata.size();
+		boolean[] done = new boolean[numComps];
+		HashSet<String> busyRels = new HashSet<String>();
+		ExecutorCompletionService<Integer> ecs = new ExecutorCompletionService<Integer>(getPool());
+		int running = 0;
+		int finished = 0;
+		
+		while (finished < numComps) {
+			int next = getNextStratum(inDegree, minIndex, done, strataRels, busyRels);
+			if (next >= 0) {
+				final int m = next;
+				done[m] = true;
+				busyRels.addAll(strataRels.get(m));
+				ecs.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						executeStratum(strata.get(m), strataRels.get(m), isRecursive[m]);
+						return m;
+					}
+				});
+				running++;
+				continue;
+			}
+			if (running == 0) {
+				throw new IllegalStateException("No stratum can be scheduled. finished: " + finished + " of " + numComps);
+			}
+			int m;
+			try {
+				m = ecs.take().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+			running--;
+			finished++;
+			busyRels.removeAll(strataRels.get(m));
+			for (int k : succs.get(m)) {
+				inDegree[k]--;
+			}
+		}
+	}
+	
+	/**
+	 * Ready stratum with the smallest clause index whose relations are not busy, -1 if none.
+	 */
+	private int getNextStratum(int[] inDegree, int[] minIndex, boolean[] done,
+			ArrayList<HashSet<String>> strataRels, HashSet<String> busyRels) {
+		int next = -1;
+		for (int m = 0; m < inDegree.length; m++) {
+			if (done[m] == true || inDegree[m] > 0) continue;
+			if (Collections.disjoint(strataRels.get(m), busyRels) == false) continue;
+			if (next < 0 || minIndex[m] < minIndex[next]) {
+				next = m;
+			}
+		}
+		return next;
+	}
+	
+	private void executeStratum(List<DatalogClause> stratum, HashSet<String> rels, boolean isRecursive) {
+		if (isRecursive == false) {
+			for (DatalogClause c : stratum) {
+				executeRule(c);
+			}
+		} else {
+			executeRecursiveRules(stratum, rels);
+		}
+	}
+	
+	/**
+	 * Semi-naive evaluation of mutually recursive clauses. After the first full round,
+	 * each clause is re-evaluated once per recursive body atom with that atom bound to
+	 * the facts derived in the previous round only, until no new facts are derived.
+	 */
+	private void executeRecursiveRules(List<DatalogClause> cs, HashSet<String> rels) {
+		for (DatalogClause c : cs) {
+			for (Atom a : c.getBody()) {
+				if (a.isInterpreted() == false && a.isNegated() == true
+						&& rels.contains(a.getPredicate().getRelName()) == true) {
+					throw new IllegalArgumentException("Program is not stratifiable. negated atom [" + a + "] in recursive clause: " + c);
+				}
+			}
+		}
+		
+		HashMap<String, Integer> sizes = getRelationSizes(rels);
 		for (DatalogClause c : cs) {
 			executeRule(c);
-		}		
+		}
+		HashMap<String, Relation> deltas = getDeltas(sizes);
+		
+		while (deltas.isEmpty() == false) {
+			for (String rel : deltas.keySet()) {
+				db.put(DELTA_PREFIX + rel, deltas.get(rel));
+			}
+			sizes = getRelationSizes(rels);
+			for (DatalogClause c : cs) {
+				for (int i = 0; i < c.getBody().size(); i++) {
+					Atom a = c.getBody().get(i);
+					if (a.isInterpreted() == true) continue;
+					String relName = a.getPredicate().getRelName();
+					if (deltas.containsKey(relName) == true) {
+						executeRule(c, i, DELTA_PREFIX + relName);
+					}
+				}
+			}
+			for (String rel : deltas.keySet()) {
+				db.remove(DELTA_PREFIX + rel);
+			}
+			deltas = getDeltas(sizes);
+		}
+	}
+	
+	private HashMap<String, Integer> getRelationSizes(HashSet<String> rels) {
+		HashMap<String, Integer> sizes = new HashMap<String, Integer>();
+		for (String rel : rels) {
+			sizes.put(rel, db.containsKey(rel) == true ? db.get(rel).size() : 0);
+		}
+		return sizes;
+	}
+	
+	/**
+	 * Relations only grow by appending, so the facts derived since sizes were taken
+	 * are exactly the trailing rows of each store.
+	 */
+	private HashMap<String, Relation> getDeltas(HashMap<String, Integer> sizes) {
+		HashMap<String, Relation> deltas = new HashMap<String, Relation>();
+		for (String rel : sizes.keySet()) {
+			if (db.containsKey(rel) == false) continue;
+			Relation r = db.get(rel);
+			int from = sizes.get(rel);
+			int count = r.size() - from;
+			if (count <= 0) continue;
+			int[] rows = new int[count];
+			for (int i = 0; i < count; i++) {
+				rows[i] = from + i;
+			}
+			deltas.put(rel, new Relation(ColumnStore.gather(r.getStore(), rows, count), r.getColumns(), dict));
+		}
+		return deltas;
+	}
+	
+	/**
+	 * Relations a clause derives facts into; GENNEWID_CONST heads fill the matching GENNEWID_MAP.
+	 */
+	private HashSet<String> getWrittenRelations(DatalogClause c) {
+		HashSet<String> rels = new HashSet<String>();
+		ArrayList<Atom> heads = new ArrayList<Atom>(c.getHeads());
+		if (heads.size() == 0 && c.getHead() != null) {
+			heads.add(c.getHead());
+		}
+		for (Atom h : heads) {
+			String name = h.getPredicate().getRelName();
+			if (name.startsWith(Config.relname_gennewid + "_CONST_") == true) {
+				rels.add(name.replace("_CONST_", "_MAP_"));
+			} else if (name.startsWith(Config.relname_gennewid + "_") == false) {
+				rels.add(name);
+			}
+		}
+		return rels;
+	}
+	
+	/**
+	 * Tarjan's strongly connected components. Returns the number of components and
+	 * stores the component of each node in comp.
+	 */
+	private int getComponents(ArrayList<ArrayList<Integer>> edges, int[] comp) {
+		int n = edges.size();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] callStack = new int[n];
+		int[] edgePos = new int[n];
+		int sp = 0;
+		int counter = 0;
+		int numComps = 0;
+		Arrays.fill(index, -1);
+		
+		for (int root = 0; root < n; root++) {
+			if (index[root] >= 0) continue;
+			int csp = 0;
+			callStack[csp++] = root;
+			while (csp > 0) {
+				int v = callStack[csp - 1];
+				if (index[v] < 0) {
+					index[v] = low[v] = counter++;
+					stack[sp++] = v;
+					onStack[v] = true;
+					edgePos[v] = 0;
+				}
+				if (edgePos[v] < edges.get(v).size()) {
+					int w = edges.get(v).get(edgePos[v]++);
+					if (index[w] < 0) {
+						callStack[csp++] = w;
+					} else if (onStack[w] == true) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+				csp--;
+				if (csp > 0) {
+					int parent = callStack[csp - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+				if (low[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--sp];
+						onStack[w] = false;
+						comp[w] = numComps;
+					} while (w != v);
+					numComps++;
+				}
+			}
+		}
+		return numComps;
 	}
 
 	public void executeRule(DatalogClause c) {
+		executeRule(c, -1, null);
+	}
+
+	/**
+	 * Executes c with the body atom at deltaIndex (if any) read from relation deltaName.
+	 */
+	private void executeRule(DatalogClause c, int deltaIndex, String deltaName) {
 //		System.out.println("[executeRule] c: " + c);	
 	
 		
@@ -120,6 +469,9 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 			Atom a = c.getBody().get(i);
 //			if (a.getVars().contains("_") == true) {
 				ArrayList<Atom> bs = a.getAtomBodyStrWithInterpretedAtoms("");
+				if (i == deltaIndex) {
+					bs.get(0).getPredicate().setRelName(deltaName);
+				}
 				body.addAll(bs);
 //			} else {
 //				body.add(a);
@@ -127,14 +479,18 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		}
 		HashMap<String, HashSet<Atom>> interpretedAtomsMap = getInterpretedAtomsMap(body);
 //		System.out.println("interpretedAtomsMap: " + interpretedAtomsMap);
-		ArrayList<Atom> orderedAtoms = getOrderedAtoms(body);
-		Relation<T> workingRel = executeOperator(orderedAtoms, interpretedAtomsMap);
+		ArrayList<Atom> orderedAtoms = getOrderedAtoms(body, interpretedAtomsMap);
+		Relation workingRel = executeOperator(orderedAtoms, interpretedAtomsMap);
 		processHead(c.getHeads(), workingRel, interpretedAtomsMap);
 		
 //		System.out.println("wr: " + workingRel);
 	}
 
-	public Relation<T> executeQuery(List<DatalogClause> cs) {
+	/**
+	 * Query rules write temporary relations with fixed names (e.g., _), so queries on the
+	 * same database are serialized. Queries on different databases run concurrently.
+	 */
+	public synchronized Relation executeQuery(List<DatalogClause> cs) {
 		HashSet<String> relsToDel = new LinkedHashSet<String>();
 		
 		for (DatalogClause c : cs) {
@@ -143,7 +499,7 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 			}
 		}
 		executeRules(cs);
-		Relation<T> rel = db.get("_");
+		Relation rel = db.get("_");
 		for (String rels : relsToDel) {
 			db.remove(rels);
 		}
@@ -152,17 +508,17 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return rel;
 	}
 
-	public Relation<T> executeQuery(DatalogClause c) {
+	public synchronized Relation executeQuery(DatalogClause c) {
 		executeRule(c);
-		Relation<T> rel = db.get("_");
+		Relation rel = db.get("_");
 		db.remove("_");
 		
 		return rel;
 	}
 
-//	public Relation<T> execute(DatalogClause c) {
+//	public Relation execute(DatalogClause c) {
 //		int tid = Util.startTimer();
-//		Relation<T> rel = new Relation<T>(null);
+//		Relation rel = new Relation(null);
 //		ArrayList<Atom> body = new ArrayList<Atom>();
 //		
 //		for (int i = 0; i < c.getBody().size(); i++) {
@@ -176,7 +532,7 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 //		}
 //		HashMap<String, HashSet<Atom>> interpretedAtomsMap = getInterpretedAtomsMap(body);
 //		ArrayList<Atom> orderedAtoms = getOrderedAtoms(body);
-//		Relation<T> workingRel = executeOperator(orderedAtoms, interpretedAtomsMap);
+//		Relation workingRel = executeOperator(orderedAtoms, interpretedAtomsMap);
 //		
 ////		System.out.println("1.heads: " + c.getHeads());
 ////		System.out.println("2.orderedAtoms: " + orderedAtoms);
@@ -262,10 +618,15 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return map;
 	}
 
-	private ArrayList<Atom> getOrderedAtoms(ArrayList<Atom> body) {
-		// TODO Auto-generated method stub
+	/**
+	 * Orders the relational atoms greedily: start with the atom of the smallest estimated
+	 * cardinality, then repeatedly join the cheapest atom sharing a bound variable
+	 * (cross products only when nothing is connected). UDF and negated atoms go last.
+	 */
+	private ArrayList<Atom> getOrderedAtoms(ArrayList<Atom> body, HashMap<String, HashSet<Atom>> interpretedAtomsMap) {
 		HashSet<Atom> udfAtoms = new LinkedHashSet<Atom>();
 		HashSet<Atom> negatedAtoms = new LinkedHashSet<Atom>();
+		ArrayList<Atom> remaining = new ArrayList<Atom>();
 		ArrayList<Atom> orderedAtoms = new ArrayList<Atom>();
 		
 		for (Atom a : body) {
@@ -275,7 +636,33 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 			} else if (a.isNegated() == true) {
 				negatedAtoms.add(a); 
 			} else {
-				orderedAtoms.add(a);
+				remaining.add(a);
+			}
+		}
+		
+		HashSet<String> bound = new HashSet<String>();
+		while (remaining.isEmpty() == false) {
+			boolean hasConnected = false;
+			for (Atom a : remaining) {
+				if (isConnected(a, bound) == true) {
+					hasConnected = true;
+					break;
+				}
+			}
+			Atom best = null;
+			double bestCost = 0;
+			for (Atom a : remaining) {
+				if (hasConnected == true && isConnected(a, bound) == false) continue;
+				double cost = getEstimatedSize(a, bound, interpretedAtomsMap);
+				if (best == null || cost < bestCost) {
+					best = a;
+					bestCost = cost;
+				}
+			}
+			remaining.remove(best);
+			orderedAtoms.add(best);
+			for (Term t : best.getTerms()) {
+				bound.add(t.getVar());
 			}
 		}
 		orderedAtoms.addAll(udfAtoms);
@@ -285,6 +672,52 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return orderedAtoms;
 	}
 	
+	private boolean isConnected(Atom a, HashSet<String> bound) {
+		for (Term t : a.getTerms()) {
+			if (t.getVar().contentEquals("_") == false && bound.contains(t.getVar()) == true) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Estimated number of tuples of a that match a tuple of the bound variables: the
+	 * cardinality divided by the distinct count of every column that is bound, repeated,
+	 * or equal to a constant, and by 3 for a range predicate on a constant.
+	 */
+	private double getEstimatedSize(Atom a, HashSet<String> bound, HashMap<String, HashSet<Atom>> interpretedAtomsMap) {
+		Relation rel = db.get(a.getPredicate().getRelName());
+		if (rel == null || rel.size() == 0) {
+			return 0;
+		}
+		ColumnStore store = rel.getStore();
+		double size = rel.size();
+		HashSet<String> seen = new HashSet<String>();
+		for (int j = 0; j < a.getTerms().size(); j++) {
+			String v = a.getTerms().get(j).getVar();
+			if (v.contentEquals("_") == true) continue;
+			
+			int op = 0;
+			if (interpretedAtomsMap.containsKey(v) == true) {
+				for (Atom b : interpretedAtomsMap.get(v)) {
+					if (b.getTerms().get(1).isConstant() == false) continue;
+					if (b.getRelName().equals("=") == true) {
+						op = 1;
+					} else if (op == 0 && b.getRelName().equals("!=") == false) {
+						op = 2;
+					}
+				}
+			}
+			if (bound.contains(v) == true || seen.add(v) == false || op == 1) {
+				size /= Math.max(1, store.getDistinctCount(j));
+			} else if (op == 2) {
+				size /= 3;
+			}
+		}
+		return size;
+	}
+	
 	private Set<Atom> getRelatedInterpretedAtoms(HashMap<String, HashSet<Atom>> map, Atom a) {
 		HashSet<Atom> interpretedAtoms = new LinkedHashSet<Atom>();
 		
@@ -298,10 +731,10 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return interpretedAtoms;
 	}
 
-	private Relation<T> executeOperator(ArrayList<Atom> orderedAtoms,
+	private Relation executeOperator(ArrayList<Atom> orderedAtoms,
 			HashMap<String, HashSet<Atom>> interpretedAtomsMap) {
 
-		Relation<T> workingRel = null; // currentWorking Rel
+		Relation workingRel = null; // currentWorking Rel
 		Set<Atom> interpretedAtoms = null;
 //		interpretedAtomsMap
 		for (Atom a : orderedAtoms) {
@@ -319,8 +752,9 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 					if (db.containsKey(relName) == false) {
 						throw new IllegalArgumentException("DB doesn't have rel: " + relName + " a: "+ a + " rels: " + getRelationList()) ;	
 					}
-					workingRel = new Relation<T>(db.get(relName), cols);
 					interpretedAtoms = getRelatedInterpretedAtoms(interpretedAtomsMap, a);
+					// selections on the first atom go first so that its indexes can be used
+					workingRel = new Relation(db.get(relName), cols).filter(interpretedAtoms);
 
 //					System.out.println("132interpretedAtoms: " + interpretedAtoms + " wr: " + workingRel);
 
@@ -345,8 +779,8 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 						} else { // join
 							interpretedAtoms.addAll(getRelatedInterpretedAtoms(interpretedAtomsMap, a));
 	
-							Relation<T> rRel = new Relation<T>(db.get(relName), cols);
-							int workingRelSize = workingRel.getTuples().size();
+							Relation rRel = new Relation(db.get(relName), cols);
+							int workingRelSize = workingRel.size();
 //							System.out.println("workingSize: "+ workingRelSize + " rRel: " + rRel.getTuples().size());
 							
 //							System.out.println("132interpretedAtomsMap: " + interpretedAtomsMap);
@@ -365,7 +799,7 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		return workingRel;
 	}
 
-	private void processHead(ArrayList<Atom> heads, Relation<T> workingRel, HashMap<String, HashSet<Atom>> interpretedAtomsMap) {
+	private void processHead(ArrayList<Atom> heads, Relation workingRel, HashMap<String, HashSet<Atom>> interpretedAtomsMap) {
 //		System.out.println("[processHead] heads: " +  heads + " workingRel: " + workingRel.getColumns());
 		for (Atom head : heads) {
 			HashMap<Integer, Integer> varToVar = new HashMap<Integer, Integer>();
@@ -396,50 +830,29 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 			if (name.startsWith(Config.relname_gennewid + "_CONST_") == true) {
 				String gennewid_map = name.replace("_CONST_", "_MAP_");
 				if (db.containsKey(gennewid_map) == false) {
-					Relation<T> rel = new Relation<T>();
+					Relation rel = new Relation(dict);
 					db.put(gennewid_map, rel);
 				}
 //				System.out.println("dbbbb: "+ getRelationList());
-				Relation<T> mapRel = db.get(gennewid_map);
-				for (Tuple<T> tuple1 : workingRel.getTuples()) {
-					boolean found = false;
-					for (Tuple<T> tuple2 : mapRel.getTuples()) {
-						found = true;
-						int size2 = head.getTerms().size();
-						for (int i = 0; i < size2-1; i++) {
-							Term t = head.getTerms().get(i);
-							int bodyIdx = varToVar.get(i);
-							T st1 = tuple1.getTuple().get(bodyIdx);
-							T st2 = tuple2.getTuple().get(i);
-//							System.out.println("st1: " + st1 + " st2: " + st2);
-							if (st1.equals(st2) == false) {
-								found = false;
-								break;
-							}
-						}
-						if (found == true) {
-							break;
-						}
-					}
-
-					if (found == false) {
+				Relation mapRel = db.get(gennewid_map);
+				int size2 = head.getTerms().size();
+				int[] keyCols = new int[size2-1];
+				int[] bodyCols = new int[size2-1];
+				for (int i = 0; i < size2-1; i++) {
+					keyCols[i] = i;
+					bodyCols[i] = varToVar.get(i);
+				}
+				HashIndex index = mapRel.getStore().createHashIndex(keyCols); // kept by the store across rules
+				ColumnStore in = workingRel.getStore();
+				long[] values = new long[size2];
+				for (int row = 0; row < in.size(); row++) {
+					if (index.find(in, row, bodyCols) < 0) {
 //						System.out.println("***NOT FOUND***");
-
-						Tuple<T> newTuple = new Tuple<T>();
-						int size2 = head.getTerms().size();
 						for (int i = 0; i < size2-1; i++) {
-							Term t = head.getTerms().get(i);
-							int bodyIdx = varToVar.get(i);
-							T st1 = tuple1.getTuple().get(bodyIdx);
-							newTuple.getTuple().add(st1);
+							values[i] = in.get(row, bodyCols[i]);
 						}
-						newTuple.getTuple().add((T) new LongSimpleTerm(getNewId()));
-						mapRel.getTuples().add(newTuple);
-//						System.out.println("gennewid_map: " + gennewid_map + " mapRel: " + mapRel);
-						// TODO: insert with new gen id
-//						System.out.println("dbbbb: "+ getRelationList());
-
-//						break;
+						values[size2-1] = getNewId();
+						mapRel.addTuple(values);
 					}
 				}
 				continue;
@@ -448,7 +861,7 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 			
 //			System.out.println("name: " + name + " db.containsKey(name): " + db.containsKey(name));
 			if (db.containsKey(name) == false) {
-				Relation<T> rel2 = new Relation<T>();
+				Relation rel2 = new Relation(dict);
 				db.put(name, rel2);
 			}
 			if (db.get(name).getColumns().size() == 0) {
@@ -458,50 +871,50 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 				}
 			}
 			
-
-			for (Tuple<T> tuple : workingRel.getTuples()) {
-				if (tuple == null) {
-					throw new IllegalArgumentException("head [" + head + "] has tuple==null.");
-				}
-//				System.out.println("tuple from workingRel: " + tuple + "head: " + head + " varToVar: " + varToVar);
-				Tuple<T> newTuple = new Tuple<T>();
-				for (int j = 0; j < head.getTerms().size(); j++) {
-					String n = head.getTerms().get(j).toString();
-					Term term = head.getTerms().get(j);
+			ColumnStore in = workingRel.getStore();
+			int rows = in.size();
+			if (rows == 0) continue;
 			
-					T t = null;
-					if (term.isVariable() == false) {
-						t = (T)term.getSimpleTerm();
-					} else if (term.getVar().contentEquals("_") == true) {
-						t = (T)new LongSimpleTerm(-999);
-						throw new IllegalArgumentException("head [" + head + "] has _");
-					} else {
-						if (varToVar.containsKey(j) == true) {
-							t = tuple.getTuple().get(varToVar.get(j));
-						} else if (interpretedAtomsMap.containsKey(n) == true) {
-//							System.out.println("varToVar: " + varToVar + " j: " + j + " head: " + head);
-//							System.out.println("interpretedAtomsMap: " + interpretedAtomsMap);
-//							System.out.println("varToVar.get(j): " + varToVar.get(j));
-//							throw new IllegalArgumentException("variable1 [" + varToVar.get(j) + "] does not exist in the body. head: " + head);
-							
-							for (Atom a : interpretedAtomsMap.get(n)) {
-								if (a.isInterpreted() == true && a.getRelName().equals("=") == true && a.getTerms().get(1).isConstant() == true) {
-									String val = a.getTerms().get(1).toString();
-									if (val.contains("\"") == true) {
-										t = (T)new StringSimpleTerm(Util.removeQuotes(val));
-									} else {
-										t = (T)new LongSimpleTerm(Long.parseLong(val));
-									}
+			// source column (or constant) of each head term
+			int arity = head.getTerms().size();
+			long[][] src = new long[arity][];
+			long[] consts = new long[arity];
+			for (int j = 0; j < arity; j++) {
+				String n = head.getTerms().get(j).toString();
+				Term term = head.getTerms().get(j);
+		
+				if (term.isVariable() == false) {
+					consts[j] = LongTuple.encode(term.getSimpleTerm(), dict);
+				} else if (term.getVar().contentEquals("_") == true) {
+					throw new IllegalArgumentException("head [" + head + "] has _");
+				} else {
+					if (varToVar.containsKey(j) == true) {
+						src[j] = in.getColumn(varToVar.get(j));
+					} else if (interpretedAtomsMap.containsKey(n) == true) {
+						for (Atom a : interpretedAtomsMap.get(n)) {
+							if (a.isInterpreted() == true && a.getRelName().equals("=") == true && a.getTerms().get(1).isConstant() == true) {
+								String val = a.getTerms().get(1).toString();
+								if (val.contains("\"") == true) {
+									consts[j] = dict.encode(Util.removeQuotes(val));
+								} else {
+									consts[j] = Long.parseLong(val);
 								}
 							}
-						} else {
-							throw new IllegalArgumentException("variable [" + varToVar.get(j) + "] does not exist in the body. head: " + head);
-							//vars: " + vars + " head: " + head);
 						}
+					} else {
+						throw new IllegalArgumentException("variable [" + varToVar.get(j) + "] does not exist in the body. head: " + head);
+						//vars: " + vars + " head: " + head);
 					}
-					newTuple.getTuple().add(t);
 				}
-				insertTuple(name, newTuple);
+			}
+
+			Relation target = db.get(name);
+			long[] values = new long[arity];
+			for (int row = 0; row < rows; row++) {
+				for (int j = 0; j < arity; j++) {
+					values[j] = (src[j] != null) ? src[j][row] : consts[j];
+				}
+				target.addTuple(values);
 			}
 		}		
 	}
@@ -514,10 +927,10 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 		SimpleDatalogEngine engine = new SimpleDatalogEngine();
 		// Create Linked List 
 		Relation relN = new Relation(
-				new ArrayList<String>(Arrays.asList("nid","label")));
+				new ArrayList<String>(Arrays.asList("nid","label")), engine.getDictionary());
 //		System.out.println("4DONE (Time: " + Util.getElapsedTime(tid) + " msec)");
-		relN.addTuple(new Tuple<SimpleTerm>(new ArrayList<SimpleTerm>(Arrays.asList(new IntegerSimpleTerm(1),new IntegerSimpleTerm(1000)))));
-		relN.addTuple(new Tuple<SimpleTerm>(new ArrayList<SimpleTerm>(Arrays.asList(new IntegerSimpleTerm(2),new IntegerSimpleTerm(1001)))));
+		relN.addTuple(new LongTuple(1, 1000));
+		relN.addTuple(new LongTuple(2, 1001));
 		engine.addRel("N",  relN);
 		
 //		Relation relE = new Relation(
@@ -556,16 +969,12 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 //		engine.insertTuple("COLOR", new Tuple<Integer>(
 //				new ArrayList<Integer>(Arrays.asList(141,2,3,4401))));
 		
-		Relation<SimpleTerm> relT = new Relation<SimpleTerm>(
-				new ArrayList<String>(new ArrayList<String>(Arrays.asList("x","y"))));
-		Relation<SimpleTerm> relS = new Relation<SimpleTerm>(
-				new ArrayList<String>(new ArrayList<String>(Arrays.asList("u","v"))));
-		relT.addTuple(new Tuple<SimpleTerm>(Arrays.asList(
-				(SimpleTerm)new IntegerSimpleTerm(14), 
-				(SimpleTerm)new IntegerSimpleTerm(10))));
-		relS.addTuple(new Tuple<SimpleTerm>(Arrays.asList(
-				(SimpleTerm)new IntegerSimpleTerm(7), 
-				(SimpleTerm)new IntegerSimpleTerm(10))));
+		Relation relT = new Relation(
+				new ArrayList<String>(new ArrayList<String>(Arrays.asList("x","y"))), engine.getDictionary());
+		Relation relS = new Relation(
+				new ArrayList<String>(new ArrayList<String>(Arrays.asList("u","v"))), engine.getDictionary());
+		relT.addTuple(new LongTuple(14, 10));
+		relS.addTuple(new LongTuple(7, 10));
 //		relS.addTuple(new Tuple<SimpleTerm>(Arrays.asList(
 //				(SimpleTerm)new IntegerSimpleTerm(12), 
 //				(SimpleTerm)new StringSimpleTerm("A"))));
@@ -615,10 +1024,10 @@ public class SimpleDatalogEngine<T extends Comparable<T>> {
 //			System.out.println("t: " + t);
 //		}
 
-		Relation<SimpleTerm> rel;
+		Relation rel;
 		System.out.println("V==>");
 		rel = engine.getRelation("V");
-		for (Tuple<SimpleTerm> t : rel.getTuples()) {
+		for (LongTuple t : rel) {
 			System.out.println("t: " + t);
 		}
 		
@@ -0,0 +1,124 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorted index over key columns of a ColumnStore (row ids ordered by the key columns).
+ * Rows appended to the store are sorted and merged in on the next lookup.
+ */
+public class SortedIndex {
+	private ColumnStore store;
+	private int[] keyCols;
+	private StringDictionary dict;
+	private volatile int[] rows = new int[0];
+
+	public SortedIndex(ColumnStore store, int[] keyCols, StringDictionary dict) {
+		this.store = store;
+		this.keyCols = keyCols;
+		this.dict = dict;
+	}
+
+	public int[] getKeyColumns() {
+		return keyCols;
+	}
+
+	/**
+	 * Number of indexed rows (brings the index up to date with the store).
+	 */
+	public int size() {
+		refresh();
+		return rows.length;
+	}
+
+	/**
+	 * Row id at the given position of the sorted order.
+	 */
+	public int getRow(int pos) {
+		return rows[pos];
+	}
+
+	/**
+	 * First position whose leading key is not less than value.
+	 */
+	public int lowerBound(long value) {
+		refresh();
+		int lo = 0;
+		int hi = rows.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (dict.compare(store.get(rows[mid], keyCols[0]), value) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * First position whose leading key is greater than value.
+	 */
+	public int upperBound(long value) {
+		refresh();
+		int lo = 0;
+		int hi = rows.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (dict.compare(store.get(rows[mid], keyCols[0]), value) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private synchronized void refresh() {
+		int from = rows.length;
+		int to = store.size();
+		if (from == to) {
+			return;
+		}
+		Integer[] added = new Integer[to - from];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = from + i;
+		}
+		Comparator<Integer> cmp = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer r1, Integer r2) {
+				return compareRows(r1, r2);
+			}
+		};
+		Arrays.sort(added, cmp);
+
+		int[] merged = new int[to];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < rows.length && j < added.length) {
+			if (compareRows(rows[i], added[j]) <= 0) {
+				merged[k++] = rows[i++];
+			} else {
+				merged[k++] = added[j++];
+			}
+		}
+		while (i < rows.length) {
+			merged[k++] = rows[i++];
+		}
+		while (j < added.length) {
+			merged[k++] = added[j++];
+		}
+		rows = merged;
+	}
+
+	private int compareRows(int r1, int r2) {
+		for (int i = 0; i < keyCols.length; i++) {
+			int c = dict.compare(store.get(r1, keyCols[i]), store.get(r2, keyCols[i]));
+			if (c != 0) {
+				return c;
+			}
+		}
+		return Integer.compare(r1, r2);
+	}
+}
@@ -0,0 +1,77 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of string values used by the simple datalog engine.
+ * A string is represented by a long code (Long.MIN_VALUE + id), so that a tuple
+ * can keep every value in a long[]. Codes lie far below any node/edge id.
+ * Each engine (database) has its own dictionary, which is released with it.
+ * Reads (decode, compare) take no lock; the strings are append-only and the array
+ * is published through a volatile reference.
+ */
+public class StringDictionary {
+	private static final long OFFSET = Long.MIN_VALUE;
+	private static final long LIMIT = Long.MIN_VALUE + Integer.MAX_VALUE;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final ConcurrentHashMap<String, Long> ids = new ConcurrentHashMap<String, Long>();
+	private volatile String[] strings = new String[INITIAL_CAPACITY];
+	private volatile int size = 0;
+
+	public long encode(String value) {
+		Long code = ids.get(value);
+		if (code != null) {
+			return code;
+		}
+		synchronized (this) {
+			code = ids.get(value);
+			if (code == null) {
+				String[] arr = strings;
+				if (size == arr.length) {
+					arr = Arrays.copyOf(arr, arr.length * 2);
+				}
+				arr[size] = value;
+				strings = arr;
+				code = OFFSET + size;
+				size++;
+				ids.put(value, code);
+			}
+		}
+		return code;
+	}
+
+	public String decode(long code) {
+		if (isString(code) == false) {
+			throw new IllegalArgumentException("code: " + code + " is not a string code");
+		}
+		return strings[(int)(code - OFFSET)];
+	}
+
+	public static boolean isString(long value) {
+		return value < LIMIT;
+	}
+
+	/**
+	 * Compare two encoded values. Numbers are ordered before strings.
+	 */
+	public int compare(long v1, long v2) {
+		if (v1 == v2) {
+			return 0;
+		}
+		boolean isString1 = isString(v1);
+		boolean isString2 = isString(v2);
+		if (isString1 == true && isString2 == true) {
+			String[] arr = strings;
+			return arr[(int)(v1 - OFFSET)].compareTo(arr[(int)(v2 - OFFSET)]);
+		} else if (isString1 != isString2) {
+			return (isString1 == true) ? 1 : -1;
+		}
+		return Long.compare(v1, v2);
+	}
+
+	public int size() {
+		return size;
+	}
+}
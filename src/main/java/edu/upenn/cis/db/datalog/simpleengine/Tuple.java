@@ -33,7 +33,7 @@ public class Tuple<T extends Comparable<T>> {
 	}
 	
 	public int hashCode() {
-        return getTuple().get(0).hashCode();
+        return getTuple().hashCode();
     }
 	
 	@Override
@@ -8,6 +8,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 //import org.apache.commons.lang.NotImplementedException;
 import org.apache.logging.log4j.LogManager;
@@ -45,9 +46,11 @@ import edu.upenn.cis.db.graphtrans.graphdb.datalog.ViewRule;
 import edu.upenn.cis.db.graphtrans.parser.CommandParser;
 import edu.upenn.cis.db.graphtrans.parser.EgdParser;
 import edu.upenn.cis.db.graphtrans.parser.QueryParser;
+import edu.upenn.cis.db.graphtrans.parser.QueryToCypherParser;
 import edu.upenn.cis.db.graphtrans.store.Store;
 import edu.upenn.cis.db.graphtrans.store.StoreFactory;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.graphtrans.store.StoreRowHandler;
 import edu.upenn.cis.db.graphtrans.store.logicblox.LogicBloxStore;
 import edu.upenn.cis.db.graphtrans.store.neo4j.Neo4jStore;
 import edu.upenn.cis.db.graphtrans.store.simpledatalog.SimpleDatalogStore;
@@ -72,6 +75,9 @@ public class CommandExecutor {
 	private static Store store = null;
 	private static Store storeLB = null;
 	
+	private static ThreadLocal<StoreResultSet> lastResultSet = new ThreadLocal<StoreResultSet>();
+	private static ConcurrentHashMap<String, PreparedQuery> preparedQueries = new ConcurrentHashMap<String, PreparedQuery>();
+	
 	private enum Status {
 	    NONE,	/* Not connected */
 	    CONNECT, /* Connected but not use any graph */
@@ -96,6 +102,100 @@ public class CommandExecutor {
 		parser.Parse(cmd);		
 	}
 	
+	/**
+	 * Run a command and return its messages and query answer instead of printing them.
+	 * Messages of other threads are not mixed in, so commands can be run concurrently
+	 * (queries only; other commands change the shared catalog and must not overlap).
+	 * 
+	 * @param cmd Command
+	 * @return result of the command
+	 */
+	public static CommandResult execute(String cmd) {
+		Exception exception = null;
+		String output;
+		StoreResultSet rs;
+		lastResultSet.remove();
+		Util.Console.startCapture();
+		try {
+			run(cmd);
+		} catch (Exception e) {
+			exception = e;
+		} finally {
+			output = Util.Console.stopCapture();
+			rs = lastResultSet.get();
+			lastResultSet.remove();
+		}
+		return new CommandResult(cmd, output, rs, exception);
+	}
+	
+	/**
+	 * Run a query and return a page of its answer (limit rows after skipping offset rows).
+	 * Only the page is kept in memory.
+	 * 
+	 * @param query Query
+	 * @param limit max # of rows (< 0: no limit)
+	 * @param offset # of rows to skip
+	 * @return result of the query
+	 */
+	public static CommandResult execute(String query, long limit, long offset) {
+		Exception exception = null;
+		String output;
+		StoreResultSet page = new StoreResultSet();
+		Util.Console.startCapture();
+		try {
+			query(query, limit, offset, new StoreRowHandler() {
+				@Override
+				public void setColumns(ArrayList<String> columns) {
+					page.getColumns().addAll(columns);
+				}
+
+				@Override
+				public boolean handle(Tuple<SimpleTerm> row) {
+					page.getResultSet().add(row);
+					return true;
+				}
+			});
+		} catch (Exception e) {
+			exception = e;
+		} finally {
+			output = Util.Console.stopCapture();
+		}
+		return new CommandResult(query, output, page, exception);
+	}
+
+	/**
+	 * Run a prepared query with the values of its parameters and return a page of its answer
+	 * (see execute(String, long, long)).
+	 *
+	 * @param name name of the prepared query
+	 * @param values values of $1, ..., $n (Long or String)
+	 */
+	public static CommandResult execute(String name, List<Object> values, long limit, long offset) {
+		Exception exception = null;
+		String output;
+		StoreResultSet page = new StoreResultSet();
+		Util.Console.startCapture();
+		try {
+			executePrepared(name, values, limit, offset, new StoreRowHandler() {
+				@Override
+				public void setColumns(ArrayList<String> columns) {
+					page.getColumns().addAll(columns);
+				}
+
+				@Override
+				public boolean handle(Tuple<SimpleTerm> row) {
+					page.getResultSet().add(row);
+					return true;
+				}
+			});
+		} catch (Exception e) {
+			exception = e;
+		} finally {
+			output = Util.Console.stopCapture();
+		}
+		return new CommandResult("EXECUTE " + name + " " + values, output, page, exception);
+	}
+	
 	/**
 	 * Create input stream reader (from console or file)
 	 * @param filepath
@@ -187,6 +287,7 @@ public class CommandExecutor {
 		}
 		
 		Config.setPlatform(platform);
+		QueryPlanCache.invalidate();
 		StoreFactory storeFactory = new StoreFactory();
 	
 		if (platform.contentEquals("lb") == true) {
@@ -223,6 +324,7 @@ public class CommandExecutor {
 			store.disconnect();
 			status = Status.NONE;
 			Config.setWorkspace(null);
+			QueryPlanCache.invalidate();
 			Util.Console.logln("Disconnected.");
 		}
 	}
@@ -275,6 +377,7 @@ public class CommandExecutor {
 					new ArrayList<SimpleTerm>(Arrays.asList(new StringSimpleTerm(label))));  
 		}
 		Schema.addSchemaNode(label);
+		QueryPlanCache.invalidate();
 		Util.Console.logln("Add graph schema node [" + label + "].");
 	}
 
@@ -293,6 +396,7 @@ public class CommandExecutor {
 							new StringSimpleTerm(label))));  
 		}
 		Schema.addSchemaEdge(label, from, to);		
+		QueryPlanCache.invalidate();
 		Util.Console.logln("Add graph schema edge [" + label + " (" + from + " -> " + to + ")].");
 	}
 	
@@ -339,6 +443,7 @@ public class CommandExecutor {
 		
 		if (store.useDatabase(graphName) == true) {
 			Config.setWorkspace(graphName);		
+			QueryPlanCache.invalidate();
 			status = Status.USE;
 			if (Config.isNeo4j() == false) {
 //				Catalog.load(store); // FIXME: disable load() temporarily
@@ -589,6 +694,7 @@ public class CommandExecutor {
 		
 //		System.out.println("code 4124 program p : " + p);
 		store.createView(p, transRuleList);
+		QueryPlanCache.invalidate();
 
 		Util.getVarDicEncoding("view", viewName);
 		long et = Util.getElapsedTime(tid);
@@ -676,6 +782,7 @@ public class CommandExecutor {
 		String egdSlashed = Util.addSlashes(egd);
 		store.addTuple(Config.relname_egd, new ArrayList<SimpleTerm>(Arrays.asList(new StringSimpleTerm(egdSlashed))));
 		GraphTransServer.getEgdList().add(EgdParser.Parse(egd));
+		QueryPlanCache.invalidate();
 		
 		Util.Console.logln("Add a graph constraint (EGD).");
 	}
@@ -804,6 +911,7 @@ public class CommandExecutor {
 		
 		
 		if (store.deleteDatabase(graphName) == true) {
+			QueryPlanCache.invalidate();
 			Util.Console.logln("Drop graph [" + graphName + "].");
 			if (Config.getWorkspace() != null && Config.getWorkspace().contentEquals(graphName) == true) {
 				Config.setWorkspace(null);
@@ -932,6 +1040,7 @@ public class CommandExecutor {
 			lbStore.createConstructors();
 		}
 		store.createView(null, rulesToExecute, true);
+		QueryPlanCache.invalidate();
 		
 		long et2 = Util.getElapsedTime(tid2);
 		long et = Util.getElapsedTime(tid);
@@ -943,20 +1052,21 @@ public class CommandExecutor {
 	/**
 	 * Answering Query
 	 */
-	public static void query(String query) {
-		if (canExecuteCommand(Status.USE) == false) return;	
+	public static StoreResultSet query(String query) {
+		if (canExecuteCommand(Status.USE) == false) return null;	
 		int tid = Util.startTimer();
 		StoreResultSet rs = null;
 		
 		int numberOfRules = 0;
 //		System.out.println("[code 340987] query: " + query);
 		
+		ArrayList<Object> params = new ArrayList<Object>();
+		QueryPlanCache.Plan plan = getPlan(query, params);
 		if (Config.isNeo4j() == true) { // for testing purpose only
-			rs = queryInNeo4j(query);			
+			rs = store.getQueryResultForNativeQuery(plan.getNativeQuery(), params);
 		} else {
-			DatalogClause rewriting = getQueryRewriting(query);		
-			DatalogClause rewritingConstantFreeAtoms = getQueryRewritingConstantFreeAtoms(rewriting);
-			DatalogProgram rewrittenProgram = getUnfoldedProgram(rewritingConstantFreeAtoms);
+			DatalogClause rewritingConstantFreeAtoms = plan.getQuery();
+			DatalogProgram rewrittenProgram = plan.getProgram();
 			
 			boolean useMST = false;
 			
@@ -985,7 +1095,7 @@ public class CommandExecutor {
 					if (rewrittenProgram.getRuleCount() > 10000) {
 						throw new IllegalArgumentException("[WARNING!!!] # of rules is too many, so stop here. #: " + rewrittenProgram.getRuleCount());
 					} else {
-						rs = executeQueryProgram(rewrittenProgram);
+						rs = executeQueryPlan(plan);
 					}
 				}
 			}
@@ -1001,14 +1111,16 @@ public class CommandExecutor {
 		}
 		long et = Util.getElapsedTime(tid);
 		if (rs != null) {
-			System.out.println("query result #: " + rs.getResultSet().size() + " etime[" + et + "] #ofRules: " + numberOfRules);
+			Util.Console.logln("query result #: " + rs.getResultSet().size() + " etime[" + et + "] #ofRules: " + numberOfRules);
+			Performance.addQueryResult(rs.getResultSet().size());
 		} else {
-			System.out.println("query rs is null etime[" + et + "]");
+			Util.Console.logln("query rs is null etime[" + et + "]");
 		}
 //		store.debug(); 
-		
-		Performance.addQueryResult(rs.getResultSet().size());
 		Performance.addQueryTime(et);
+		lastResultSet.set(rs);
+		
+		return rs;
 	}
 	
 //	private static StoreResultSet queryInSimpleDatalog(String query) {
@@ -1080,18 +1192,212 @@ public class CommandExecutor {
 ////		executeProgramForQueryInPostgres(rewriting, rewrittenProgram);
 //	}
 
-	private static StoreResultSet queryInNeo4j(String query) {
-//		((Neo4jStore)store).debug();
-		StoreResultSet rs = ((Neo4jStore)store).getQueryResult(query);
-//		System.out.println("[queryInNeo4j] query: " + query);
-//		throw new NotImplementedException("Querying Neo4j");
+	/**
+	 * Answering Query, passing the rows of the answer to handler as they are retrieved
+	 * instead of keeping them (see Store.getQueryResult).
+	 * 
+	 * @param limit max # of rows (< 0: no limit)
+	 * @param offset # of rows to skip
+	 * @return # of rows passed to handler (-1 if the query could not be answered)
+	 */
+	public static long query(String query, long limit, long offset, StoreRowHandler handler) {
+		if (canExecuteCommand(Status.USE) == false) return -1;
+		int tid = Util.startTimer();
+		long[] numRows = new long[1];
+		StoreRowHandler counter = new StoreRowHandler() {
+			@Override
+			public void setColumns(ArrayList<String> columns) {
+				handler.setColumns(columns);
+			}
+
+			@Override
+			public boolean handle(Tuple<SimpleTerm> row) {
+				numRows[0]++;
+				return handler.handle(row);
+			}
+		};
+		
+		ArrayList<Object> params = new ArrayList<Object>();
+		QueryPlanCache.Plan plan = getPlan(query, params);
+		if (Config.isNeo4j() == true) { // for testing purpose only
+			store.getQueryResultForNativeQuery(plan.getNativeQuery(), params, limit, offset, counter);
+		} else {
+			DatalogProgram rewrittenProgram = plan.getProgram();
+			if (rewrittenProgram.getRuleSize() == 0) {
+				Util.Console.logln("query rs is null etime[" + Util.getElapsedTime(tid) + "]");
+				return -1;
+			}
+			if (rewrittenProgram.getRuleCount() > 10000) {
+				throw new IllegalArgumentException("[WARNING!!!] # of rules is too many, so stop here. #: " + rewrittenProgram.getRuleCount());
+			}
+			if (plan.getNativeQuery() != null) {
+				store.getQueryResultForNativeQuery(plan.getNativeQuery(), limit, offset, counter);
+			} else {
+				store.getQueryResult(plan.getRules(), limit, offset, counter);
+			}
+		}
+		long et = Util.getElapsedTime(tid);
+		Util.Console.logln("query result #: " + numRows[0] + " etime[" + et + "]");
+		Performance.addQueryResult((int)numRows[0]);
+		Performance.addQueryTime(et);
+		
+		return numRows[0];
+	}
+
+	/**
+	 * Prepare a query with parameters $1, ..., $n as constants in its WHERE clause. The query is
+	 * planned once (see getPlan) and run by executePrepared() with the values of the parameters,
+	 * as a PreparedStatement in Postgres and a parameterized Cypher query in Neo4j.
+	 */
+	public static void prepare(String name, String query) {
+		if (canExecuteCommand(Status.USE) == false) return;
+		int tid = Util.startTimer();
+		
+		PreparedQuery pq = new PreparedQuery(name, query);
+		getPreparedPlan(pq);
+		preparedQueries.put(name, pq);
+		
+		Util.Console.logln("Prepared query [" + name + "] #params: " + pq.getNumParams() + " etime: " + Util.getElapsedTime(tid));
+	}
+	
+	public static void deallocate(String name) {
+		if (preparedQueries.remove(name) == null) {
+			throw new IllegalArgumentException("Prepared query [" + name + "] does not exist.");
+		}
+		Util.Console.logln("Deallocated query [" + name + "]");
+	}
+	
+	/**
+	 * Answering a prepared query
+	 * 
+	 * @param values values of $1, ..., $n (Long or String)
+	 */
+	public static StoreResultSet executePrepared(String name, List<Object> values) {
+		if (canExecuteCommand(Status.USE) == false) return null;
+		PreparedQuery pq = getPreparedQuery(name, values);
+		QueryPlanCache.Plan plan = getPreparedPlan(pq);
+		if (plan.getNativeQuery() == null) { // the store runs the rules, so the values go into the query
+			return query(pq.getQueryForValues(values));
+		}
+		
+		int tid = Util.startTimer();
+		StoreResultSet rs = store.getQueryResultForNativeQuery(plan.getNativeQuery(), values);
+		long et = Util.getElapsedTime(tid);
+		Util.Console.logln("query result #: " + rs.getResultSet().size() + " etime[" + et + "] prepared: " + name);
+		Performance.addQueryResult(rs.getResultSet().size());
+		Performance.addQueryTime(et);
+		lastResultSet.set(rs);
+		
 		return rs;
 	}
 	
-	private static String from = null;
+	/**
+	 * Answering a prepared query, passing the rows of the answer to handler (see query(String, long, long, StoreRowHandler)).
+	 */
+	public static long executePrepared(String name, List<Object> values, long limit, long offset, StoreRowHandler handler) {
+		if (canExecuteCommand(Status.USE) == false) return -1;
+		PreparedQuery pq = getPreparedQuery(name, values);
+		QueryPlanCache.Plan plan = getPreparedPlan(pq);
+		if (plan.getNativeQuery() == null) {
+			return query(pq.getQueryForValues(values), limit, offset, handler);
+		}
+		
+		int tid = Util.startTimer();
+		long[] numRows = new long[1];
+		store.getQueryResultForNativeQuery(plan.getNativeQuery(), values, limit, offset, new StoreRowHandler() {
+			@Override
+			public void setColumns(ArrayList<String> columns) {
+				handler.setColumns(columns);
+			}
+
+			@Override
+			public boolean handle(Tuple<SimpleTerm> row) {
+				numRows[0]++;
+				return handler.handle(row);
+			}
+		});
+		long et = Util.getElapsedTime(tid);
+		Util.Console.logln("query result #: " + numRows[0] + " etime[" + et + "] prepared: " + name);
+		Performance.addQueryResult((int)numRows[0]);
+		Performance.addQueryTime(et);
+		
+		return numRows[0];
+	}
+	
+	private static PreparedQuery getPreparedQuery(String name, List<Object> values) {
+		PreparedQuery pq = preparedQueries.get(name);
+		if (pq == null) {
+			throw new IllegalArgumentException("Prepared query [" + name + "] does not exist.");
+		}
+		pq.checkValues(values);
+		return pq;
+	}
+	
+	/**
+	 * Plan of a prepared query, made again if the catalog changed since it was made.
+	 */
+	private static QueryPlanCache.Plan getPreparedPlan(PreparedQuery pq) {
+		long version = QueryPlanCache.getVersion();
+		QueryPlanCache.Plan plan = pq.getPlan(version);
+		if (plan != null) {
+			from.set(plan.getFrom());
+			return plan;
+		}
+		plan = getPlan(pq.getQuery());
+		pq.setPlan(plan, version);
+		
+		return plan;
+	}
+
+	/**
+	 * Plan of a query. In Neo4j, the constants of the query are lifted into parameters whose values
+	 * are appended to params, so that the plan (and the Cypher plan of Neo4j) is shared by the
+	 * queries differing only in their constants (see QueryToCypherParser.liftConstants).
+	 */
+	private static QueryPlanCache.Plan getPlan(String query, List<Object> params) {
+		if (Config.isNeo4j() == true) {
+			query = QueryToCypherParser.liftConstants(query, params.size() + 1, params);
+		}
+		return getPlan(query);
+	}
+
+	/**
+	 * Parse, rewrite and unfold a query, and translate it for the store, or take all of them from the plan cache.
+	 */
+	private static QueryPlanCache.Plan getPlan(String query) {
+		QueryPlanCache.Plan plan = QueryPlanCache.get(query);
+		if (plan != null) {
+			from.set(plan.getFrom());
+			return plan;
+		}
+		
+		long version = QueryPlanCache.getVersion();
+		if (Config.isNeo4j() == true) {
+			plan = new QueryPlanCache.Plan(null, null, null, null, ((Neo4jStore)store).getCypherForQuery(query));
+		} else {
+			DatalogClause rewriting = getQueryRewriting(query);		
+			DatalogClause rewritingConstantFreeAtoms = getQueryRewritingConstantFreeAtoms(rewriting);
+			DatalogProgram rewrittenProgram = getUnfoldedProgram(rewritingConstantFreeAtoms);
+
+			ArrayList<DatalogClause> cs = new ArrayList<DatalogClause>();
+			for (String name : rewrittenProgram.getHeadRules()) {
+				cs.addAll(rewrittenProgram.getRules(name));
+			}
+			String nativeQuery = null;
+			if (cs.size() > 0 && rewrittenProgram.getRuleCount() <= 10000) {
+				nativeQuery = store.getNativeQuery(cs);
+			}
+			plan = new QueryPlanCache.Plan(from.get(), rewritingConstantFreeAtoms, rewrittenProgram, cs, nativeQuery);
+		}
+		QueryPlanCache.put(query, version, plan);
+		
+		return plan;
+	}
+	
+	private static ThreadLocal<String> from = new ThreadLocal<String>(); // FROM of the query being rewritten by this thread
 	
 	public static String getFrom() {
-		return from;
+		return from.get();
 	}
 	
 	private static DatalogClause getQueryRewriting(String query) {
@@ -1099,7 +1405,8 @@ public class CommandExecutor {
 		
 		QueryParser parser = new QueryParser();
 		DatalogClause q = parser.Parse(query);
-		from = parser.getFrom();
+		String from = parser.getFrom();
+		CommandExecutor.from.set(from);
 		
 		if (from.equals("g") == true) {
 			return q;
@@ -1113,7 +1420,7 @@ public class CommandExecutor {
 				newQuery = QueryRewriterSubstitution.rewrite(q, tr.getIndexRuleList());
 			}
 	//		Util.Console.logln("Query: " + query);
-			System.out.println("newQuery " + ((tr.getIndexType() == IndexType.SSR) ? "(with available SSR)" : "")
+			Util.Console.logln("newQuery " + ((tr.getIndexType() == IndexType.SSR) ? "(with available SSR)" : "")
 					+ ": " + newQuery);
 			
 			Util.Console.logln("[Timing] Query rewriting: " + Util.getElapsedTime(tid));		
@@ -1166,6 +1473,13 @@ public class CommandExecutor {
 //		Util.Console.logln("[Timing] Query execution time: " + Util.getElapsedTime(qtid));
 //	}
 //
+	private static StoreResultSet executeQueryPlan(QueryPlanCache.Plan plan) {
+		if (plan.getNativeQuery() != null) {
+			return store.getQueryResultForNativeQuery(plan.getNativeQuery());
+		}
+		return store.getQueryResult(plan.getRules());
+	}
+	
 	private static StoreResultSet executeQueryProgram(DatalogProgram p) {
 //		System.out.println("rewrittenProgram: " + p);
 		int qtid = Util.startTimer();
@@ -0,0 +1,45 @@
+package edu.upenn.cis.db.graphtrans;
+
+import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+
+/**
+ * Result of a command run by CommandExecutor.execute(): the console messages of the command,
+ * the answer of a query (null for other commands), and the exception if the command failed.
+ */
+public class CommandResult {
+	private String command;
+	private String output;
+	private StoreResultSet resultSet;
+	private Exception exception;
+
+	public CommandResult(String command, String output, StoreResultSet resultSet, Exception exception) {
+		this.command = command;
+		this.output = output;
+		this.resultSet = resultSet;
+		this.exception = exception;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public StoreResultSet getResultSet() {
+		return resultSet;
+	}
+
+	public Exception getException() {
+		return exception;
+	}
+
+	public boolean isSuccess() {
+		return exception == null;
+	}
+
+	public String toString() {
+		return "CommandResult command: " + command + " success: " + isSuccess() + " output: " + output;
+	}
+}
@@ -0,0 +1,141 @@
+package edu.upenn.cis.db.graphtrans;
+
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Query prepared by PREPARE name AS MATCH ... WHERE a = $1 ... RETURN ..., whose parameters
+ * $1, ..., $n are bound by each EXECUTE name (v1, ..., vn). The plan of the query is kept for
+ * the catalog version it was made for (see QueryPlanCache).
+ */
+public class PreparedQuery {
+	private String name;
+	private String query;
+	private int numParams;
+	private QueryPlanCache.Plan plan;
+	private long version;
+
+	public PreparedQuery(String name, String query) {
+		this.name = name;
+		this.query = query;
+		this.numParams = getNumParams(query);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Query with the parameters
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	public int getNumParams() {
+		return numParams;
+	}
+
+	/**
+	 * @return the plan if it was made for the catalog version, null otherwise
+	 */
+	public synchronized QueryPlanCache.Plan getPlan(long version) {
+		if (plan != null && this.version == version) {
+			return plan;
+		}
+		return null;
+	}
+
+	public synchronized void setPlan(QueryPlanCache.Plan plan, long version) {
+		this.plan = plan;
+		this.version = version;
+	}
+
+	public void checkValues(List<Object> values) {
+		if (values.size() != numParams) {
+			throw new IllegalArgumentException("Prepared query [" + name + "] has " + numParams + " parameters, but "
+					+ values.size() + " values are given.");
+		}
+		for (Object v : values) {
+			if ((v instanceof Long) == false && (v instanceof String) == false) {
+				throw new IllegalArgumentException("Value of a parameter should be an integer or a string. value: " + v);
+			}
+		}
+	}
+
+	/**
+	 * Query with the values in place of the parameters (for stores that run the rules rather than a native query).
+	 */
+	public String getQueryForValues(List<Object> values) {
+		checkValues(values);
+		StringBuilder str = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (i < query.length()) {
+			char c = query.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			}
+			int end = (c == '$' && quoted == false) ? getParamEnd(query, i) : -1;
+			if (end < 0) {
+				str.append(c);
+				i++;
+				continue;
+			}
+			Object v = values.get(getParamIndex(query, i, end) - 1);
+			if (v instanceof String) {
+				if (((String)v).contains("\"") == true) {
+					throw new IllegalArgumentException("String value should not have a double quote. value: " + v);
+				}
+				str.append('"').append(v).append('"');
+			} else {
+				str.append(v);
+			}
+			i = end;
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Check that the parameters of the query are $1, ..., $n and return n.
+	 */
+	private static int getNumParams(String query) {
+		TreeSet<Integer> params = new TreeSet<Integer>();
+		boolean quoted = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == '$' && quoted == false) {
+				int end = getParamEnd(query, i);
+				if (end < 0) {
+					throw new IllegalArgumentException("$ should be followed by the number of a parameter. query: " + query);
+				}
+				params.add(getParamIndex(query, i, end));
+			}
+		}
+		if (params.size() > 0 && (params.first() != 1 || params.last() != params.size())) {
+			throw new IllegalArgumentException("Parameters should be $1, ..., $n. params: " + params);
+		}
+		return params.size();
+	}
+
+	/**
+	 * @return end of the parameter starting with $ at start (-1 if there is no number after $)
+	 */
+	private static int getParamEnd(String query, int start) {
+		int i = start + 1;
+		while (i < query.length() && Character.isWhitespace(query.charAt(i)) == true) {
+			i++;
+		}
+		int end = i;
+		while (end < query.length() && Character.isDigit(query.charAt(end)) == true) {
+			end++;
+		}
+		return (end > i) ? end : -1;
+	}
+
+	private static int getParamIndex(String query, int start, int end) {
+		return Integer.parseInt(query.substring(start + 1, end).trim());
+	}
+}
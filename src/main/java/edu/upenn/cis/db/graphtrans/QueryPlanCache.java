@@ -0,0 +1,159 @@
+package edu.upenn.cis.db.graphtrans;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.DatalogProgram;
+
+/**
+ * LRU cache of query plans (the rewritten and unfolded program, and the SQL/Cypher for the store),
+ * keyed by the platform and the normalized query text. Plans are valid for one catalog version; connect,
+ * disconnect, changes of the schema and EGDs, createView, createIndex, dropGraph and useGraph move to
+ * a new version and clear the cache. In Neo4j, the key is the query with
+ * its constants lifted into parameters, so a plan is shared by the queries differing only in constants.
+ *
+ * Setting in the [default] section of the config file:
+ *  plan_cache_size: max # of cached plans (0: no caching)
+ */
+public class QueryPlanCache {
+	public static class Plan {
+		private String from;
+		private DatalogClause query;
+		private DatalogProgram program;
+		private ArrayList<DatalogClause> rules;
+		private String nativeQuery;
+
+		public Plan(String from, DatalogClause query, DatalogProgram program, ArrayList<DatalogClause> rules, String nativeQuery) {
+			this.from = from;
+			this.query = query;
+			this.program = program;
+			this.rules = rules;
+			this.nativeQuery = nativeQuery;
+		}
+
+		public String getFrom() {
+			return from;
+		}
+
+		/**
+		 * Rewritten query without constants in atoms
+		 */
+		public DatalogClause getQuery() {
+			return query;
+		}
+
+		public DatalogProgram getProgram() {
+			return program;
+		}
+
+		public ArrayList<DatalogClause> getRules() {
+			return rules;
+		}
+
+		/**
+		 * SQL or Cypher to run for the query (null: the store evaluates the rules)
+		 */
+		public String getNativeQuery() {
+			return nativeQuery;
+		}
+	}
+
+	private static long version = 0;
+	private static int capacity = -1;
+	private static LinkedHashMap<String, Plan> plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+			return size() > getCapacity();
+		}
+	};
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private static int getCapacity() {
+		if (capacity < 0) {
+			String v = Config.get("default.plan_cache_size");
+			capacity = (v != null) ? Integer.parseInt(v.trim()) : 256;
+		}
+		return capacity;
+	}
+
+	public static synchronized long getVersion() {
+		return version;
+	}
+
+	public static synchronized Plan get(String query) {
+		if (getCapacity() == 0) {
+			return null;
+		}
+		Plan plan = plans.get(getKey(query));
+		if (plan != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return plan;
+	}
+
+	/**
+	 * @param version catalog version when the plan started to be made (the plan is dropped if it changed since)
+	 */
+	public static synchronized void put(String query, long version, Plan plan) {
+		if (getCapacity() == 0 || version != QueryPlanCache.version) {
+			return;
+		}
+		plans.put(getKey(query), plan);
+	}
+
+	public static synchronized void invalidate() {
+		version++;
+		plans.clear();
+	}
+
+	public static synchronized String getStats() {
+		return "plans: " + plans.size() + " hits: " + hits + " misses: " + misses + " version: " + version;
+	}
+
+	/**
+	 * Plans are made for a store, so the same query has a plan per platform.
+	 */
+	static String getKey(String query) {
+		return Config.getPlatform() + ":" + normalize(query);
+	}
+
+	/**
+	 * Collapse whitespace outside quotes and drop a trailing semicolon.
+	 */
+	static String normalize(String query) {
+		StringBuilder str = new StringBuilder();
+		char quote = 0;
+		boolean space = false;
+		for (char c : query.trim().toCharArray()) {
+			if (quote != 0) {
+				str.append(c);
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (Character.isWhitespace(c) == true) {
+				space = true;
+			} else {
+				if (space == true && str.length() > 0) {
+					str.append(' ');
+				}
+				space = false;
+				if (c == '"' || c == '\'') {
+					quote = c;
+				}
+				str.append(c);
+			}
+		}
+		int len = str.length();
+		if (len > 0 && str.charAt(len - 1) == ';') {
+			str.setLength(len - 1);
+		}
+		return str.toString().trim();
+	}
+}
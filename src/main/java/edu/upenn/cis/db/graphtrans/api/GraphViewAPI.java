@@ -1,29 +1,42 @@
 package edu.upenn.cis.db.graphtrans.api;
 
+import edu.upenn.cis.db.datalog.simpleengine.IntegerSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.LongSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 import edu.upenn.cis.db.graphtrans.CommandExecutor;
+import edu.upenn.cis.db.graphtrans.CommandResult;
 import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.graphtrans.Console;
 import edu.upenn.cis.db.graphtrans.GraphTransServer;
+import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
 import edu.upenn.cis.db.helper.Performance;
 import com.google.gson.Gson;
 import spark.Request;
 import spark.Response;
 
-import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static spark.Spark.*;
 
 /**
  * REST API Server for PG-View Knowledge Graph System
  * 
- * Provides HTTP endpoints for Python and other clients to interact with the graph database
+ * Provides HTTP endpoints for Python and other clients to interact with the graph database.
+ * Commands are run with CommandExecutor.execute(), which returns their messages and answers
+ * per request, so requests are handled concurrently on the server's thread pool. Read-only
+ * commands (queries, schema, list, ...) share a read lock; the others take the write lock
+ * because they change the catalog and the current graph.
  */
 public class GraphViewAPI {
     
     private static Console console;
     private static boolean initialized = false;
     private static final Gson gson = new Gson();
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final String[] readOnlyCommands = {"match", "schema", "egds", "views", "program", "list", "execute"};
     
     /**
      * Strip ANSI color codes from string for clean JSON output
@@ -42,6 +55,78 @@ public class GraphViewAPI {
         return msg != null ? msg : e.getClass().getSimpleName();
     }
     
+    /**
+     * Whether the command only reads the catalog and the graph in use
+     */
+    private static boolean isReadOnly(String command) {
+        String cmd = command.trim().toLowerCase();
+        for (String prefix : readOnlyCommands) {
+            if (cmd.startsWith(prefix) == true) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Run a command under the read lock (read-only commands) or the write lock (others)
+     */
+    private static CommandResult run(String command) {
+        Lock l = (isReadOnly(command) == true) ? lock.readLock() : lock.writeLock();
+        l.lock();
+        try {
+            return CommandExecutor.execute(command);
+        } finally {
+            l.unlock();
+        }
+    }
+    
+    /**
+     * Rethrow the failure of a command so that the handler reports it
+     */
+    private static CommandResult runOrThrow(String command) throws Exception {
+        CommandResult result = run(command);
+        if (result.isSuccess() == false) {
+            throw result.getException();
+        }
+        return result;
+    }
+    
+    /**
+     * Structured result of a command: messages, and columns and rows of the query answer
+     */
+    private static Map<String, Object> toMap(CommandResult result) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("success", result.isSuccess());
+        map.put("command", result.getCommand());
+        map.put("output", stripAnsiCodes(result.getOutput()));
+        if (result.isSuccess() == false) {
+            map.put("error", getErrorMessage(result.getException()));
+            map.put("type", result.getException().getClass().getSimpleName());
+        }
+        StoreResultSet rs = result.getResultSet();
+        if (rs != null) {
+            List<List<Object>> rows = new ArrayList<>();
+            for (Tuple<SimpleTerm> t : rs.getResultSet()) {
+                List<Object> row = new ArrayList<>();
+                for (SimpleTerm st : t.getTuple()) {
+                    if (st instanceof IntegerSimpleTerm) {
+                        row.add(st.getInt());
+                    } else if (st instanceof LongSimpleTerm) {
+                        row.add(st.getLong());
+                    } else {
+                        row.add(st.getString());
+                    }
+                }
+                rows.add(row);
+            }
+            map.put("columns", rs.getColumns());
+            map.put("rows", rows);
+            map.put("rowCount", rows.size());
+        }
+        return map;
+    }
+    
     public static void main(String[] args) {
         // Initialize the system
         try {
@@ -130,6 +215,15 @@ public class GraphViewAPI {
             // Execute query
             post("/query", GraphViewAPI::executeQuery);
             
+            // Prepare a query with parameters $1, ..., $n
+            post("/query/prepare", GraphViewAPI::prepareQuery);
+            
+            // Execute a prepared query with values of its parameters
+            post("/query/execute", GraphViewAPI::executePreparedQuery);
+            
+            // Deallocate a prepared query
+            delete("/query/prepare/:name", GraphViewAPI::deallocateQuery);
+            
             // Get program
             get("/program", GraphViewAPI::getProgram);
             
@@ -182,30 +276,16 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Command is required"));
             }
             
-            // Capture output
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
-            
-            try {
-                CommandExecutor.run(command);
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "output", output,
-                    "command", command
-                ));
-            } finally {
-                System.setOut(old);
+            CommandResult result = run(command);
+            if (result.isSuccess() == false) {
+                res.status(500);
             }
+            return gson.toJson(toMap(result));
             
         } catch (Exception e) {
             res.status(500);
             return gson.toJson(Map.of(
-                "error", e.getMessage(),
+                "error", getErrorMessage(e),
                 "type", e.getClass().getSimpleName()
             ));
         }
@@ -224,30 +304,7 @@ public class GraphViewAPI {
             List<Map<String, Object>> results = new ArrayList<>();
             
             for (String command : commands) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                PrintStream ps = new PrintStream(baos);
-                PrintStream old = System.out;
-                System.setOut(ps);
-                
-                try {
-                    CommandExecutor.run(command);
-                    System.out.flush();
-                    String output = stripAnsiCodes(baos.toString());
-                    
-                    results.add(Map.of(
-                        "success", true,
-                        "command", command,
-                        "output", output
-                    ));
-                } catch (Exception e) {
-                    results.add(Map.of(
-                        "success", false,
-                        "command", command,
-                        "error", e.getMessage()
-                    ));
-                } finally {
-                    System.setOut(old);
-                }
+                results.add(toMap(run(command)));
             }
             
             return gson.toJson(Map.of(
@@ -271,7 +328,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Platform is required (pg, sd, lb, n4)"));
             }
             
-            CommandExecutor.run("connect " + platform);
+            runOrThrow("connect " + platform);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -295,7 +352,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Graph name is required"));
             }
             
-            CommandExecutor.run("create graph " + graphName);
+            runOrThrow("create graph " + graphName);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -319,7 +376,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Graph name is required"));
             }
             
-            CommandExecutor.run("use " + graphName);
+            runOrThrow("use " + graphName);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -336,7 +393,7 @@ public class GraphViewAPI {
     private static String dropGraph(Request req, Response res) {
         try {
             String graphName = req.params(":name");
-            CommandExecutor.run("drop graph " + graphName);
+            runOrThrow("drop graph " + graphName);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -352,23 +409,12 @@ public class GraphViewAPI {
     
     private static String listGraphs(Request req, Response res) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
+            CommandResult result = runOrThrow("list");
             
-            try {
-                CommandExecutor.run("list");
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "output", output
-                ));
-            } finally {
-                System.setOut(old);
-            }
+            return gson.toJson(Map.of(
+                "success", true,
+                "output", stripAnsiCodes(result.getOutput())
+            ));
             
         } catch (Exception e) {
             res.status(500);
@@ -386,7 +432,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Label is required"));
             }
             
-            CommandExecutor.run("create node " + label);
+            runOrThrow("create node " + label);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -412,7 +458,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "Label, from, and to are required"));
             }
             
-            CommandExecutor.run("create edge " + label + "(" + from + " -> " + to + ")");
+            runOrThrow("create edge " + label + "(" + from + " -> " + to + ")");
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -430,23 +476,12 @@ public class GraphViewAPI {
     
     private static String getSchema(Request req, Response res) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
+            CommandResult result = runOrThrow("schema");
             
-            try {
-                CommandExecutor.run("schema");
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "schema", output
-                ));
-            } finally {
-                System.setOut(old);
-            }
+            return gson.toJson(Map.of(
+                "success", true,
+                "schema", stripAnsiCodes(result.getOutput())
+            ));
             
         } catch (Exception e) {
             res.status(500);
@@ -465,7 +500,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "relName and args are required"));
             }
             
-            CommandExecutor.run("insert " + relName + "(" + args + ")");
+            runOrThrow("insert " + relName + "(" + args + ")");
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -489,7 +524,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "relName and filePath are required"));
             }
             
-            CommandExecutor.run("import " + relName + " from \"" + filePath + "\"");
+            runOrThrow("import " + relName + " from \"" + filePath + "\"");
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -512,7 +547,7 @@ public class GraphViewAPI {
                 return gson.toJson(Map.of("error", "View definition is required"));
             }
             
-            CommandExecutor.run(viewDefinition);
+            runOrThrow(viewDefinition);
             
             return gson.toJson(Map.of(
                 "success", true,
@@ -527,23 +562,12 @@ public class GraphViewAPI {
     
     private static String listViews(Request req, Response res) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
+            CommandResult result = runOrThrow("views");
             
-            try {
-                CommandExecutor.run("views");
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "views", output
-                ));
-            } finally {
-                System.setOut(old);
-            }
+            return gson.toJson(Map.of(
+                "success", true,
+                "views", stripAnsiCodes(result.getOutput())
+            ));
             
         } catch (Exception e) {
             res.status(500);
@@ -553,66 +577,147 @@ public class GraphViewAPI {
     
     private static String executeQuery(Request req, Response res) {
         try {
-            Map<String, String> body = gson.fromJson(req.body(), Map.class);
-            String query = body.get("query");
+            Map<String, Object> body = gson.fromJson(req.body(), Map.class);
+            String query = (String) body.get("query");
             
             if (query == null) {
                 res.status(400);
                 return gson.toJson(Map.of("error", "Query is required"));
             }
             
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
+            CommandResult result;
+            if (body.containsKey("limit") == true || body.containsKey("offset") == true) {
+                // a page of the answer, streamed from the store
+                long limit = body.containsKey("limit") ? ((Number) body.get("limit")).longValue() : -1;
+                long offset = body.containsKey("offset") ? ((Number) body.get("offset")).longValue() : 0;
+                lock.readLock().lock();
+                try {
+                    result = CommandExecutor.execute(query, limit, offset);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (result.isSuccess() == false) {
+                    throw result.getException();
+                }
+            } else {
+                result = runOrThrow(query);
+            }
+            String output = stripAnsiCodes(result.getOutput());
+            
+            // Extract query result count if available
+            String resultLine = Arrays.stream(output.split("\n"))
+                .filter(line -> line.contains("query result #:"))
+                .findFirst()
+                .orElse("");
             
-            try {
-                CommandExecutor.run(query);
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                // Extract query result count if available
-                String resultLine = Arrays.stream(output.split("\n"))
-                    .filter(line -> line.contains("query result #:"))
-                    .findFirst()
-                    .orElse("");
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "query", query,
-                    "output", output,
-                    "resultInfo", resultLine
-                ));
-            } finally {
-                System.setOut(old);
+            Map<String, Object> response = toMap(result);
+            response.put("query", query);
+            response.put("resultInfo", resultLine);
+            return gson.toJson(response);
+            
+        } catch (Exception e) {
+            res.status(500);
+            return gson.toJson(Map.of("error", getErrorMessage(e)));
+        }
+    }
+    
+    private static String prepareQuery(Request req, Response res) {
+        try {
+            Map<String, String> body = gson.fromJson(req.body(), Map.class);
+            String name = body.get("name");
+            String query = body.get("query");
+            
+            if (name == null || query == null) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "Name and query are required"));
             }
             
+            Map<String, Object> response = toMap(runOrThrow("PREPARE " + name + " AS " + query));
+            response.put("name", name);
+            return gson.toJson(response);
+            
         } catch (Exception e) {
             res.status(500);
             return gson.toJson(Map.of("error", getErrorMessage(e)));
         }
     }
     
-    private static String getProgram(Request req, Response res) {
+    private static String executePreparedQuery(Request req, Response res) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
+            Map<String, Object> body = gson.fromJson(req.body(), Map.class);
+            String name = (String) body.get("name");
+            
+            if (name == null) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "Name is required"));
+            }
+            
+            // JSON numbers are read as doubles; parameters are integers or strings
+            List<Object> values = new ArrayList<>();
+            if (body.get("params") != null) {
+                for (Object v : (List<Object>) body.get("params")) {
+                    if (v instanceof Number) {
+                        double d = ((Number) v).doubleValue();
+                        if (d != Math.rint(d)) {
+                            res.status(400);
+                            return gson.toJson(Map.of("error", "Parameters should be integers or strings: " + v));
+                        }
+                        values.add(((Number) v).longValue());
+                    } else {
+                        values.add(String.valueOf(v));
+                    }
+                }
+            }
+            long limit = body.containsKey("limit") ? ((Number) body.get("limit")).longValue() : -1;
+            long offset = body.containsKey("offset") ? ((Number) body.get("offset")).longValue() : 0;
             
+            CommandResult result;
+            lock.readLock().lock();
             try {
-                CommandExecutor.run("program");
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                
-                return gson.toJson(Map.of(
-                    "success", true,
-                    "program", output
-                ));
+                result = CommandExecutor.execute(name, values, limit, offset);
             } finally {
-                System.setOut(old);
+                lock.readLock().unlock();
+            }
+            if (result.isSuccess() == false) {
+                throw result.getException();
             }
             
+            Map<String, Object> response = toMap(result);
+            response.put("name", name);
+            response.put("params", values);
+            return gson.toJson(response);
+            
+        } catch (Exception e) {
+            res.status(500);
+            return gson.toJson(Map.of("error", getErrorMessage(e)));
+        }
+    }
+    
+    private static String deallocateQuery(Request req, Response res) {
+        try {
+            String name = req.params(":name");
+            runOrThrow("DEALLOCATE " + name);
+            
+            return gson.toJson(Map.of(
+                "success", true,
+                "message", "Prepared query '" + name + "' deallocated"
+            ));
+            
+        } catch (Exception e) {
+            res.status(500);
+            return gson.toJson(Map.of("error", getErrorMessage(e)));
+        }
+    }
+    
+    private static String getProgram(Request req, Response res) {
+        try {
+            CommandResult result = runOrThrow("program");
+            
+            return gson.toJson(Map.of(
+                "success", true,
+                "program", stripAnsiCodes(result.getOutput())
+            ));
+            
         } catch (Exception e) {
             res.status(500);
             return gson.toJson(Map.of("error", getErrorMessage(e)));
@@ -644,35 +749,12 @@ public class GraphViewAPI {
             }
             
             // Get list of graphs
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream ps = new PrintStream(baos);
-            PrintStream old = System.out;
-            System.setOut(ps);
-            
-            try {
-                CommandExecutor.run("list");
-                System.out.flush();
-                String output = stripAnsiCodes(baos.toString());
-                status.put("graphs", output.replace("List of graphs: ", "").replace("[", "").replace("]", "").trim());
-            } finally {
-                System.setOut(old);
-            }
+            String output = stripAnsiCodes(runOrThrow("list").getOutput());
+            status.put("graphs", output.replace("List of graphs: ", "").replace("[", "").replace("]", "").trim());
             
             // Get schema if graph is in use
             if (status.get("currentGraph") != null) {
-                baos = new ByteArrayOutputStream();
-                ps = new PrintStream(baos);
-                old = System.out;
-                System.setOut(ps);
-                
-                try {
-                    CommandExecutor.run("schema");
-                    System.out.flush();
-                    String schemaOutput = stripAnsiCodes(baos.toString());
-                    status.put("schema", schemaOutput);
-                } finally {
-                    System.setOut(old);
-                }
+                status.put("schema", stripAnsiCodes(runOrThrow("schema").getOutput()));
             }
             
             // Persistence warning
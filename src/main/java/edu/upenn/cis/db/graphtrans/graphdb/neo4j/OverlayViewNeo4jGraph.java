@@ -81,9 +81,18 @@ public class OverlayViewNeo4jGraph implements Neo4jGraph {
 		for (TransRule tr : transRuleList.getTransRuleList()) {
 			rule = new StringBuilder("// Transformation\n");
 			rule.append("CALL apoc.periodic.iterate('\n");
-			HashSet<String> vars = addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j(), null);	
-			addWithClause(tr, vars);
-			rule.append("','\n");
+			String partitionVar = ParallelIterate.getPartitionVar(tr, false);
+			if (partitionVar != null) { // the MATCH for each node of partitionVar
+				rule.append(ParallelIterate.getPartitionStatement(partitionVar, ParallelIterate.getLabel(tr, partitionVar)));
+				rule.append("\n','\n");
+				rule.append(ParallelIterate.getPartitionMatch(partitionVar));
+				addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j(), null);
+				rule.append("WITH *\n");
+			} else {
+				HashSet<String> vars = addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j(), null);	
+				addWithClause(tr, vars);
+				rule.append("','\n");
+			}
 			addMergeNodeClause(tr.getMapMap());
 			addConstructClause(tr.getPatternAdd());
 			
@@ -93,7 +102,7 @@ public class OverlayViewNeo4jGraph implements Neo4jGraph {
 			addDeleteClause(varsToDelete);
 			
 			rule.append("'\n");
-			rule.append(", {batchSize:10000, parallel:false})\n");
+			rule.append(", ").append(ParallelIterate.getConfig(partitionVar != null));
 //			addReturnClause();
 
 			rules.add(rule.toString());
@@ -169,7 +178,7 @@ public class OverlayViewNeo4jGraph implements Neo4jGraph {
 			rule.append("',\n")
 				.append("'write',\n")
 				.append("[['answer', 'int']],\n") 
-				.append("[['eid', 'int']]\n")  
+				.append("[['eids', 'LIST OF INT']]\n")  
 				.append(");");
 			System.out.println("[setCypherQueryForUpdate] rule: " + rule.toString());
 			rules.add(rule.toString());
@@ -472,8 +481,8 @@ public class OverlayViewNeo4jGraph implements Neo4jGraph {
 					
 				}
 				rule.append(e)
-					.append(".uid=")
-					.append("$eid ");
+					.append(".uid IN ")
+					.append("$eids ");
 				countForLevel++;
 			}
 			rule.append(")");
@@ -0,0 +1,161 @@
+package edu.upenn.cis.db.graphtrans.graphdb.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import edu.upenn.cis.db.ConjunctiveQuery.Atom;
+import edu.upenn.cis.db.graphtrans.Config;
+import edu.upenn.cis.db.graphtrans.datastructure.TransRule;
+import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.helper.Util;
+
+/**
+ * apoc.periodic.iterate for the rules of a view. A rule whose writes cannot conflict across batches
+ * is run in parallel, with batches partitioned by the nodes bound to a matched node variable (partition variable):
+ * it deletes and merges nothing, and each new edge is between new nodes or the partition variable
+ * (and each node merged by a Skolem key has the partition variable in the key). Other rules are run
+ * in sequential batches.
+ *
+ * Settings in the [neo4j] section of the config file:
+ *  parallel_iterate: run conflict-free rules in parallel
+ *  iterate_batch_size: rows per transaction of a sequential rule
+ *  iterate_partition_size: nodes of the partition variable per transaction of a parallel rule
+ *  iterate_concurrency: # of threads of a parallel rule (0: # of cores)
+ */
+public class ParallelIterate {
+	public static final String idVar = "_pid";
+	private static final String statsClause = "YIELD batches, total, timeTaken, failedBatches\n"
+			+ "UNWIND [batches, total, timeTaken, failedBatches] AS stat RETURN stat";
+
+	public static boolean isParallel() {
+		String v = Config.get("neo4j.parallel_iterate");
+		return v == null || Boolean.parseBoolean(v.trim()) == true;
+	}
+
+	private static long getLong(String key, long defaultValue) {
+		String v = Config.get(key);
+		if (v == null) {
+			return defaultValue;
+		}
+		return Long.parseLong(v.trim());
+	}
+
+	/**
+	 * @param isMergedBySkolem true if new nodes are merged by Skolem keys (otherwise they are created)
+	 * @return partition variable of the rule, or null if its writes may conflict
+	 */
+	public static String getPartitionVar(TransRule tr, boolean isMergedBySkolem) {
+		if (isParallel() == false || tr.getNodeVarsToDelete().isEmpty() == false || tr.getEdgeVarsToDelete().isEmpty() == false
+				|| tr.getMapFromToMap().isEmpty() == false || tr.getMapMap().isEmpty() == false) {
+			return null;
+		}
+		HashSet<String> newNodes = new HashSet<String>();
+		ArrayList<Atom> newEdges = new ArrayList<Atom>();
+		for (Atom a : tr.getPatternAdd()) {
+			String var = a.getTerms().get(0).getVar();
+			if (a.getRelName().equals(Config.relname_node) == true && tr.getMatchNodeVars().contains(var) == false) {
+				newNodes.add(var);
+			} else if (a.getRelName().equals(Config.relname_edge) == true && tr.getMatchEdgeVars().contains(var) == false) {
+				newEdges.add(a);
+			}
+		}
+
+		for (String p : tr.getMatchNodeVars()) {
+			if (getLabel(tr, p) == null) {
+				continue;
+			}
+			boolean isPartitioned = true;
+			for (Atom e : newEdges) {
+				String from = e.getTerms().get(1).getVar();
+				String to = e.getTerms().get(2).getVar();
+				if ((newNodes.contains(from) == false && from.equals(p) == false)
+						|| (newNodes.contains(to) == false && to.equals(p) == false)) {
+					isPartitioned = false;
+				}
+			}
+			if (isMergedBySkolem == true) {
+				for (String n : newNodes) {
+					ArrayList<String> key = tr.getSkolemFunctionMap().get(n); // name, sources...
+					if (key == null || key.subList(1, key.size()).contains(p) == false) {
+						isPartitioned = false;
+					}
+				}
+			}
+			if (isPartitioned == true) {
+				return p;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Label of a matched node variable (null if none)
+	 */
+	public static String getLabel(TransRule tr, String var) {
+		for (Atom a : tr.getPatternMatch()) {
+			if (a.getRelName().equals(Config.relname_node) == true && a.isNegated() == false
+					&& a.getTerms().get(0).getVar().equals(var) == true) {
+				return Util.removeQuotes(a.getTerms().get(1).toString());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Outer statement of a parallel rule, returning the id of each node of the partition variable
+	 */
+	public static String getPartitionStatement(String var, String label) {
+		return "MATCH (" + var + ":" + label + ") RETURN id(" + var + ") AS " + idVar;
+	}
+
+	/**
+	 * First clause of the inner statement of a parallel rule, finding the node of the partition variable
+	 * by an id seek (the MATCH of the rule follows)
+	 */
+	public static String getPartitionMatch(String var) {
+		return "MATCH (" + var + ") WHERE id(" + var + ") = " + idVar + "\n";
+	}
+
+	private static long getPartitionSize() {
+		return Math.max(1, getLong("neo4j.iterate_partition_size", 10000));
+	}
+
+	/**
+	 * Config of apoc.periodic.iterate, and the clause returning its statistics (see printStats)
+	 */
+	public static String getConfig(boolean isParallel) {
+		String config;
+		if (isParallel == true) {
+			long concurrency = getLong("neo4j.iterate_concurrency", 0);
+			if (concurrency <= 0) {
+				concurrency = Runtime.getRuntime().availableProcessors();
+			}
+			config = "{batchSize:" + getPartitionSize() + ", parallel:true, concurrency:" + concurrency + "}";
+		} else {
+			config = "{batchSize:" + getLong("neo4j.iterate_batch_size", 10000) + ", parallel:false}";
+		}
+		return config + ")\n" + statsClause;
+	}
+
+	public static boolean hasStats(String stmt) {
+		return stmt.endsWith(statsClause) == true;
+	}
+
+	/**
+	 * Print the throughput of an apoc.periodic.iterate statement from the rows of getConfig().
+	 * Items are rows of a sequential rule, and nodes of the partition variable of a parallel rule.
+	 */
+	public static void printStats(StoreResultSet rs) {
+		if (rs == null || rs.getResultSet().size() < 4) {
+			return;
+		}
+		long batches = rs.getResultSet().get(0).getTuple().get(0).getLong();
+		long total = rs.getResultSet().get(1).getTuple().get(0).getLong();
+		long timeTaken = rs.getResultSet().get(2).getTuple().get(0).getLong(); // sec
+		long failedBatches = rs.getResultSet().get(3).getTuple().get(0).getLong();
+
+		Util.Console.logln("[iterate] batches: " + batches + " items: " + total + " time(sec): " + timeTaken
+				+ " items/sec: " + (total / Math.max(1, timeTaken)) + " batches/sec: " + (batches / Math.max(1, timeTaken))
+				+ " failedBatches: " + failedBatches);
+	}
+}
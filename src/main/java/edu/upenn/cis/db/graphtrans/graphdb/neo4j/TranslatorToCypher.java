@@ -16,6 +16,7 @@ import edu.upenn.cis.db.graphtrans.parser.ViewParser;
 import edu.upenn.cis.db.helper.Util;
 
 public class TranslatorToCypher {
+	private final static String viewLabelPrefix = "V_";
 	public enum Neo4jViewMode {
 		COPY_AND_UPDATE,
 		UPDATE_IN_PLACE,
@@ -62,6 +63,10 @@ public class TranslatorToCypher {
 
 		System.out.println("[getCypherForCreateView] neo4jViewMode: " + neo4jViewMode);
 
+		if (trList.isDefaultMap() == false) { // queries on the view start from the nodes with its label
+			cypherRules.add("CREATE INDEX IF NOT EXISTS FOR (n:`" + getViewLabel(trList.getViewName()) + "`) ON (n.uid)");
+		}
+
 		for (int i = 0; i < trList.getTransRuleList().size(); i++) {
 			rule = new StringBuilder();
 			transRule = trList.getTransRuleList().get(i);
@@ -76,20 +81,28 @@ public class TranslatorToCypher {
 						.append("\t[").append(Util.getItemsWithComma(transRule.getMatchEdgeVars())).append("],\n")
 						.append("\t{})\n")
 						.append("YIELD input, output, error\n")
-						.append("CALL apoc.create.setProperty(output, \"view\", \"").append(trList.getViewName() + "\")\n")
+						.append("CALL apoc.create.addLabels(output, [\"").append(getViewLabel(trList.getViewName()) + "\"])\n")
 						.append("YIELD node\n")
 						.append("RETURN count(*)");
 				} else if (neo4jViewMode.equals(Neo4jViewMode.OVERLAY) == true) {
-					rule.append("CALL apoc.create.setProperty([")
+					rule.append("CALL apoc.create.addLabels([")
 						.append(Util.getItemsWithComma(transRule.getMatchNodeVars()))
-						.append("], \"view\", \"").append(trList.getViewName() + "\")\n")
+						.append("], [\"").append(getViewLabel(trList.getViewName()) + "\"])\n")
 						.append("YIELD node\n")
 						.append("RETURN count(*)");
 				}
 			} else {
+				String partitionVar = ParallelIterate.getPartitionVar(transRule, false);
 				rule.append("CALL apoc.periodic.iterate(\'");
-				handleMatchClause();
-				rule.append(" RETURN *', '");
+				if (partitionVar != null) { // the MATCH for each node of partitionVar
+					rule.append(ParallelIterate.getPartitionStatement(partitionVar, ParallelIterate.getLabel(transRule, partitionVar)));
+					rule.append("', '");
+					rule.append(ParallelIterate.getPartitionMatch(partitionVar));
+					handleMatchClause();
+				} else {
+					handleMatchClause();
+					rule.append(" RETURN *', '");
+				}
 				handleMapClause();
 				rule.append("WITH *\n");
 				handleDeleteClause();
@@ -98,7 +111,7 @@ public class TranslatorToCypher {
 				handleConstructClause();
 
 				rule.append("RETURN count(*)\n");
-				rule.append("', {batchSize:10000, parallel:false})\n");
+				rule.append("', ").append(ParallelIterate.getConfig(partitionVar != null));
 			}
 
 			cypherRules.add(rule.toString());
@@ -107,6 +120,17 @@ public class TranslatorToCypher {
 		return cypherRules; 
 	}
 
+	/**
+	 * Label of the nodes of a view without a default map (a node may be in several views)
+	 */
+	public static String getViewLabel(String viewName) {
+		return viewLabelPrefix + viewName;
+	}
+
+	public static boolean isViewLabel(String label) {
+		return label.startsWith(viewLabelPrefix) == true;
+	}
+
 	private static void handleDeleteClause() {		
 		HashSet<String> varsToDelete = new HashSet<String>();
 		varsToDelete.addAll(transRule.getNodeVarsToDelete());
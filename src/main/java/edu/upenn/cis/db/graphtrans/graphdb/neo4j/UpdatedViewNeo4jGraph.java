@@ -351,7 +351,7 @@ public class UpdatedViewNeo4jGraph implements Neo4jGraph {
 				.append("\t[").append(Util.getItemsWithComma(tr.getMatchEdgeVars())).append("],\n")
 				.append("\t{})\n")
 			    .append("YIELD input, output, error\n")
-			    .append("CALL apoc.create.setProperty(output, \"view\", \"").append(transRuleList.getViewName() + "\")\n")
+			    .append("CALL apoc.create.addLabels(output, [\"").append(TranslatorToCypher.getViewLabel(transRuleList.getViewName()) + "\"])\n")
 			    .append("YIELD node\n")
 			    .append("RETURN count(*);");
 			
@@ -387,18 +387,27 @@ public class UpdatedViewNeo4jGraph implements Neo4jGraph {
 			}
 			
 			rule.append("CALL apoc.periodic.iterate('\n");
-			HashSet<String> vars = addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j());
-			
-			addWithClause(tr, vars);
-			addMergeNodeClause(tr.getMapMap());
-			rule.append("','");
+			String partitionVar = ParallelIterate.getPartitionVar(tr, true);
+			if (partitionVar != null) { // the MATCH for each node of partitionVar
+				rule.append(ParallelIterate.getPartitionStatement(partitionVar, ParallelIterate.getLabel(tr, partitionVar)));
+				rule.append("\n','");
+				rule.append(ParallelIterate.getPartitionMatch(partitionVar));
+				addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j());
+				rule.append("\tWITH *\n");
+			} else {
+				HashSet<String> vars = addMatchClause(tr.getPatternMatch(), tr.getWhereConditionForNeo4j());
+				
+				addWithClause(tr, vars);
+				addMergeNodeClause(tr.getMapMap());
+				rule.append("','");
+			}
 			addClauseForConstruct(tr);
 			addClauseForDelete(tr.getNodeVarsToDelete());
 			addClauseForDelete(tr.getEdgeVarsToDelete());
 
 			rule.append("\tRETURN count(*)\n");
 			rule.append("'\n");
-			rule.append(", {batchSize:10000, parallel:false})\n");
+			rule.append(", ").append(ParallelIterate.getConfig(partitionVar != null));
 
 			rules.add(rule.toString());
 		}				
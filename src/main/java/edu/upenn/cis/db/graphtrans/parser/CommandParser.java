@@ -1,5 +1,7 @@
 package edu.upenn.cis.db.graphtrans.parser;
 
+import java.util.ArrayList;
+
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
@@ -191,6 +193,36 @@ public class CommandParser extends GraphTransQueryBaseVisitor<Void> {
 		return visitChildren(ctx); 
 	}
 
+	@Override
+	public Void visitPrepare_query(GraphTransQueryParser.Prepare_queryContext ctx) {
+		int start = ctx.user_query().getStart().getStartIndex();
+		int stop = ctx.user_query().getStop().getStopIndex() + 1;
+
+		CommandExecutor.prepare(ctx.ID().getText(), query.substring(start, stop));
+		return null; // not to run the user_query
+	}
+
+	@Override
+	public Void visitExecute_query(GraphTransQueryParser.Execute_queryContext ctx) {
+		ArrayList<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < ctx.int_or_literal().size(); i++) {
+			String str = ctx.int_or_literal().get(i).getText();
+			if (str.startsWith("\"") == true) {
+				values.add(Util.removeQuotes(str));
+			} else {
+				values.add(Long.parseLong(str));
+			}
+		}
+		CommandExecutor.executePrepared(ctx.ID().getText(), values);
+		return visitChildren(ctx);
+	}
+
+	@Override
+	public Void visitDeallocate_query(GraphTransQueryParser.Deallocate_queryContext ctx) {
+		CommandExecutor.deallocate(ctx.ID().getText());
+		return visitChildren(ctx);
+	}
+
 
 	@Override 
 	public Void visitLoad_script(GraphTransQueryParser.Load_scriptContext ctx) {
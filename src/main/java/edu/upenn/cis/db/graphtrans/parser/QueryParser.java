@@ -203,7 +203,7 @@ public class QueryParser extends GraphTransQueryBaseVisitor<Void> {
 //			System.out.println("CODE 4114 - rvar: " + rvar);			
 		} else if (ctx.rop().propValue() != null) {
 //			String rvar = ctx.rop().var().getText();
-			String val = ctx.rop().propValue().int_or_literal().getText();		
+			String val = ctx.rop().propValue().getText(); // constant or parameter ($1) of a prepared query
 			ParserHelper.processWhereCondition(var, prop, op, val, false, clause.getBody(), propertyAtoms, null, null);
 			
 //			throw new IllegalArgumentException("rop propValue is not supported yet ctx.rop: " + ctx.rop().getText());
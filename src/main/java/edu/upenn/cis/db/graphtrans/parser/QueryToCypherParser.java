@@ -3,10 +3,12 @@ package edu.upenn.cis.db.graphtrans.parser;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,11 +22,13 @@ import edu.upenn.cis.db.graphtrans.GraphQueryParser.GraphTransQueryLexer;
 import edu.upenn.cis.db.graphtrans.GraphQueryParser.GraphTransQueryParser;
 import edu.upenn.cis.db.graphtrans.GraphQueryParser.GraphTransQueryParser.HopContext;
 import edu.upenn.cis.db.graphtrans.GraphQueryParser.GraphTransQueryParser.Term_bodyContext;
+import edu.upenn.cis.db.graphtrans.graphdb.neo4j.TranslatorToCypher;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.TranslatorToCypher.Neo4jViewMode;
 import edu.upenn.cis.db.helper.Util;
 
 public class QueryToCypherParser extends GraphTransQueryBaseVisitor<Void> {
 	final static Logger logger = LogManager.getLogger(QueryToCypherParser.class);
+	private final static HashSet<String> comparisonOps = new HashSet<String>(List.of("=", ">", "<", ">=", "<=", "!="));
 
 	private String from;
 
@@ -61,6 +65,39 @@ public class QueryToCypherParser extends GraphTransQueryBaseVisitor<Void> {
 		useCreatedDestroyed = false;
 	}
 
+	/**
+	 * Lift the constants compared in the WHERE clause of a query into parameters $k, $k+1, ... (k = firstParam),
+	 * so that queries differing only in their constants have the same text, translation and Cypher plan.
+	 * 
+	 * @param constants the values (Long or String) of the parameters are appended to it
+	 * @return query with the parameters in place of the constants
+	 */
+	public static String liftConstants(String query, int firstParam, List<Object> constants) {
+		GraphTransQueryLexer lexer = new GraphTransQueryLexer(CharStreams.fromString(query));
+		StringBuilder str = new StringBuilder();
+		int pos = 0;
+		String prev = "";
+		for (Token t : lexer.getAllTokens()) {
+			Object value = null;
+			if (comparisonOps.contains(prev) == true) {
+				if (t.getType() == GraphTransQueryLexer.STRING) {
+					value = Util.removeQuotes(t.getText());
+				} else if (t.getType() == GraphTransQueryLexer.INTEGER && t.getText().length() < 19) { // fits in a long
+					value = Long.parseLong(t.getText());
+				}
+			}
+			if (value != null) {
+				str.append(query, pos, t.getStartIndex()).append("$").append(firstParam++);
+				constants.add(value);
+				pos = t.getStopIndex() + 1;
+			}
+			prev = t.getText();
+		}
+		str.append(query.substring(pos));
+
+		return str.toString();
+	}
+
 	public String getCypher(String query, HashMap<String, 
 			Neo4jViewMode> viewNameToModeMap, HashMap<String, Boolean> viewNameToIsDefaultRuleMap) {
 
@@ -100,25 +137,22 @@ public class QueryToCypherParser extends GraphTransQueryBaseVisitor<Void> {
 		//		System.out.println("returnEdgeSet: " + returnEdgeSet);
 		//		System.out.println("termsInWhere: " + termsInWhere);
 
+		// nodes of a view have its label (see TranslatorToCypher.getViewLabel)
+		String viewLabel = "";
+		if (useViewName == true) {
+			viewLabel = ":`" + TranslatorToCypher.getViewLabel(from) + "`";
+		}
+
 		StringBuilder cypher = new StringBuilder();
 		cypher.append("MATCH ");
 		for (int i = 0; i < termsInMatch.size(); i++) {
 			if (i > 0) {
 				cypher.append(", ");
 			}
-			cypher.append(termsInMatch.get(i));
-			
-//			if (useViewName == false) {
-//				cypher.append(termsInMatch.get(i).replace("${vn}", ""));
-//			} else {
-//				cypher.append(termsInMatch.get(i).replace("${vn}", " {view: \"" + from + "\"}"));
-//			}
+			cypher.append(termsInMatch.get(i).replace("${vn}", viewLabel));
 		}
-
-		if (useViewName == true) {
-			for (String s : nodeVarsInMatch) {
-				termsInWhere.add(s + ".view = \"" + from + "\"");	
-			}
+		for (int i = 0; i < termsInWhere.size(); i++) {
+			termsInWhere.set(i, termsInWhere.get(i).replace("${vn}", viewLabel));
 		}
 		if (useCreatedDestroyed == true) {
 			for (String s : varsInMatch) {
@@ -203,7 +237,7 @@ public class QueryToCypherParser extends GraphTransQueryBaseVisitor<Void> {
 						nodeVarToLabelMap.put(endpoint, Util.addQuotes(label));
 						term.append(":" + label);
 					}
-//					term.append("${vn}");
+					term.append("${vn}");
 					term.append(")");
 					varsInMatch.add(endpoint);
 					nodeVarsInMatch.add(endpoint);
@@ -223,7 +257,7 @@ public class QueryToCypherParser extends GraphTransQueryBaseVisitor<Void> {
 				if (termCtx.label() != null) {
 					String label = termCtx.label().getText();
 					term.append(":").append(label);
-//					term.append("${vn}");
+					term.append("${vn}");
 					nodeVarToLabelMap.put(var, Util.addQuotes(label));
 				} else {
 					throw new IllegalArgumentException("Single node[" + var + "] should have a label");	
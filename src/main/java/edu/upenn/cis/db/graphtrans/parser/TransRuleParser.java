@@ -125,6 +125,8 @@ public class TransRuleParser extends GraphTransQueryBaseVisitor<Void> {
 				String rvar = ctx.rop().var().getText();
 //				System.out.println("ctx.rop() rvar: " + rvar);
 				ParserHelper.processWhereCondition(var, lprop, op, rvar, true, transRule.getPatternMatch(), propertyAtoms, transRule.getVarsInWhereClause(), transRule.getWhereConditionForNeo4j());
+			} else if (ctx.rop().propValue().parameter() != null) {
+				throw new IllegalArgumentException("Parameters are supported only in prepared queries: " + ctx.rop().getText());
 			} else {
 				String val = ctx.rop().propValue().int_or_literal().getText();
 				ParserHelper.processWhereCondition(var, lprop, op, val, false,  transRule.getPatternMatch(), propertyAtoms, transRule.getVarsInWhereClause(), transRule.getWhereConditionForNeo4j());
@@ -43,6 +43,63 @@ public interface Store {
 
 	StoreResultSet getQueryResult(DatalogClause c);
 
+	/**
+	 * Stream the answer of a query to handler, skipping the first offset rows and
+	 * stopping after limit rows (limit < 0: no limit). Stores that cannot stream
+	 * materialize the answer first.
+	 */
+	default void getQueryResult(List<DatalogClause> cs, long limit, long offset, StoreRowHandler handler) {
+		StoreResultSet rs = getQueryResult(cs);
+		handler.setColumns(rs.getColumns());
+		long end = (limit < 0) ? Long.MAX_VALUE : offset + limit;
+		for (long i = offset; i < end && i < rs.getResultSet().size(); i++) {
+			if (handler.handle(rs.getResultSet().get((int)i)) == false) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Query of the store (e.g., SQL) for the rules, which the caller may cache and run with 
+	 * getQueryResultForNativeQuery(). Null if the store evaluates the rules itself.
+	 */
+	default String getNativeQuery(List<DatalogClause> cs) {
+		return null;
+	}
+
+	default StoreResultSet getQueryResultForNativeQuery(String nativeQuery) {
+		throw new UnsupportedOperationException("Native queries are not supported by " + getClass().getSimpleName());
+	}
+
+	default void getQueryResultForNativeQuery(String nativeQuery, long limit, long offset, StoreRowHandler handler) {
+		StoreResultSet rs = getQueryResultForNativeQuery(nativeQuery);
+		handler.setColumns(rs.getColumns());
+		long end = (limit < 0) ? Long.MAX_VALUE : offset + limit;
+		for (long i = offset; i < end && i < rs.getResultSet().size(); i++) {
+			if (handler.handle(rs.getResultSet().get((int)i)) == false) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Answer a native query with placeholders $1, $2, ... bound to params (Long or String) in order.
+	 */
+	default StoreResultSet getQueryResultForNativeQuery(String nativeQuery, List<Object> params) {
+		throw new UnsupportedOperationException("Parameterized native queries are not supported by " + getClass().getSimpleName());
+	}
+
+	default void getQueryResultForNativeQuery(String nativeQuery, List<Object> params, long limit, long offset, StoreRowHandler handler) {
+		StoreResultSet rs = getQueryResultForNativeQuery(nativeQuery, params);
+		handler.setColumns(rs.getColumns());
+		long end = (limit < 0) ? Long.MAX_VALUE : offset + limit;
+		for (long i = offset; i < end && i < rs.getResultSet().size(); i++) {
+			if (handler.handle(rs.getResultSet().get((int)i)) == false) {
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Get answer of a query
 	 */
@@ -72,6 +129,15 @@ public interface Store {
 
 	void addTuple(String rel, ArrayList<SimpleTerm> arrayList);
 
+	/**
+	 * Add tuples of a relation. Stores that can insert in batches override this.
+	 */
+	default void addTuples(String rel, List<ArrayList<SimpleTerm>> tuples) {
+		for (ArrayList<SimpleTerm> t : tuples) {
+			addTuple(rel, t);
+		}
+	}
+
 	long importFromCSV(String relName, String filePath);
 	
 	void debug();
@@ -2,7 +2,6 @@ package edu.upenn.cis.db.graphtrans.store;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -14,7 +13,9 @@ import com.logicblox.connect.BloxCommand.Column;
 import com.logicblox.connect.BloxCommand.Relation;
 
 import edu.upenn.cis.db.datalog.simpleengine.LongSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.LongTuple;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.StringDictionary;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 
@@ -27,10 +28,10 @@ public class StoreResultSet {
 		resultSet = new ArrayList<Tuple<SimpleTerm>>();
 	}
 	
-	public StoreResultSet(ArrayList<String> cols, HashSet<Tuple<SimpleTerm>> tuples) {
+	public StoreResultSet(ArrayList<String> cols, Iterable<LongTuple> tuples, StringDictionary dict) {
 		columns = cols;
 		resultSet = new ArrayList<Tuple<SimpleTerm>>();
-		resultSet.addAll(tuples);
+		setFromLongTuples(tuples, dict);
 	}
 
 	public ArrayList<Tuple<SimpleTerm>> getResultSet() {
@@ -40,6 +41,12 @@ public class StoreResultSet {
 	public void setFromPostgresResultSet() {
 	}
 
+	public void setFromLongTuples(Iterable<LongTuple> tuples, StringDictionary dict) {
+		for (LongTuple t : tuples) {
+			resultSet.add(t.toTuple(dict));
+		}
+	}
+
 	public void setFromLogicBloxRelation(Relation rel) {
 		List<Column> columns = rel.getColumnList();
 		int cols = columns.size();
@@ -0,0 +1,24 @@
+package edu.upenn.cis.db.graphtrans.store;
+
+import java.util.ArrayList;
+
+import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.Tuple;
+
+/**
+ * Callback receiving the rows of a query answer one at a time (see Store.getQueryResult),
+ * so that the answer does not have to be kept in memory.
+ */
+public interface StoreRowHandler {
+	/**
+	 * Called once with the column names before the first row.
+	 */
+	default void setColumns(ArrayList<String> columns) {
+	}
+
+	/**
+	 * @param row a row of the answer
+	 * @return false to stop retrieving the remaining rows
+	 */
+	boolean handle(Tuple<SimpleTerm> row);
+}
@@ -1,13 +1,16 @@
 package edu.upenn.cis.db.graphtrans.store.neo4j;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
 //import org.apache.commons.lang.NotImplementedException;
 import org.neo4j.graphdb.Result;
 
@@ -22,20 +25,30 @@ import edu.upenn.cis.db.graphtrans.GraphTransServer;
 import edu.upenn.cis.db.graphtrans.datastructure.TransRuleList;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.Neo4jGraph;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.OverlayViewNeo4jGraph;
+import edu.upenn.cis.db.graphtrans.graphdb.neo4j.ParallelIterate;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.TranslatorToCypher;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.TranslatorToCypher.Neo4jViewMode;
 import edu.upenn.cis.db.graphtrans.graphdb.neo4j.UpdatedViewNeo4jGraph;
+import edu.upenn.cis.db.graphtrans.parser.QueryToCypherParser;
 import edu.upenn.cis.db.graphtrans.store.Store;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
 import edu.upenn.cis.db.helper.Util;
+import reactor.util.function.Tuple4;
+import reactor.util.function.Tuples;
 
 public class Neo4jStore implements Store {
 	private Neo4jServerThread neo4jServer;
 	private Neo4jGraph neo4jgraph;
 
+	// CSV files queued for the offline import tool into the empty database (see importFromCSV)
+	private ArrayList<String> offlineNodeFiles = new ArrayList<String>();
+	private ArrayList<String> offlineEdgeFiles = new ArrayList<String>();
+	private String database = null; // in use
+
 	@Override
 	public void disconnect() {
 		// TODO Auto-generated method stub
+		flushOfflineImports();
 		Neo4jServerThread.getEdgeTriggers().clear();
 		
 		if (neo4jServer.isRunning() == true) {
@@ -125,6 +138,7 @@ public class Neo4jStore implements Store {
 		if (neo4jServer != null && neo4jServer.isRunning() == true) {
 			neo4jServer.shutDown();
 		}
+		clearOfflineImports();
 		
 		String dbdir = Config.get("neo4j.dbdir");
 		if (dbdir == null) {
@@ -144,7 +158,7 @@ public class Neo4jStore implements Store {
 	@Override
 	public boolean useDatabase(String name) {
 		// TODO Auto-generated method stub
-		String database = "neo4j"; // Neo4j community supports only 'neo4j' database(?)
+		database = name;
 		System.out.println("[startServer] database: " + database);
 		neo4jServer = new Neo4jServerThread(database);
 		neo4jServer.start();
@@ -168,21 +182,99 @@ public class Neo4jStore implements Store {
 	}
 	
 	public void getCountNodes() {
+		flushOfflineImports();
 		neo4jServer.getCountNodes();	
 	}
 
 
+	/**
+	 * Import nodes (N) or edges (E) from a CSV file. If neo4j.offline_import is true and the database
+	 * is empty, node files are queued and the offline import tool creates the database once from them
+	 * and the first edge file (or from the node files alone before any other operation on the store).
+	 * Otherwise the rows are inserted by parallel transactions.
+	 */
 	@Override
 	public long importFromCSV(String relName, String filePath) {
-		// TODO Auto-generated method stub
-//		if (relName.equals("N") == true) {
-//			neo4jServer.importNodesFromCSV(filePath);
-//		} else {
-//			neo4jServer.importEdgesFromCSV(filePath);
-//		}
-		System.out.println("[Neo4jStore] importFromCSV doesn't do anything, but it's okay for now.");
+		boolean isNode = relName.equalsIgnoreCase("N");
+		if (new File(filePath).exists() == false) {
+			Util.Console.errln("File Not Exists [" + filePath +"]"); 
+			return 0;
+		}
+		
+		if (isOfflineImportable() == true) {
+			if (isNode == true) {
+				offlineNodeFiles.add(filePath);
+				Util.Console.logln("[import] " + filePath + " is queued for the offline import with the first edge file");
+				return 0;
+			}
+			if (offlineNodeFiles.isEmpty() == true) {
+				throw new IllegalStateException("Cannot import edges from [" + filePath + "] into an empty database. Import the nodes first.");
+			}
+			offlineEdgeFiles.add(filePath);
+			importOffline();
+			return neo4jServer.getNumEdges();
+		}
+		
+		try {
+			if (isNode == true) {
+				return neo4jServer.importNodesFromCSV(filePath);
+			} else {
+				return neo4jServer.importEdgesFromCSV(filePath);
+			}
+		} catch (FileNotFoundException e) {
+			Util.Console.errln("File Not Exists [" + filePath +"]"); 
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read CSV file [" + filePath + "]", e);
+		}
 		return 0;
 	}
+
+	private boolean isOfflineImportable() {
+		String v = Config.get("neo4j.offline_import");
+		if (v != null && Boolean.parseBoolean(v.trim()) == false) {
+			return false;
+		}
+		if (Neo4jServerThread.getEdgeTriggers().isEmpty() == false) { // views are maintained on edge insertion
+			return false;
+		}
+		if (offlineNodeFiles.isEmpty() == false) {
+			return true;
+		}
+		return neo4jServer.getNumNodes() == 0 && neo4jServer.getNumEdges() == 0;
+	}
+
+	/**
+	 * Stop the server, create the database from offlineNodeFiles and offlineEdgeFiles, and reopen the
+	 * database in use. The import tool fails on an edge whose nodes are not in the files.
+	 */
+	private void importOffline() {
+		ArrayList<String> files = new ArrayList<String>(offlineNodeFiles);
+		files.addAll(offlineEdgeFiles);
+		neo4jServer.shutDown();
+		try {
+			Neo4jServerThread.importDatabase(offlineNodeFiles, offlineEdgeFiles);
+		} catch (IOException e) {
+			throw new IllegalStateException("Offline import of " + files + " failed: " + e.getMessage(), e);
+		} finally {
+			clearOfflineImports();
+			useDatabase(database);
+		}
+		Util.Console.logln("[import] " + neo4jServer.getNumNodes() + " node(s) and " + neo4jServer.getNumEdges() + " edge(s) from " + files);
+	}
+
+	/**
+	 * Import the queued node files (if any) before the database is used otherwise.
+	 */
+	private void flushOfflineImports() {
+		if (offlineNodeFiles.isEmpty() == false) {
+			importOffline();
+		}
+	}
+
+	private void clearOfflineImports() {
+		offlineNodeFiles.clear();
+		offlineEdgeFiles.clear();
+	}
 	
 	public boolean isServerRunning() {
 		if (neo4jServer == null) {
@@ -192,10 +284,16 @@ public class Neo4jStore implements Store {
 	}
 	
 	public void execute(String query) {
+		flushOfflineImports();
+		if (ParallelIterate.hasStats(query) == true) {
+			ParallelIterate.printStats(neo4jServer.execute(query, true));
+			return;
+		}
 		neo4jServer.execute(query, false);
 	}
 
 	public StoreResultSet query(String query) {
+		flushOfflineImports();
 		return neo4jServer.execute(query, true);
 	}
 
@@ -206,7 +304,7 @@ public class Neo4jStore implements Store {
 	@Override
 	public String getDBname() {
 		// TODO Auto-generated method stub
-		return null;
+		return database;
 	}
 
 	@Override
@@ -238,10 +336,11 @@ public class Neo4jStore implements Store {
 		// TODO Auto-generated method stub		
 		ArrayList<String> cypherRules;
 		
+		flushOfflineImports();
 		cypherRules = TranslatorToCypher.getCypherForCreateView(transRuleList);
 		for (String stmt : cypherRules) {
 			System.out.println("stmt: " + stmt);
-			neo4jServer.execute(stmt, false);
+			execute(stmt);
 		}	
 //		debug();
 	}
@@ -249,21 +348,59 @@ public class Neo4jStore implements Store {
 	public StoreResultSet getQueryResult(String query) {
 		System.out.println("[Neo4jStore] getQueryResult query: " + query);
 
-		String cypher = TranslatorToCypher.getCypherForQuery(query);
-		StoreResultSet rs = query(cypher);
+		ArrayList<Object> params = new ArrayList<Object>();
+		String cypher = getCypherForQuery(QueryToCypherParser.liftConstants(query, 1, params));
+		StoreResultSet rs = getQueryResultForNativeQuery(cypher, params);
 		
 		return rs;
 	}
 
+	public String getCypherForQuery(String query) {
+		return TranslatorToCypher.getCypherForQuery(query);
+	}
+
+	@Override
+	public StoreResultSet getQueryResultForNativeQuery(String cypher) {
+		return query(cypher);
+	}
+
+	@Override
+	public StoreResultSet getQueryResultForNativeQuery(String cypher, List<Object> params) {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < params.size(); i++) {
+			map.put(String.valueOf(i + 1), params.get(i));
+		}
+		flushOfflineImports();
+		return neo4jServer.execute(cypher, map, true);
+	}
+
 
 	@Override
 	public void addTuple(String rel, ArrayList<SimpleTerm> arrayList) {
 		// TODO Auto-generated method stub
+		ArrayList<ArrayList<SimpleTerm>> tuples = new ArrayList<ArrayList<SimpleTerm>>();
+		tuples.add(arrayList);
+		addTuples(rel, tuples);
+	}
+
+	/**
+	 * Add nodes or edges in transactions of many tuples (see Neo4jServerThread.addNodes/addEdges).
+	 */
+	@Override
+	public void addTuples(String rel, List<ArrayList<SimpleTerm>> tuples) {
+		flushOfflineImports();
 		if (rel.contentEquals(Config.relname_node + Config.relname_base_postfix) == true) {
-			neo4jServer.addNode(arrayList.get(0).getLong(), arrayList.get(1).getString());
+			ArrayList<Pair<Long, String>> nodes = new ArrayList<Pair<Long, String>>();
+			for (ArrayList<SimpleTerm> t : tuples) {
+				nodes.add(Pair.of(t.get(0).getLong(), t.get(1).getString()));
+			}
+			neo4jServer.addNodes(nodes);
 		} else if (rel.contentEquals(Config.relname_edge + Config.relname_base_postfix) == true) {
-			neo4jServer.addEdge(arrayList.get(0).getLong(), arrayList.get(1).getLong(), 
-								arrayList.get(2).getLong(), arrayList.get(3).getString());
+			ArrayList<Tuple4<Long, Long, Long, String>> edges = new ArrayList<Tuple4<Long, Long, Long, String>>();
+			for (ArrayList<SimpleTerm> t : tuples) {
+				edges.add(Tuples.of(t.get(0).getLong(), t.get(1).getLong(), t.get(2).getLong(), t.get(3).getString()));
+			}
+			neo4jServer.addEdges(edges);
 		} else {
 			Util.Console.errln("Only tuples for N and E can be inserted. [" + rel + "]");
 		}		
@@ -277,6 +414,7 @@ public class Neo4jStore implements Store {
 
 	@Override
 	public void debug() {
+		flushOfflineImports();
 		neo4jServer.execute("match (a) return a;", true);
 		neo4jServer.execute("match (a)-[e]->(b) return a,e,b;", true);
 	}
@@ -1,18 +1,18 @@
 package edu.upenn.cis.db.graphtrans.store.postgres;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.NotImplementedException;
 //import org.apache.commons.lang.NotImplementedException;
@@ -30,6 +30,7 @@ import edu.upenn.cis.db.datalog.simpleengine.IntegerSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.LongSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.graphtrans.GraphTransServer;
 import edu.upenn.cis.db.graphtrans.datastructure.TransRule;
@@ -37,6 +38,8 @@ import edu.upenn.cis.db.graphtrans.datastructure.TransRuleList;
 import edu.upenn.cis.db.graphtrans.graphdb.datalog.BaseRuleGen;
 import edu.upenn.cis.db.graphtrans.store.Store;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.graphtrans.store.StoreRowHandler;
+import edu.upenn.cis.db.graphtrans.typechecker.RuleDisjointnessCheck;
 import edu.upenn.cis.db.helper.Util;
 import edu.upenn.cis.db.postgres.Postgres;
 
@@ -53,9 +56,11 @@ public class PostgresStore implements Store {
 	private String pg_password;
 	
 	private boolean useInnerJoin = false;
+	private ConcurrentHashMap<String, ArrayList<Integer>> unionAllRules = new ConcurrentHashMap<String, ArrayList<Integer>>();
+	private HashSet<String> labelPartitions = new HashSet<String>(); // dbname.partition already handled
 	
 	
-	public Postgres getPostgres(String name) {
+	public synchronized Postgres getPostgres(String name) {
 		name = name.toLowerCase();
 		if (postgres.containsKey(name) == false) {
 			Postgres pg = new Postgres();
@@ -77,6 +82,12 @@ public class PostgresStore implements Store {
 			isBaseRels = true;
 		}
 		
+		// N_g and E_g are partitioned by label (a partition per label of the schema, see addLabelPartition)
+		int labelCol = -1;
+		if (isBaseRels == true && getPostgres(dbname).isPartitionByLabel() == true) {
+			labelCol = p.getArgNameList().indexOf("label");
+		}
+		
 		str.append("CREATE TABLE IF NOT EXISTS ").append(name).append(" (");
 		for (int i = 0; i < p.getArgNameList().size(); i++) {			
 			String type = "INT DEFAULT 0";
@@ -90,24 +101,79 @@ public class PostgresStore implements Store {
 				str.append(", ");
 			}
 		}
+		if (labelCol >= 0) {
+			str.append(" PARTITION BY LIST (_").append(labelCol).append(")");
+		}
 		
 //		System.out.println(str);
 //		Postgres pg = getPostgres(dbname);
 //		System.out.println("pg: " + pg + " ==> dbname: " + dbname + " postgres: " + postgres);
 		
 		getPostgres(dbname).executeUpdate(str.toString());
+		if (labelCol >= 0) { // for labels not in the schema
+			getPostgres(dbname).executeUpdate("CREATE TABLE IF NOT EXISTS \"" + name + "__default\" PARTITION OF " + name + " DEFAULT");
+		}
 
 		if (isBaseRels == true) {
+			// ids are unique (a partitioned table cannot have a unique index without its partition key)
+			if (labelCol < 0) {
+				getPostgres(dbname).executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS " + name + "__id ON " + name + " (_0)");
+			}
+			getPostgres(dbname).resetUniqueIds();
 			for (int i = 0; i < p.getArgNameList().size(); i++) {
+				if (i == 0 && labelCol < 0) { // the unique index
+					continue;
+				}
 				indexes.clear();
 				indexes.add(i);
 				
 				addTableIndex(name, indexes);
 			}
+			if (labelCol >= 0) { // (label, id), (label, from), (label, to)
+				for (int i = 0; i < p.getArgNameList().size(); i++) {
+					if (i != labelCol) {
+						indexes.clear();
+						indexes.add(labelCol);
+						indexes.add(i);
+						
+						addTableIndex(name, indexes);
+					}
+				}
+			}
 		}
 
 	}
 
+	/**
+	 * Create the partition of N_g or E_g for a label added to the schema, moving the rows of
+	 * the label from the default partition. Nothing is done if the table is not partitioned 
+	 * or the partition exists. The label is escaped as an identifier and as a literal.
+	 */
+	private void addLabelPartition(String name, int labelCol, String label) {
+		if (label.contains("$$") == true) { // would end the DO body
+			throw new IllegalArgumentException("Label [" + label + "] cannot contain $$");
+		}
+		String partition = "\"" + (name + "__" + label).replace("\"", "\"\"") + "\"";
+		synchronized (labelPartitions) {
+			if (labelPartitions.add(dbname + "." + partition) == false) {
+				return;
+			}
+		}
+		String value = "'" + label.replace("'", "''") + "'";
+		StringBuilder str = new StringBuilder();
+		str.append("DO $$ BEGIN\n")
+			.append("IF EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('").append(name).append("'))")
+			.append(" AND to_regclass('").append(partition.replace("'", "''")).append("') IS NULL THEN\n")
+			.append("CREATE TABLE ").append(partition).append(" (LIKE ").append(name).append(" INCLUDING DEFAULTS);\n")
+			.append("WITH moved AS (DELETE FROM \"").append(name).append("__default\" WHERE _").append(labelCol).append(" = ").append(value)
+			.append(" RETURNING *) INSERT INTO ").append(partition).append(" SELECT * FROM moved;\n")
+			.append("ALTER TABLE ").append(name).append(" ATTACH PARTITION ").append(partition)
+			.append(" FOR VALUES IN (").append(value).append(");\n")
+			.append("END IF;\n")
+			.append("END $$;");
+		getPostgres(dbname).executeUpdate(str.toString());
+	}
+
 	@Override
 	public void addTableIndex(String name, ArrayList<Integer> cols) {
 		int tid = Util.startTimer();
@@ -132,7 +198,7 @@ public class PostgresStore implements Store {
 		.append(")");
 
 		System.out.println("[PostgresStore] index: " + str);
-		postgres.get(dbname).executeUpdate(str.toString());
+		getPostgres(dbname).executeUpdate(str.toString());
 //		System.out.println("[ADD INDEX 2] str: " + str.toString() + " Time: " + Util.getElapsedTime(tid));
 	}
 	
@@ -159,36 +225,33 @@ public class PostgresStore implements Store {
 		.append(")");
 
 //		System.out.println("[ADD INDEX] str: " + str.toString());
-		postgres.get(dbname).executeUpdate(str.toString());
+		getPostgres(dbname).executeUpdate(str.toString());
 
 	}
 
 	@Override
 	public void addTuple(String rel, ArrayList<SimpleTerm> a) {
-		StringBuilder str = new StringBuilder();
-
-		str.append("INSERT INTO ").append(rel);
-
-		str.append(" VALUES (");
-		for (int i = 0; i < a.size(); i++) {
-			if (i > 0) {
-				str.append(", ");
-			}
-			if (a.get(i) instanceof StringSimpleTerm) {
-				str.append("'").append(a.get(i).getString()).append("'");
-			} else if (a.get(i) instanceof LongSimpleTerm){
-				str.append(a.get(i).getLong());
-			} else if (a.get(i) instanceof IntegerSimpleTerm){
-				str.append(a.get(i).getInt());
+		// buffered and written in batches (flushed before the next statement on the connection)
+		getPostgres(dbname).insert(rel, a);
+
+		if (getPostgres(dbname).isPartitionByLabel() == true) {
+			if (rel.contentEquals(Config.relname_node_schema) == true) { // (label)
+				addLabelPartition(Config.relname_node + Config.relname_base_postfix, 1, a.get(0).getString());
+			} else if (rel.contentEquals(Config.relname_edge_schema) == true) { // (from, to, label)
+				addLabelPartition(Config.relname_edge + Config.relname_base_postfix, 3, a.get(2).getString());
 			}
 		}
-		str.append(");");
-//		System.out.println("addTuple: " + str);
-		postgres.get(dbname).executeUpdate(str.toString());
-		// TODO Auto-generated method stub
 	}
 
 	public String getSqlForDatalogClause(DatalogClause c) {
+		return getSqlForDatalogClause(c, null);
+	}
+
+	/**
+	 * @param skolems if not null, Skolem terms are selected as their inputs (ARRAY[...]) instead of 
+	 * GENNEWID_CONST(...), and alias to view rule id of each is put here.
+	 */
+	private String getSqlForDatalogClause(DatalogClause c, HashMap<String, String> skolems) {
 		/*
 		 * 1. Create a query with (multiple) join(s) from positive IDBs and interpreted atoms
 		 * 2. For each negative atom, augment the query with EXCEPT or LEFT JOIN 
@@ -208,7 +271,7 @@ public class PostgresStore implements Store {
 		System.out.println("ccccc: " + c);
 		handlePostiveAtoms(c, varBindings, substituteVarByVar, wheres, tables);
 		handleInterpretedAtoms(c, varBindings, substituteVarByVar, wheres, varOnlyInInterpretedAtoms); 
-		handleHeadAtom(c, varBindings, substituteVarByVar, selects, varOnlyInInterpretedAtoms);
+		handleHeadAtom(c, varBindings, substituteVarByVar, selects, varOnlyInInterpretedAtoms, skolems);
 		handleNegativeAtoms(c, str, varBindings, selects, tables, wheres, leftjoinTables);
 
 //		System.out.println("[getSqlForDatalogClause] str: " + str);
@@ -568,7 +631,7 @@ public class PostgresStore implements Store {
 
 	private void handleHeadAtom(DatalogClause c, HashMap<String, ArrayList<Pair<Integer, Integer>>> varBindings,
 			HashMap<String, String> substituteVarByVar, ArrayList<String> selects,
-			HashMap<String, String> varOnlyInInterpretedAtoms) {
+			HashMap<String, String> varOnlyInInterpretedAtoms, HashMap<String, String> skolems) {
 		
 		Atom head = c.getHead();
 		int size1 = head.getTerms().size();
@@ -637,6 +700,10 @@ public class PostgresStore implements Store {
 						
 						String udf_arg = udfAtom.getRelName().replace(Config.relname_gennewid + "_MAP_", "");
 						String select_udf = Config.relname_gennewid + "_CONST('" + udf_arg + "', VARIADIC Array[";
+						if (skolems != null) {
+							select_udf = "(Array[";
+							skolems.put("_" + i, udf_arg);
+						}
 						
 						for (int j = 0; j < udfAtom.getTerms().size()-1; j++) {
 							if (j > 0) {
@@ -728,7 +795,7 @@ public class PostgresStore implements Store {
 			}
 			
 			System.out.println("[###PGIVM] query: " + query);
-			postgres.get(dbname).executeUpdate(query);
+			getPostgres(dbname).executeUpdate(query);
 		}
 		
 		for (int i = 0; i < cs.size(); i++) {
@@ -782,7 +849,7 @@ public class PostgresStore implements Store {
 				}
 				query += ");";				
 //				System.out.println("[###PGIVM] query: " + query);
-				postgres.get(dbname).executeUpdate(query);
+				getPostgres(dbname).executeUpdate(query);
 			}
 			
 			if (Config.isUseIVM() == true && isMaterialized == true && name1.startsWith("MATCH_") == false) {
@@ -796,7 +863,7 @@ public class PostgresStore implements Store {
 					dropStmt += "MATERIALIZED ";
 				}
 				dropStmt += "VIEW IF EXISTS " + name1 + " CASCADE";
-				postgres.get(dbname).executeUpdate(dropStmt);
+				getPostgres(dbname).executeUpdate(dropStmt);
 				
 				str.append("CREATE ");
 				if (isMaterialized == true) {
@@ -804,19 +871,28 @@ public class PostgresStore implements Store {
 				}
 				str.append("VIEW ").append(name1).append(" AS (");
 			}
+			boolean isTrigger = Config.isUseIVM() == true && isMaterialized == true && name1.startsWith("INDEX_") == true && name1.endsWith("_NP") == false;
+			ArrayList<DatalogClause> cs1 = new ArrayList<DatalogClause>();
+			ArrayList<String> subQueries = new ArrayList<String>();
+			ArrayList<String> staged = new ArrayList<String>();
 			for (int i = 0; i < relToIndexes.get(name1).size(); i++) {
 				DatalogClause c = cs.get(relToIndexes.get(name1).get(i));
 //				System.out.println(Util.GREEN_BACKGROUND + "[PGStore-createView] cs[" + i + "]: " + c + Util.ANSI_RESET);		
 
-				if (i > 0) {
-					str.append(" UNION ");
+				String subQuery;
+				// the trigger body runs later on new edges, so it cannot read a table staged now
+				if (isMaterialized == true && isTrigger == false && getPostgres(dbname).isBulkSkolem() == true) {
+					subQuery = getSqlForSkolemRule(c, name1 + "_Q" + i, staged);
+				} else {
+					subQuery = getSqlForDatalogClause(c);
 				}
-				String subQuery = getSqlForDatalogClause(c);
-				str.append("(").append(subQuery).append(")");
+				cs1.add(c);
+				subQueries.add(subQuery);
 			}
+			str.append(getSqlForUnion(name1, cs1, subQueries));
 			str.append(");");
 
-			if (Config.isUseIVM() == true && isMaterialized == true && name1.startsWith("INDEX_") == true && name1.endsWith("_NP") == false) {
+			if (isTrigger == true) {
 				System.out.println("[###PGIVM] create trigger body add... with " + name1);
 
 				String eids = "";
@@ -824,15 +900,19 @@ public class PostgresStore implements Store {
 					if (eids.contentEquals("") == false) {
 						eids += "OR ";
 					}
-					eids += "R" + p + "._0 = NEW._0 ";
+					eids += "R" + p + "._0 IN (SELECT _0 FROM new_edges) ";
 				}
 				String addedWhereOr = str.toString().replace(" WHERE ", " WHERE (" + eids + ") AND ");
 				ssr_trigger += addedWhereOr + "\n";
 			} else {
 	//			int tid = Util.startTimer();
 				System.out.println("[PostgresStore] createView413: " + str.toString());
-				postgres.get(dbname).executeUpdate(str.toString());
+				getPostgres(dbname).executeUpdate(str.toString());
 	//			System.out.println("[**] tid: " + Util.getElapsedTime(tid) + " queryName: " + name1);
+				// the view keeps its own copy of the rows; the staged tables stay only as its dependencies
+				for (String table : staged) {
+					getPostgres(dbname).executeUpdate("TRUNCATE " + table);
+				}
 			}
 		}
 		
@@ -849,20 +929,66 @@ public class PostgresStore implements Store {
 			
 			System.out.println("[###PGIVM] create trigger register trigger_ssr_function: \n" + trigger_ssr_function);
 			
-			String trigger_ssr_creation = "CREATE TRIGGER ivm_ssr_insert\n" + 
-					"AFTER INSERT ON e_g\n" + 
-					"\tFOR EACH ROW\n" +
-					"\tEXECUTE FUNCTION process_ssr_edge_insertion();\n";
-
 			getPostgres(dbname).executeUpdate(trigger_ssr_function);
-			System.out.println("===========trigger_node_function");
-			getPostgres(dbname).executeUpdate(trigger_ssr_creation);
-			System.out.println("===========trigger_node_creation");
+			createStatementTrigger("ivm_ssr_insert", "INSERT", Config.relname_edge + Config.relname_base_postfix, 
+					"NEW TABLE AS new_edges", "process_ssr_edge_insertion");
 						
 		}
 		
 	}
 	
+	/**
+	 * SQL of a rule with Skolem terms (GENNEWID_MAP_ atoms) for materializing a view. The rule is
+	 * evaluated once into the table named table (added to staged), the ids of all Skolem inputs are
+	 * assigned from it by one INSERT ... ON CONFLICT into GENNEWID_MAP, and then the returned SQL joins
+	 * the table with GENNEWID_MAP instead of calling GENNEWID_CONST for each row. The caller truncates
+	 * the staged tables after running the SQL.
+	 */
+	private String getSqlForSkolemRule(DatalogClause c, String table, ArrayList<String> staged) {
+		HashMap<String, String> skolems = new LinkedHashMap<String, String>();
+		String sql = getSqlForDatalogClause(c, skolems);
+		if (skolems.isEmpty() == true) {
+			return sql;
+		}
+		String gennewid = Config.relname_gennewid + "_MAP";
+		
+		// a pooled connection runs each update, so a TEMP table would not be seen by the next one
+		getPostgres(dbname).executeUpdate("DROP TABLE IF EXISTS " + table + " CASCADE");
+		getPostgres(dbname).executeUpdate("CREATE UNLOGGED TABLE " + table + " AS " + sql);
+		staged.add(table);
+
+		String assign = "INSERT INTO " + gennewid + " (VIEWRULEID, INPUTS)\n";
+		int k = 0;
+		for (Entry<String, String> e : skolems.entrySet()) {
+			if (k > 0) {
+				assign += "UNION ";
+			}
+			assign += "SELECT DISTINCT '" + e.getValue() + "', Q." + e.getKey() + " FROM " + table + " AS Q\n";
+			k++;
+		}
+		assign += "ON CONFLICT (VIEWRULEID, INPUTS) DO NOTHING;";
+		getPostgres(dbname).executeUpdate(assign);
+
+		// ids not assigned above (e.g., base tables changed since) still come from GENNEWID_CONST
+		String select = "";
+		String join = "";
+		for (int i = 0; i < c.getHead().getTerms().size(); i++) {
+			String alias = "_" + i;
+			if (i > 0) {
+				select += ", ";
+			}
+			if (skolems.containsKey(alias) == true) {
+				String rule = skolems.get(alias);
+				String g = "G" + i;
+				select += "COALESCE(" + g + ".NEWID, " + Config.relname_gennewid + "_CONST('" + rule + "', VARIADIC Q." + alias + ")) AS " + alias;
+				join += " LEFT JOIN " + gennewid + " AS " + g + " ON " + g + ".VIEWRULEID = '" + rule + "' AND " + g + ".INPUTS = Q." + alias;
+			} else {
+				select += "Q." + alias;
+			}
+		}
+		return "SELECT " + select + " FROM " + table + " AS Q" + join;
+	}
+	
 	private void createView(List<DatalogClause> cs, boolean isMaterialized) {
 		StringBuilder str = new StringBuilder();
 		for (int i = 0; i < cs.size(); i++) {
@@ -882,32 +1008,219 @@ public class PostgresStore implements Store {
 			str.append(");");
 	
 			System.out.println("[PostgresStore] createView2: " + str.toString());
-			postgres.get(dbname).executeUpdate(str.toString());
+			getPostgres(dbname).executeUpdate(str.toString());
 		}
 	}
 
-	@Override
-	public StoreResultSet getQueryResult(List<DatalogClause> cs) {
-		String name = cs.get(0).getHead().getPredicate().getRelName();
-		
+	/**
+	 * Union of the SQL of rules with the same head. The rules proven to derive disjoint tuples without
+	 * duplicates (see RuleDisjointnessCheck) are added by UNION ALL, and the others by UNION.
+	 */
+	private String getSqlForUnion(String name, List<DatalogClause> cs, List<String> subQueries) {
+		ArrayList<Integer> disjoint = new ArrayList<Integer>();
+		if (cs.size() > 1 && getPostgres(dbname).isUnionAll() == true) {
+			disjoint = RuleDisjointnessCheck.getDisjointRules(cs);
+		}
+		unionAllRules.put(name, disjoint);
+		if (disjoint.isEmpty() == true) {
+			StringBuilder str = new StringBuilder();
+			for (int i = 0; i < subQueries.size(); i++) {
+				if (i > 0) {
+					str.append(" UNION ");
+				}
+				str.append("(").append(subQueries.get(i)).append(")");
+			}
+			return str.toString();
+		}
+		logger.debug("[PostgresStore] UNION ALL for rules " + disjoint + " of " + name);
+
+		StringBuilder str = new StringBuilder();
+		int numOthers = 0;
+		int other = -1;
+		for (int i = 0; i < subQueries.size(); i++) {
+			if (disjoint.contains(i) == false) {
+				if (numOthers > 0) {
+					str.append(" UNION ");
+				}
+				str.append("(").append(subQueries.get(i)).append(")");
+				numOthers++;
+				other = i;
+			}
+		}
+		if (numOthers == 1 && RuleDisjointnessCheck.isDuplicateFree(cs.get(other)) == false) {
+			// a single rule is not de-duplicated by UNION
+			str = new StringBuilder("(SELECT DISTINCT * FROM (" + subQueries.get(other) + ") AS D)");
+		}
+		for (int i : disjoint) {
+			if (str.length() > 0) {
+				str.append(" UNION ALL ");
+			}
+			str.append("(").append(subQueries.get(i)).append(")");
+		}
+		return str.toString();
+	}
+
+	/**
+	 * @return indexes of the rules of the relation (in the order of the head) combined by UNION ALL when its SQL was made
+	 */
+	public ArrayList<Integer> getUnionAllRules(String name) {
+		return unionAllRules.get(name);
+	}
+
+	private String getSqlForQuery(List<DatalogClause> cs) {
 		StringBuilder str = new StringBuilder();
 
 		str.append("(");
+		ArrayList<String> subQueries = new ArrayList<String>();
 		for (int i = 0; i < cs.size(); i++) {
-			if (i > 0) {
-				str.append(" UNION ");
-			}
 //			System.out.println(Util.YELLOW_BACKGROUND + "[runQuery] cs: " + cs.get(i) + Util.ANSI_RESET);
-			String subQuery = getSqlForDatalogClause(cs.get(i));
-			str.append("(").append(subQuery).append(")");
+			subQueries.add(getSqlForDatalogClause(cs.get(i)));
 		}
-		str.append(");");
+		String name = (cs.size() > 0) ? cs.get(0).getHead().getRelName() : "";
+		str.append(getSqlForUnion(name, cs, subQueries));
+		str.append(")");
 		System.out.println("[runQuery] dbname: " + dbname + " str: " + str.toString());
 
-		StoreResultSet rs = getPostgres(dbname).select(str.toString());
+		return str.toString();
+	}
+
+	@Override
+	public StoreResultSet getQueryResult(List<DatalogClause> cs) {
+		return getQueryResultForNativeQuery(getSqlForQuery(cs));
+	}	
+
+	@Override
+	public void getQueryResult(List<DatalogClause> cs, long limit, long offset, StoreRowHandler handler) {
+		getQueryResultForNativeQuery(getSqlForQuery(cs), limit, offset, handler);
+	}
+
+	@Override
+	public String getNativeQuery(List<DatalogClause> cs) {
+		return getSqlForQuery(cs);
+	}
+
+	@Override
+	public StoreResultSet getQueryResultForNativeQuery(String sql) {
+		StoreResultSet rs = getPostgres(dbname).select(sql + ";");
 		
 		return rs;
-	}	
+	}
+
+	@Override
+	public void getQueryResultForNativeQuery(String sql, long limit, long offset, StoreRowHandler handler) {
+		StringBuilder str = new StringBuilder(sql);
+		if (limit >= 0) {
+			str.append(" LIMIT ").append(limit);
+		}
+		if (offset > 0) {
+			str.append(" OFFSET ").append(offset);
+		}
+		str.append(";");
+		getPostgres(dbname).select(str.toString(), handler);
+	}
+
+	@Override
+	public StoreResultSet getQueryResultForNativeQuery(String sql, List<Object> params) {
+		StoreResultSet result = new StoreResultSet();
+		getQueryResultForNativeQuery(sql, params, -1, 0, new StoreRowHandler() {
+			@Override
+			public void setColumns(ArrayList<String> columns) {
+				result.getColumns().addAll(columns);
+			}
+
+			@Override
+			public boolean handle(Tuple<SimpleTerm> row) {
+				result.getResultSet().add(row);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public void getQueryResultForNativeQuery(String sql, List<Object> params, long limit, long offset, StoreRowHandler handler) {
+		ArrayList<Object> values = new ArrayList<Object>();
+		StringBuilder str = new StringBuilder(getSqlWithPlaceholders(sql, params, values));
+		if (limit >= 0) {
+			str.append(" LIMIT ").append(limit);
+		}
+		if (offset > 0) {
+			str.append(" OFFSET ").append(offset);
+		}
+		str.append(";");
+		getPostgres(dbname).select(str.toString(), values, handler);
+	}
+
+	/**
+	 * Replace $1, $2, ... of the SQL (also '$1' when a parameter was quoted as a constant
+	 * in the select list) by JDBC ? placeholders, and add the values of the ?s to values in order.
+	 * Other string literals ('' is an escaped quote) are copied as they are.
+	 */
+	static String getSqlWithPlaceholders(String sql, List<Object> params, ArrayList<Object> values) {
+		StringBuilder str = new StringBuilder();
+		int i = 0;
+		while (i < sql.length()) {
+			char c = sql.charAt(i);
+			if (c == '$') {
+				int end = getParamEnd(sql, i);
+				if (end > 0) {
+					addParam(sql.substring(i + 1, end), params, values);
+					str.append('?');
+					i = end;
+					continue;
+				}
+			} else if (c == '\'') {
+				int end = getParamEnd(sql, i + 1);
+				if (end > 0 && end < sql.length() && sql.charAt(end) == '\''
+						&& (end + 1 >= sql.length() || sql.charAt(end + 1) != '\'')) { // '$n'
+					addParam(sql.substring(i + 2, end), params, values);
+					str.append('?');
+					i = end + 1;
+					continue;
+				}
+				int j = i + 1;
+				while (j < sql.length()) {
+					if (sql.charAt(j) == '\'') {
+						if (j + 1 < sql.length() && sql.charAt(j + 1) == '\'') {
+							j += 2;
+							continue;
+						}
+						j++;
+						break;
+					}
+					j++;
+				}
+				str.append(sql, i, j);
+				i = j;
+				continue;
+			}
+			str.append(c);
+			i++;
+		}
+		return str.toString();
+	}
+
+	/**
+	 * @return end of the digits after the $ at start (-1 if it is not a parameter)
+	 */
+	private static int getParamEnd(String sql, int start) {
+		if (start >= sql.length() || sql.charAt(start) != '$') {
+			return -1;
+		}
+		int end = start + 1;
+		while (end < sql.length() && Character.isDigit(sql.charAt(end)) == true) {
+			end++;
+		}
+		return (end > start + 1) ? end : -1;
+	}
+
+	private static void addParam(String number, List<Object> params, ArrayList<Object> values) {
+		int n = Integer.parseInt(number);
+		if (n < 1 || n > params.size()) {
+			throw new IllegalArgumentException("No value for parameter $" + n + " #params: " + params.size());
+		}
+		values.add(params.get(n - 1));
+	}
 
 	@Override
 	public StoreResultSet getQueryResult(DatalogClause c) {
@@ -1036,10 +1349,23 @@ public class PostgresStore implements Store {
 		name = name.toLowerCase();
 		
 		String sql = "DISCARD ALL";
-		postgres.get(dbname).executeUpdate(sql);
+		getPostgres(dbname).executeUpdate(sql);
 		System.out.println("[PostgresStore] DISCARD ALL");
 		
-		
+		// close our own pooled connections to it before terminating the others
+		synchronized (this) {
+			Postgres pg = postgres.remove(name);
+			if (pg != null) {
+				pg.disconnect();
+			}
+		}
+		synchronized (labelPartitions) {
+			for (Iterator<String> it = labelPartitions.iterator(); it.hasNext();) {
+				if (it.next().startsWith(name + ".") == true) {
+					it.remove();
+				}
+			}
+		}
 		ResultSet rs = getPostgres(default_dbname).getResultSetFromSelect("SELECT pg_terminate_backend (pid) FROM pg_stat_activity WHERE pg_stat_activity.datname = '" + name + "'");
 		
 		return getPostgres(default_dbname).dropDatabase(name);
@@ -1104,7 +1430,7 @@ public class PostgresStore implements Store {
 		
 		for (int i = 0; i < stmts.size(); i++) {
 //			System.out.println("[Initialize] " + stmts.get(i));
-			postgres.get(dbname).executeUpdate(stmts.get(i));
+			getPostgres(dbname).executeUpdate(stmts.get(i));
 		}
 	}
 
@@ -1192,196 +1518,298 @@ public class PostgresStore implements Store {
 			}
 //		}	
 		
-			if (transRuleList.getViewType().contentEquals("virtual") == true || transRuleList.getViewType().contentEquals("asr") == true) {
-				return;
-			}
+		if (transRuleList.getViewType().contentEquals("virtual") == true || transRuleList.getViewType().contentEquals("asr") == true) {
+			return;
+		}
+		if (Config.isUseIVM() == false) { // MAP, N', E' are materialized views here, not tables
+			return;
+		}
 			
-		System.out.println("[createView] Add trigger on insertion....");
-		
-		String trigger_node_function = "CREATE OR REPLACE FUNCTION process_ivm_node_insertion() RETURNS TRIGGER AS $ivm_node_insert$\n" + 
-				"DECLARE\n" +
-				"BEGIN\n" +
-				"\tINSERT INTO n_v0 (_0, _1) VALUES (NEW._0, NEW._1);\n" +
-				"\tRETURN NULL; -- result is ignored since this is an AFTER trigger\n" +
-				"END;\n" + 
-				"$ivm_node_insert$ LANGUAGE plpgsql;";
-//		getPostgres(dbname).executeUpdate("DROP TRIGGER IF EXISTS ivm_node_insert ON n_g;");
-		
-		StoreResultSet rs = getPostgres(dbname).select("SELECT version();");
-		System.out.println("rsrs: " + rs.getResultSet());
-		
-		String trigger_node_creation = "CREATE TRIGGER ivm_node_insert\n" + 
-				"AFTER INSERT ON n_g\n" + 
-				"\tFOR EACH ROW\n" +
-				"\tEXECUTE FUNCTION process_ivm_node_insertion();\n";
+		System.out.println("[createView] Add triggers on insertion and deletion....");
+		createIvmTriggers(p, transRuleList);
+	}
 
-		if (transRuleList.getViewType().equals("materialized") == true) {
+	/**
+	 * Statement-level triggers on N_g and E_g keeping MAP (and N', E' of a materialized view) up to date.
+	 * Each INSERT/DELETE statement is handled once as a set through its transition table.
+	 */
+	private void createIvmTriggers(DatalogProgram p, TransRuleList transRuleList) {
+		String viewname = transRuleList.getViewName();
+		boolean isMaterialized = transRuleList.getViewType().contentEquals("materialized");
+		boolean isDefaultMap = transRuleList.isDefaultMap();
+		String n0 = Config.relname_node + Config.relname_base_postfix;
+		String e0 = Config.relname_edge + Config.relname_base_postfix;
+		String n1 = Config.relname_node + "_" + viewname;
+		String e1 = Config.relname_edge + "_" + viewname;
+		String map = Config.relname_mapping + "_" + viewname;
+		String temp = "map_temp_" + viewname;
+
+		// 1. node insertion: new nodes are in N' unless they are mapped (they can't be mapped yet)
+		if (isMaterialized == true && isDefaultMap == true) {
+			String trigger_node_function = "CREATE OR REPLACE FUNCTION process_ivm_node_insertion_" + viewname + "() RETURNS TRIGGER AS $ivm_node_insert$\n" + 
+					"BEGIN\n" +
+					"\tINSERT INTO " + n1 + " (_0, _1) SELECT n._0, n._1 FROM new_nodes AS n\n" +
+					"\t\tWHERE NOT EXISTS (SELECT 1 FROM " + n1 + " AS v WHERE v._0 = n._0);\n" +
+					"\tRETURN NULL; -- result is ignored since this is an AFTER trigger\n" +
+					"END;\n" + 
+					"$ivm_node_insert$ LANGUAGE plpgsql;";
 			getPostgres(dbname).executeUpdate(trigger_node_function);
-			System.out.println("===========trigger_node_function");
-			getPostgres(dbname).executeUpdate(trigger_node_creation);
-			System.out.println("===========trigger_node_creation");
+			createStatementTrigger("ivm_node_insert_" + viewname, "INSERT", n0, "NEW TABLE AS new_nodes", "process_ivm_node_insertion_" + viewname);
 		}
-		
-		HashSet<String> headVars = new HashSet<String>();
-		for (int i = 0; i < transRuleList.getTransRuleList().size(); i++) {
-			String viewname = transRuleList.getViewName();
-			String matchname = "MATCH_" + viewname + "_" + i;
-			
-			DatalogClause dc_match = p.getRules(matchname).get(0);
-			headVars.addAll(dc_match.getHead().getVars());
-		}
-		// TODO: declare integer variables
-		System.out.println("[createView] headVars: " + headVars);
-
-		String trigger_edge_function = "CREATE OR REPLACE FUNCTION process_ivm_edge_insertion() RETURNS TRIGGER AS $ivm_edge_insert$\n" + 
-				"DECLARE\n";
-//		+ 
-//				"        -- variables below depend on rule used.\n";
-//		for (String v : headVars) {
-//			trigger_edge_function += "\t" + v + " integer;\n";
-//		}
-		trigger_edge_function += "\t-- variables below are default variables\n" +
-				"	cnt integer;\n" +
-				"	curs record;\n" +
-			"BEGIN\n" + 
-			"DROP TABLE IF EXISTS map_temp;\n" +
-			"CREATE TEMPORARY TABLE map_temp (\n" +
-            "	_0      integer NOT NULL,\n" +
-            "	_1      varchar(16) NOT NULL,\n" +
-            "	_2      integer NOT NULL,\n" +
-            "	_3      varchar(16) NOT NULL\n" + 
-        	");\n";
-		String viewname = transRuleList.getViewName();
+
+		// 2. edge insertion: join the inserted edges with each MATCH pattern once
+		String trigger_edge_function = "CREATE OR REPLACE FUNCTION process_ivm_edge_insertion_" + viewname + "() RETURNS TRIGGER AS $ivm_edge_insert$\n" + 
+				"BEGIN\n" + 
+				"\tCREATE TEMPORARY TABLE IF NOT EXISTS " + temp + " (\n" +
+				"\t\t_0      integer NOT NULL,\n" +
+				"\t\t_1      varchar(16) NOT NULL,\n" +
+				"\t\t_2      integer NOT NULL,\n" +
+				"\t\t_3      varchar(16) NOT NULL\n" + 
+				"\t);\n" +
+				"\tTRUNCATE " + temp + ";\n";
 
 		for (int i = 0; i < transRuleList.getTransRuleList().size(); i++) {
 			TransRule tr = transRuleList.getTransRuleList().get(i);
-			System.out.println("[createview] viewname: " + viewname);
-			String mapname = "MAP_" + viewname;
-			String matchname = "MATCH_" + viewname + "_" + i;
-			
-			DatalogClause dc_match = p.getRules(matchname).get(0);
-			
-			HashSet<String> matchHeadVars = dc_match.getHead().getVars();
-			HashMap<String, Integer> mapVarToIdx = new HashMap<String, Integer>();
-			
-			int k = 0;
-			for (String v : matchHeadVars) {
-				mapVarToIdx.put(v,  k);
-				k++;
-			}
-			
-			ArrayList<Integer> matchEdgeRels = new ArrayList<Integer>();
+			DatalogClause dc_match = p.getRules(Config.relname_match + "_" + viewname + "_" + i).get(0);
+
+			String where_eid = "";
 			for (int j = 0; j < dc_match.getBody().size(); j++) {
 				Atom a = dc_match.getBody().get(j);
-				if (a.getRelName().startsWith("E") == true) {
-					matchEdgeRels.add(j);
+				if (a.isNegated() == false && a.getRelName().startsWith(Config.relname_edge + "_") == true) {
+					if (where_eid.contentEquals("") == false) {
+						where_eid += " OR ";
+					}
+					where_eid += "R" + j + "._0 IN (SELECT _0 FROM new_edges)";
 				}
 			}
-			
-			System.out.println("[createView] print dc_match: " + dc_match);
-			String sql = getSqlForDatalogClause(dc_match);
-			System.out.println("[createView] print p: " + sql);
-//			String into_vars = "";
-//			for (String v : matchHeadVars) {
-//				if (into_vars != "") {
-//					into_vars += ", " + v;
-//				} else {
-//					into_vars += v;
-//				}
-//			}
-//			sql = sql.replace(" FROM ", " INTO " + into_vars + " FROM ");
-			String where_eid = "";
-			for (int j = 0; j < matchEdgeRels.size(); j++) {
-				int rid = matchEdgeRels.get(j);
-				if (where_eid != "") {
-					where_eid += " OR R" + rid + "._0 = NEW._0 ";
-				} else {
-					where_eid += " R" + rid + "._0 = NEW._0";
-				}
+			if (where_eid.contentEquals("") == true) { // pattern without edges
+				continue;
 			}
-			sql = sql.replace(" WHERE ", " WHERE (" + where_eid + ") AND ");
-//			System.out.println("[createView] print p: " + sql);
-			
-			trigger_edge_function += "FOR curs IN\n" + 
-					"\t" + sql + "\n" +
-					"LOOP\n" + 
-					"\tRAISE NOTICE 'TARGET _0: %', curs._0;\n";
-			
-			
 			
+			String selects = "";
 			HashMap<Atom, HashSet<String>> mm = tr.getMapMap();
 			for (Atom a : mm.keySet()) {
-				HashSet<String> sources = mm.get(a);
-				for (String s : sources) {
-					String target_label = Util.removeQuotes(a.getTerms().get(1).toString());
-					int source_id = mapVarToIdx.get(s);
+				String target_label = Util.removeQuotes(a.getTerms().get(1).toString());
+				for (String s : mm.get(a)) {
 					String source_label = Util.removeQuotes(tr.getNodeVarToLabelMap().get(s));
-					int var_num = matchHeadVars.size();
-					String variadic_array = "";
-					for (int j = 0; j < var_num; j++) {
-						if (j > 0) {
-							variadic_array += ",";
-						}
-						variadic_array += "curs._" + j;
+					if (selects.contentEquals("") == false) {
+						selects += "\n\t\tUNION ";
 					}
-					
-//					System.out.println("===> atom: " + target_label + " s: " + source_id + " l: " + source_label);
-					trigger_edge_function += "\tINSERT INTO map_temp SELECT curs._" + source_id + ", '" + source_label + "', " +
-							"GENNEWID_CONST('" + viewname + "_" + i + "', VARIADIC Array[" + variadic_array + "]), '" + target_label + "';\n";
+					selects += "SELECT m._" + getMatchColumn(dc_match, s) + ", '" + source_label + "', ids.NEWID, '" + target_label + "'" +
+							" FROM m, ids WHERE ids.INPUTS = " + getMatchArray("m", dc_match);
 				}
 			}
-			
-			
-//			List<DatalogClause> dcs = p.getRules(mapname);
-//			// TODO: if there exists result from select above
-//			for (int j = 0; j < dcs.size(); j++) {
-//				DatalogClause dc = dcs.get(j);
-//				// TODO: insert into TEMP_MAP
-//				System.out.println("[createView] print p: " + dc.getHead());
-//				
-//				trigger_edge_function += "\tINSERT INTO map_temp SELECT curs._0, 'C', " +
-//						"GENNEWID_CONST('" + viewname + "_" + i + "', VARIADIC Array[curs._0, curs._1, curs._2, curs._3, curs._4]), 'T';\n";
-//			}
-			trigger_edge_function += "END LOOP;\n";
+			if (selects.contentEquals("") == true) {
+				continue;
+			}
+
+			String sql = addWhereCondition(getSqlForDatalogClause(dc_match), where_eid);
+			// Skolem ids of all new matches at once: insert the missing ones, and look up the others
+			String gennewid = Config.relname_gennewid + "_MAP";
+			String rule = viewname + "_" + i;
+			trigger_edge_function += "\tWITH m AS (" + sql + "),\n" +
+					"\tk AS (SELECT DISTINCT " + getMatchArray("m", dc_match) + " AS inputs FROM m),\n" +
+					"\tg AS (INSERT INTO " + gennewid + " (VIEWRULEID, INPUTS) SELECT '" + rule + "', k.inputs FROM k\n" +
+					"\t\tON CONFLICT (VIEWRULEID, INPUTS) DO NOTHING RETURNING NEWID, INPUTS),\n" +
+					"\tids AS (SELECT NEWID, INPUTS FROM g UNION ALL\n" +
+					"\t\tSELECT x.NEWID, x.INPUTS FROM " + gennewid + " AS x, k WHERE x.VIEWRULEID = '" + rule + "' AND x.INPUTS = k.inputs)\n" +
+					"\tINSERT INTO " + temp + "\n" +
+					"\t\t" + selects + ";\n";
 		}
-		trigger_edge_function += "" +
-        	"-- below are common for rules\n" + 
-            "\tINSERT INTO map_" + viewname + " SELECT _0, _1, _2, _3 FROM map_temp;\n";
+		trigger_edge_function += "\tINSERT INTO " + map + " SELECT DISTINCT t._0, t._1, t._2, t._3 FROM " + temp + " AS t\n" +
+				"\t\tWHERE NOT EXISTS (SELECT 1 FROM " + map + " AS m WHERE m._0 = t._0 AND m._2 = t._2);\n";
 
-		if (transRuleList.getViewType().contentEquals("materialized") == true) {
-			BufferedReader reader;
-	
-			String fromTemplate = "";
-			try {
-				reader = new BufferedReader(new FileReader("src/main/resources/templates/pgivm.txt"));
-				String line = reader.readLine();
-	
-				while (line != null) {
-					fromTemplate += line.replace("$vpf$", "_" + viewname) + "\n";
-	//				System.out.println(line);
-					// read next line
-					line = reader.readLine();
-				}
-				reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+		if (isMaterialized == true) {
+			if (isDefaultMap == true) {
+				// mapped nodes are replaced by their targets in N'
+				trigger_edge_function += "\tDELETE FROM " + n1 + " WHERE _0 IN (SELECT _0 FROM " + temp + ");\n";
+			}
+			trigger_edge_function += "\tINSERT INTO " + n1 + " (_0, _1) SELECT DISTINCT t._2, t._3 FROM " + temp + " AS t\n" +
+					"\t\tWHERE NOT EXISTS (SELECT 1 FROM " + n1 + " AS v WHERE v._0 = t._2);\n";
+			if (isDefaultMap == true) {
+				trigger_edge_function += getSqlForEdgeRederivation(n0, e0, e1, map, 
+						"SELECT _0 FROM new_edges UNION SELECT e._0 FROM " + e0 + " AS e, " + temp + " AS t WHERE e._1 = t._0 OR e._2 = t._0");
 			}
-			trigger_edge_function += fromTemplate + "\n";
 		}
-		trigger_edge_function += "RETURN NULL; -- result is ignored since this is an AFTER trigger\n" +
+		trigger_edge_function += "\tRETURN NULL; -- result is ignored since this is an AFTER trigger\n" +
 				"END;\n" + 
 				"$ivm_edge_insert$ LANGUAGE plpgsql;\n";
+//		System.out.println("trigger_edge_function: " + trigger_edge_function);
+
+		getPostgres(dbname).executeUpdate(trigger_edge_function);
+		createStatementTrigger("ivm_edge_insert_" + viewname, "INSERT", e0, "NEW TABLE AS new_edges", "process_ivm_edge_insertion_" + viewname);
 
-		System.out.println("trigger_edge_function: " + trigger_edge_function);
-//		System.exit(0);
+		// 3. node and edge deletion
+		getPostgres(dbname).executeUpdate(getIvmDeletionFunction(p, transRuleList, true));
+		createStatementTrigger("ivm_node_delete_" + viewname, "DELETE", n0, "OLD TABLE AS old_rows", "process_ivm_node_deletion_" + viewname);
+		getPostgres(dbname).executeUpdate(getIvmDeletionFunction(p, transRuleList, false));
+		createStatementTrigger("ivm_edge_delete_" + viewname, "DELETE", e0, "OLD TABLE AS old_rows", "process_ivm_edge_deletion_" + viewname);
+	}
+	
+	/**
+	 * Deleting a node (edge) invalidates the matches using it. The ids generated from those matches
+	 * are removed from MAP (and N', E'), and nodes that are not mapped anymore are put back to N'.
+	 */
+	private String getIvmDeletionFunction(DatalogProgram p, TransRuleList transRuleList, boolean isNode) {
+		String viewname = transRuleList.getViewName();
+		boolean isMaterialized = transRuleList.getViewType().contentEquals("materialized");
+		boolean isDefaultMap = transRuleList.isDefaultMap();
+		String n0 = Config.relname_node + Config.relname_base_postfix;
+		String e0 = Config.relname_edge + Config.relname_base_postfix;
+		String n1 = Config.relname_node + "_" + viewname;
+		String e1 = Config.relname_edge + "_" + viewname;
+		String map = Config.relname_mapping + "_" + viewname;
+		String kind = (isNode == true) ? "node" : "edge";
 		
-		String trigger_edge_creation = "CREATE TRIGGER ivm_edge_insert\n" + 
-				"AFTER INSERT ON e_g\n" + 
-				"	FOR EACH ROW EXECUTE FUNCTION process_ivm_edge_insertion();";
+		String where_rule = "";
+		for (int i = 0; i < transRuleList.getTransRuleList().size(); i++) {
+			DatalogClause dc_match = p.getRules(Config.relname_match + "_" + viewname + "_" + i).get(0);
+			String where_input = "";
+			for (int col : getMatchColumns(dc_match, isNode)) {
+				if (where_input.contentEquals("") == false) {
+					where_input += " OR ";
+				}
+				where_input += "g.INPUTS[" + (col + 1) + "] IN (SELECT _0 FROM old_rows)";
+			}
+			if (where_input.contentEquals("") == false) {
+				if (where_rule.contentEquals("") == false) {
+					where_rule += "\n\t\tOR ";
+				}
+				where_rule += "(g.VIEWRULEID = '" + viewname + "_" + i + "' AND (" + where_input + "))";
+			}
+		}
+		String ids = "";
+		if (where_rule.contentEquals("") == false) {
+			ids = "SELECT g.NEWID FROM " + Config.relname_gennewid + "_MAP AS g WHERE " + where_rule;
+		}
+		if (isNode == true) {
+			if (ids.contentEquals("") == false) {
+				ids += "\n\t\tUNION ";
+			}
+			ids += "SELECT _2 FROM " + map + " WHERE _0 IN (SELECT _0 FROM old_rows)";
+		}
 		
-		getPostgres(dbname).executeUpdate(trigger_edge_function);
-		getPostgres(dbname).executeUpdate(trigger_edge_creation);
+		String function = "CREATE OR REPLACE FUNCTION process_ivm_" + kind + "_deletion_" + viewname + "() RETURNS TRIGGER AS $ivm_" + kind + "_delete$\n" + 
+				"DECLARE\n" +
+				"\tids integer[];\n" +
+				"\tsrcs integer[];\n" +
+				"BEGIN\n";
+		if (ids.contentEquals("") == false) {
+			function += "\tSELECT array_agg(DISTINCT _0) INTO ids FROM (" + ids + ") AS d(_0);\n" +
+					"\tSELECT array_agg(DISTINCT _0) INTO srcs FROM " + map + " WHERE _2 = ANY(ids);\n" +
+					"\tDELETE FROM " + map + " WHERE _2 = ANY(ids);\n";
+		}
+		if (isMaterialized == true) {
+			String where_n1 = "_0 = ANY(ids)";
+			String where_e1 = "_0 = ANY(ids) OR _1 = ANY(ids) OR _2 = ANY(ids)";
+			if (isNode == true) {
+				where_n1 += " OR _0 IN (SELECT _0 FROM old_rows)";
+				where_e1 += " OR _0 IN (SELECT e._0 FROM " + e0 + " AS e, old_rows AS o WHERE e._1 = o._0 OR e._2 = o._0)";
+			} else {
+				where_e1 += " OR _0 IN (SELECT _0 FROM old_rows)";
+			}
+			function += "\tDELETE FROM " + n1 + " WHERE " + where_n1 + ";\n" +
+					"\tDELETE FROM " + e1 + " WHERE " + where_e1 + ";\n";
+			
+			if (isDefaultMap == true && ids.contentEquals("") == false) {
+				// sources of the removed mappings show up as they are in N' again
+				function += "\tINSERT INTO " + n1 + " (_0, _1) SELECT n._0, n._1 FROM " + n0 + " AS n WHERE n._0 = ANY(srcs)\n" +
+						"\t\tAND NOT EXISTS (SELECT 1 FROM " + map + " AS m WHERE m._0 = n._0)\n" +
+						"\t\tAND NOT EXISTS (SELECT 1 FROM " + n1 + " AS v WHERE v._0 = n._0);\n";
+				function += getSqlForEdgeRederivation(n0, e0, e1, map, 
+						"SELECT e._0 FROM " + e0 + " AS e WHERE e._1 = ANY(srcs) OR e._2 = ANY(srcs)");
+			}
+		}
+		function += "\tRETURN NULL; -- result is ignored since this is an AFTER trigger\n" +
+				"END;\n" + 
+				"$ivm_" + kind + "_delete$ LANGUAGE plpgsql;\n";
+
+		return function;
+	}
+	
+	/**
+	 * Recompute E' (default rule, e' = e with both ends through DMAP) for the given base edges.
+	 */
+	private String getSqlForEdgeRederivation(String n0, String e0, String e1, String map, String edgeIds) {
+		return "\tDELETE FROM " + e1 + " WHERE _0 IN (" + edgeIds + ");\n" +
+				"\tINSERT INTO " + e1 + " (_0, _1, _2, _3) SELECT DISTINCT e._0, COALESCE(s._2, e._1), COALESCE(d._2, e._2), e._3\n" +
+				"\t\tFROM " + e0 + " AS e INNER JOIN " + n0 + " AS ns ON ns._0 = e._1 INNER JOIN " + n0 + " AS nd ON nd._0 = e._2\n" +
+				"\t\tLEFT JOIN " + map + " AS s ON s._0 = e._1 LEFT JOIN " + map + " AS d ON d._0 = e._2\n" +
+				"\t\tWHERE e._0 IN (" + edgeIds + ");\n";
+	}
+	
+	private void createStatementTrigger(String trigger, String event, String table, String transitionTable, String function) {
+		getPostgres(dbname).executeUpdate("DROP TRIGGER IF EXISTS " + trigger + " ON " + table + ";");
+		getPostgres(dbname).executeUpdate("CREATE TRIGGER " + trigger + "\n" + 
+				"AFTER " + event + " ON " + table + "\n" + 
+				"\tREFERENCING " + transitionTable + "\n" +
+				"\tFOR EACH STATEMENT\n" +
+				"\tEXECUTE FUNCTION " + function + "();\n");
+	}
+	
+	/**
+	 * Add a condition to the outermost WHERE of a query from getSqlForDatalogClause().
+	 */
+	private String addWhereCondition(String sql, String cond) {
+		int idx = sql.indexOf(" WHERE ");
+		if (idx < 0) {
+			return sql + " WHERE (" + cond + ")";
+		}
+		return sql.substring(0, idx) + " WHERE (" + cond + ") AND " + sql.substring(idx + " WHERE ".length());
+	}
+	
+	private int getMatchColumn(DatalogClause dc_match, String var) {
+		List<Term> terms = dc_match.getHead().getTerms();
+		for (int i = 0; i < terms.size(); i++) {
+			if (terms.get(i).toString().contentEquals(var) == true) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("var[" + var + "] is not in the head of " + dc_match);
+	}
+	
+	private String getMatchArray(String alias, DatalogClause dc_match) {
+		String arr = "Array[";
+		for (int i = 0; i < dc_match.getHead().getTerms().size(); i++) {
+			if (i > 0) {
+				arr += ",";
+			}
+			arr += alias + "._" + i;
+		}
+		return arr + "]";
+	}
+	
+	/**
+	 * Columns of a MATCH relation holding node ids (isNode) or edge ids, found from the N_ and E_ atoms of its body.
+	 */
+	private ArrayList<Integer> getMatchColumns(DatalogClause dc_match, boolean isNode) {
+		HashSet<String> vars = new HashSet<String>();
+		for (Atom a : dc_match.getBody()) {
+			if (a.isNegated() == true || a.isInterpreted() == true) {
+				continue;
+			}
+			if (a.getRelName().startsWith(Config.relname_node + "_") == true) {
+				if (isNode == true) {
+					vars.add(a.getTerms().get(0).toString());
+				}
+			} else if (a.getRelName().startsWith(Config.relname_edge + "_") == true) {
+				if (isNode == true) {
+					vars.add(a.getTerms().get(1).toString());
+					vars.add(a.getTerms().get(2).toString());
+				} else {
+					vars.add(a.getTerms().get(0).toString());
+				}
+			}
+		}
 		
+		ArrayList<Integer> cols = new ArrayList<Integer>();
+		List<Term> terms = dc_match.getHead().getTerms();
+		for (int i = 0; i < terms.size(); i++) {
+			if (terms.get(i).isVariable() == true && vars.contains(terms.get(i).toString()) == true) {
+				cols.add(i);
+			}
+		}
+		return cols;
 	}
 
 //	@Override
@@ -1449,12 +1877,14 @@ public class PostgresStore implements Store {
 		String dropQuery = "DROP TABLE IF EXISTS " + Config.relname_gennewid + "_MAP CASCADE;\n";
 		getPostgres(dbname).executeUpdate(dropQuery);
 		
-		String query = "CREATE TABLE " + Config.relname_gennewid + "_MAP (\n" + 
+		String query = "CREATE TABLE IF NOT EXISTS " + Config.relname_gennewid + "_MAP (\n" + 
 				"  NEWID SERIAL PRIMARY KEY NOT NULL,\n" + 
 				"  VIEWRULEID varchar(64) NOT NULL,\n" + 
 				"  INPUTS integer[]\n" + 
 				");\n" + 
-				"CREATE INDEX IF NOT EXISTS newid_vrm_idx ON " + Config.relname_gennewid + "_MAP (VIEWRULEID, INPUTS);\n" + 
+				// ON CONFLICT (VIEWRULEID, INPUTS) needs a unique index (an older non-unique newid_vrm_idx is dropped)
+				"DROP INDEX IF EXISTS newid_vrm_idx;\n" + 
+				"CREATE UNIQUE INDEX IF NOT EXISTS newid_vrm_key ON " + Config.relname_gennewid + "_MAP (VIEWRULEID, INPUTS);\n" + 
 				"ALTER SEQUENCE " + Config.relname_gennewid + "_MAP_NEWID_seq RESTART WITH 100000000 INCREMENT BY 1;\n";
 		
 		query += "CREATE OR REPLACE FUNCTION " + Config.relname_gennewid + "_CONST(varchar(64), VARIADIC arr int[])\n " +
@@ -1466,7 +1896,11 @@ public class PostgresStore implements Store {
 				"  SELECT NEWID INTO existing_id FROM " + Config.relname_gennewid + "_MAP\n" + 
 				"  WHERE VIEWRULEID = $1 AND INPUTS = $2;\n" + 
 				"  IF not found THEN\n" + 
-				"    INSERT INTO " + Config.relname_gennewid + "_MAP (VIEWRULEID, INPUTS) VALUES ($1,$2) RETURNING NEWID INTO inserted_id;\n" + 
+				"    INSERT INTO " + Config.relname_gennewid + "_MAP (VIEWRULEID, INPUTS) VALUES ($1,$2)\n" + 
+				"      ON CONFLICT (VIEWRULEID, INPUTS) DO NOTHING RETURNING NEWID INTO inserted_id;\n" + 
+				"    IF inserted_id IS NULL THEN -- assigned concurrently\n" + 
+				"      SELECT NEWID INTO inserted_id FROM " + Config.relname_gennewid + "_MAP WHERE VIEWRULEID = $1 AND INPUTS = $2;\n" + 
+				"    END IF;\n" + 
 				"    RETURN inserted_id;\n" + 
 				"  ELSE\n" + 
 				"    RETURN existing_id;\n" + 
@@ -1,5 +1,7 @@
 package edu.upenn.cis.db.graphtrans.store.simpledatalog;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -17,15 +19,19 @@ import edu.upenn.cis.db.datalog.DatalogExecutor;
 import edu.upenn.cis.db.datalog.DatalogParser;
 import edu.upenn.cis.db.datalog.DatalogProgram;
 import edu.upenn.cis.db.datalog.simpleengine.IntegerSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.LongTuple;
 import edu.upenn.cis.db.datalog.simpleengine.Relation;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleDatalogEngine;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.Tuple;
+import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.graphtrans.datastructure.TransRuleList;
 import edu.upenn.cis.db.graphtrans.graphdb.datalog.BaseRuleGen;
 import edu.upenn.cis.db.graphtrans.store.Store;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.graphtrans.store.StoreRowHandler;
+import edu.upenn.cis.db.helper.CSVBulkLoader;
 import edu.upenn.cis.db.helper.Util;
 import edu.upenn.cis.db.logicblox.LogicBlox;
 
@@ -68,7 +74,13 @@ public class SimpleDatalogStore implements Store {
 		for (int i = 0; i < p.getArgNameList().size(); i++) {
 			attributes.add("_" + Integer.toString(i+1));
 		}
-		Relation<SimpleTerm> rel = new Relation<SimpleTerm>(new ArrayList<String>(attributes));
+		Relation rel = new Relation(new ArrayList<String>(attributes), databases.get(dbname).getDictionary());
+		if (p.getRelName().contentEquals(Config.relname_node + Config.relname_base_postfix) == true ||
+				p.getRelName().contentEquals(Config.relname_edge + Config.relname_base_postfix) == true) {
+			for (int i = 0; i < attributes.size(); i++) {
+				rel.createIndex(new int[] {i});
+			}
+		}
 //		System.out.println("[createSchema] dbname: " + dbname + " rel: " + p.getRelName());
 		databases.get(dbname).addRel(p.getRelName(), rel);		
 	}
@@ -82,16 +94,25 @@ public class SimpleDatalogStore implements Store {
 	public void createView(DatalogProgram p, TransRuleList transRuleList) {
 		// TODO Auto-generated method stub
 		int createdViewStartId = p.getCreatedViewId();
+		// all new rules at once, so that the engine can evaluate independent rules in parallel
+		ArrayList<DatalogClause> allRules = new ArrayList<DatalogClause>();
+		for (int i = createdViewStartId; i < p.getHeadRules().size(); i++) {
+			allRules.addAll(p.getRules(p.getHeadRules().get(i)));
+		}
+//		System.out.println("rules: " + allRules);
+		db.executeRules(allRules);
+		
 		for (int i = createdViewStartId; i < p.getHeadRules().size(); i++) {
 			List<DatalogClause> rules = p.getRules(p.getHeadRules().get(i));
 			String name = rules.get(0).getHead().getPredicate().getRelName();
 			boolean isMaterialized = p.getEDBs().contains(name);
 			
-//			System.out.println("rules: " + rules);
-			db.executeRules(rules);
-//			for (DatalogClause c : rules) {
-//				db.executeRule(c);
-//			}
+			ArrayList<ArrayList<Integer>> idxSet = p.getIndexSet(p.getHeadRules().get(i));
+			if (idxSet != null && isMaterialized == true) {
+				for (int j = 0; j < idxSet.size(); j++) {
+					addTableIndex(name, idxSet.get(j));
+				}
+			}
 			p.incCreatedViewId();
 		}
 	}
@@ -108,17 +129,36 @@ public class SimpleDatalogStore implements Store {
 		StoreResultSet rs = new StoreResultSet();
 		Relation rel = db.executeQuery(cs);
 //		System.out.println("[runQuery] rel: " + rel + " cs: " + cs);
-		rs.getResultSet().addAll(rel.getTuples());
+		rs.setFromLongTuples(rel, rel.getDictionary());
 		rs.getColumns().addAll(rel.getColumns());
 		
 		return rs;
 	}
 	
+	@Override
+	public void getQueryResult(List<DatalogClause> cs, long limit, long offset, StoreRowHandler handler) {
+		Relation rel = db.executeQuery(cs);
+		handler.setColumns(rel.getColumns());
+		long index = 0;
+		long end = (limit < 0) ? Long.MAX_VALUE : offset + limit;
+		for (LongTuple t : rel) { // converted one row at a time
+			if (index >= end) {
+				break;
+			}
+			if (index++ < offset) {
+				continue;
+			}
+			if (handler.handle(t.toTuple(rel.getDictionary())) == false) {
+				break;
+			}
+		}
+	}
+	
 	@Override
 	public StoreResultSet getQueryResult(DatalogClause c) {
 		StoreResultSet rs = new StoreResultSet();
 		Relation rel = databases.get(currentDatabase).executeQuery(c);
-		rs.getResultSet().addAll(rel.getTuples());
+		rs.setFromLongTuples(rel, rel.getDictionary());
 		rs.getColumns().addAll(rel.getColumns());
 		
 		return rs;
@@ -132,14 +172,31 @@ public class SimpleDatalogStore implements Store {
 
 	@Override
 	public void addTableIndex(Predicate p, ArrayList<String> cols) {
-		// TODO Auto-generated method stub
-//		throw new NotImplementedException();		
+		Relation rel = db.getRelation(p.getRelName());
+		if (rel == null) {
+			return;
+		}
+		int[] indexCols = new int[cols.size()];
+		for (int i = 0; i < cols.size(); i++) {
+			indexCols[i] = rel.getColumns().indexOf(cols.get(i));
+			if (indexCols[i] < 0) {
+				throw new IllegalArgumentException("rel: " + p.getRelName() + " has no column: " + cols.get(i) + " columns: " + rel.getColumns());
+			}
+		}
+		rel.createIndex(indexCols);
 	}
 
 	@Override
 	public void addTableIndex(String name, ArrayList<Integer> arrayList) {
-		// TODO Auto-generated method stub
-//		throw new NotImplementedException();
+		Relation rel = db.getRelation(name);
+		if (rel == null) {
+			return;
+		}
+		int[] indexCols = new int[arrayList.size()];
+		for (int i = 0; i < arrayList.size(); i++) {
+			indexCols[i] = arrayList.get(i);
+		}
+		rel.createIndex(indexCols);
 	}
 
 	@Override
@@ -193,12 +250,57 @@ public class SimpleDatalogStore implements Store {
 			throw new IllegalArgumentException("rel: " + rel + " terms: " + arrayList + " storeRel: " + getListRelationStr(currentDatabase));
 		}
 //		Util.console_logln("db: " + currentDatabase + " rel: " + rel + " terms: " + arrayList, 4);
-		db.getRelation(rel).addTuple(new Tuple<SimpleTerm>(arrayList));
+		db.getRelation(rel).addTuple(LongTuple.of(arrayList, db.getDictionary()));
 	}
 
+	/**
+	 * Import N (id,label) or E (id,from,to,label) from a CSV file with a header line. Chunks of
+	 * the file are parsed and encoded on several threads (see CSVBulkLoader), and their tuples
+	 * are added to the relation one chunk at a time.
+	 */
 	@Override
 	public long importFromCSV(String relName, String filePath) {
-		// TODO Auto-generated method stub
+		Relation rel = db.getRelation(relName + Config.relname_base_postfix);
+		if (rel == null) {
+			throw new IllegalArgumentException("rel: " + relName + Config.relname_base_postfix + " storeRel: " + getListRelationStr(currentDatabase));
+		}
+		int numCols = (relName.equalsIgnoreCase("n") == true) ? 2 : 4;
+		
+		try {
+			return CSVBulkLoader.load(filePath, reader -> {
+				ArrayList<long[]> tuples = new ArrayList<long[]>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty() == true) {
+						continue;
+					}
+					String[] cols = line.split(",", -1);
+					if (cols.length != numCols) {
+						throw new IllegalArgumentException("CSV row should have " + numCols + " columns. row: " + line);
+					}
+					long[] values = new long[numCols];
+					for (int i = 0; i < numCols - 1; i++) {
+						values[i] = Long.parseLong(cols[i].trim());
+					}
+					values[numCols - 1] = rel.getDictionary().encode(Util.removeQuotes(cols[numCols - 1].trim()));
+					tuples.add(values);
+				}
+				
+				long numRows = 0;
+				synchronized (rel) {
+					for (long[] values : tuples) {
+						if (rel.addTuple(values) == true) {
+							numRows++;
+						}
+					}
+				}
+				return numRows;
+			});
+		} catch (FileNotFoundException e) {
+			Util.Console.errln("File Not Exists [" + filePath +"]"); 
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read CSV file [" + filePath + "]", e);
+		}
 		return 0;
 	}
 	
@@ -0,0 +1,155 @@
+package edu.upenn.cis.db.graphtrans.typechecker;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.upenn.cis.db.ConjunctiveQuery.Atom;
+import edu.upenn.cis.db.ConjunctiveQuery.Term;
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.graphtrans.Config;
+import edu.upenn.cis.db.helper.Util;
+
+/**
+ * Check whether rules of the same head relation derive disjoint sets of tuples without duplicates,
+ * so that their union does not need de-duplication (UNION ALL in SQL).
+ *
+ * A rule derives no duplicates if the id (key) of every positive N_g or E_g atom is in the head,
+ * directly or as an input of a Skolem id in the head, and it has no other relations in its body.
+ * Two rules are disjoint if, at some position of the head,
+ * 1. both have different constants (or variables equal to them), or
+ * 2. both have the id of N_g (or E_g) atoms that have different constants in another column
+ *    (e.g., N_g(a,"A") and N_g(a,"B")).
+ */
+public class RuleDisjointnessCheck {
+	/**
+	 * @return indexes of the rules that derive no duplicates and are disjoint from all the other rules
+	 */
+	public static ArrayList<Integer> getDisjointRules(List<DatalogClause> cs) {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		for (int i = 0; i < cs.size(); i++) {
+			if (isDuplicateFree(cs.get(i)) == false) {
+				continue;
+			}
+			boolean isDisjoint = true;
+			for (int j = 0; j < cs.size() && isDisjoint == true; j++) {
+				if (i != j && isDisjoint(cs.get(i), cs.get(j)) == false) {
+					isDisjoint = false;
+				}
+			}
+			if (isDisjoint == true) {
+				ids.add(i);
+			}
+		}
+		return ids;
+	}
+
+	public static boolean isDuplicateFree(DatalogClause c) {
+		HashSet<String> keys = new HashSet<String>(); // variables determined by the head
+		for (Term t : c.getHead().getTerms()) {
+			if (t.isVariable() == true) {
+				keys.add(t.getVar());
+			}
+		}
+		for (Atom a : c.getBody()) { // a Skolem id determines its inputs
+			if (a.isNegated() == false && a.getRelName().startsWith(Config.relname_gennewid + "_") == true) {
+				ArrayList<Term> terms = a.getTerms();
+				if (keys.contains(terms.get(terms.size() - 1).getVar()) == true) {
+					for (int i = 0; i < terms.size() - 1; i++) {
+						keys.add(terms.get(i).getVar());
+					}
+				}
+			}
+		}
+
+		for (Atom a : c.getBody()) {
+			if (a.isNegated() == true || a.isInterpreted() == true
+					|| a.getRelName().startsWith(Config.relname_gennewid + "_") == true) {
+				continue;
+			}
+			if (isBaseRelation(a.getRelName()) == false) {
+				return false;
+			}
+			Term id = a.getTerms().get(0);
+			if (id.isVariable() == true && keys.contains(id.getVar()) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static boolean isDisjoint(DatalogClause c1, DatalogClause c2) {
+		Atom h1 = c1.getHead();
+		Atom h2 = c2.getHead();
+		if (h1.getRelName().equals(h2.getRelName()) == false || h1.getTerms().size() != h2.getTerms().size()) {
+			return false;
+		}
+		for (int i = 0; i < h1.getTerms().size(); i++) {
+			Term t1 = h1.getTerms().get(i);
+			Term t2 = h2.getTerms().get(i);
+			if (isDifferent(getConstant(c1, t1), getConstant(c2, t2)) == true) {
+				return true;
+			}
+			if (t1.isVariable() == false || t2.isVariable() == false) {
+				continue;
+			}
+			Atom a1 = getBaseAtomWithId(c1, t1.getVar());
+			Atom a2 = getBaseAtomWithId(c2, t2.getVar());
+			if (a1 != null && a2 != null && a1.getRelName().equals(a2.getRelName()) == true) {
+				for (int j = 1; j < a1.getTerms().size(); j++) {
+					if (isDifferent(getConstant(c1, a1.getTerms().get(j)), getConstant(c2, a2.getTerms().get(j))) == true) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isBaseRelation(String relName) {
+		return relName.equals(Config.relname_node + Config.relname_base_postfix) == true
+				|| relName.equals(Config.relname_edge + Config.relname_base_postfix) == true;
+	}
+
+	private static boolean isDifferent(String v1, String v2) {
+		return v1 != null && v2 != null && v1.equals(v2) == false;
+	}
+
+	/**
+	 * @return the constant of a term, or of the equality of a variable with a constant in the body (null if none)
+	 */
+	private static String getConstant(DatalogClause c, Term t) {
+		if (t.isConstant() == true) {
+			return Util.removeQuotes(t.getVar());
+		}
+		for (Atom a : c.getBody()) {
+			if (a.isNegated() == true || a.isInterpreted() == false
+					|| a.getPredicate().getRelName().equals(Config.predOpEq.getRelName()) == false) {
+				continue;
+			}
+			Term l = a.getTerms().get(0);
+			Term r = a.getTerms().get(1);
+			if (l.isVariable() == true && l.getVar().equals(t.getVar()) == true && r.isConstant() == true) {
+				return Util.removeQuotes(r.getVar());
+			} else if (r.isVariable() == true && r.getVar().equals(t.getVar()) == true && l.isConstant() == true) {
+				return Util.removeQuotes(l.getVar());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return positive N_g or E_g atom whose id is the variable (null if none)
+	 */
+	private static Atom getBaseAtomWithId(DatalogClause c, String var) {
+		for (Atom a : c.getBody()) {
+			if (a.isNegated() == false && a.isInterpreted() == false && isBaseRelation(a.getRelName()) == true) {
+				Term id = a.getTerms().get(0);
+				if (id.isVariable() == true && id.getVar().equals(var) == true) {
+					return a;
+				}
+			}
+		}
+		return null;
+	}
+}
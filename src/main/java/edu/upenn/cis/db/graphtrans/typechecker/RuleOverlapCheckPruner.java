@@ -19,6 +19,7 @@ import edu.upenn.cis.db.datalog.DatalogParser;
 import edu.upenn.cis.db.datalog.DatalogProgram;
 import edu.upenn.cis.db.datalog.simpleengine.IntegerSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.LongSimpleTerm;
+import edu.upenn.cis.db.datalog.simpleengine.LongTuple;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleDatalogEngine;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
@@ -220,15 +221,15 @@ public class RuleOverlapCheckPruner {
 //		System.out.println("timeB-3: " + Util.getElapsedTime(tid));
 
 //		System.out.println("c: " + c);
-		edu.upenn.cis.db.datalog.simpleengine.Relation<SimpleTerm> result = engine.executeQuery(c);
+		edu.upenn.cis.db.datalog.simpleengine.Relation result = engine.executeQuery(c);
 //		System.out.println("timeB-4: " + Util.getElapsedTime(tid));
 		
-		for (Tuple<SimpleTerm> t : result.getTuples()) {
+		for (LongTuple t : result) {
 //			Tuple<SimpleTerm> t = result.getTuples().get(i);
 			
-			int v1 = t.getTuple().get(0).getInt(); // egd_id
-			int v2 = t.getTuple().get(1).getInt(); // rule_id
-			int v3 = t.getTuple().get(2).getInt(); // rule_subtype
+			int v1 = t.getTerm(0, result.getDictionary()).getInt(); // egd_id
+			int v2 = t.getTerm(1, result.getDictionary()).getInt(); // rule_id
+			int v3 = t.getTerm(2, result.getDictionary()).getInt(); // rule_subtype
 			
 			if (ruleEgdsMap.containsKey(Pair.of(v2,v3)) == false) {
 				ruleEgdsMap.put(Pair.of(v2, v3), new HashSet<Integer>());
@@ -280,18 +281,18 @@ public class RuleOverlapCheckPruner {
 		DatalogParser parser = new DatalogParser(program);		
 		DatalogClause c = parser.ParseQuery(query);
 //		System.out.println("[c]: " + c);
-		edu.upenn.cis.db.datalog.simpleengine.Relation<SimpleTerm> result = engine.executeQuery(c);
+		edu.upenn.cis.db.datalog.simpleengine.Relation result = engine.executeQuery(c);
 		
 //		System.out.println("[prune] result: " + result);
 
 //		System.out.println("timeC-2: " + Util.getElapsedTime(tid));
 
-		for (Tuple<SimpleTerm> t : result.getTuples()) {
+		for (LongTuple t : result) {
 //			Tuple<SimpleTerm> t = result.getTuples().get(i);
 //			
-			int v1 = t.getTuple().get(0).getInt(); // egd_id
-			int v2 = t.getTuple().get(1).getInt(); // rule_id
-			int v3 = t.getTuple().get(2).getInt(); // rule_subtype
+			int v1 = t.getTerm(0, result.getDictionary()).getInt(); // egd_id
+			int v2 = t.getTerm(1, result.getDictionary()).getInt(); // rule_id
+			int v3 = t.getTerm(2, result.getDictionary()).getInt(); // rule_subtype
 
 			rulePairsList.add(Triple.of(v1, v2, v3)); // rule(v1,0) vs. rule(v2,v3)
 		}
@@ -316,15 +317,15 @@ public class RuleOverlapCheckPruner {
 		
 		for (SchemaNode s : Schema.getSchemaNodes()) {
 			nodeToId.put(s.getLabel(), id);
-			engine.insertTuple("N_schema", new Tuple<SimpleTerm>(Arrays.asList(
-					new LongSimpleTerm(id++), new StringSimpleTerm(s.getLabel()))));
+			engine.insertTuple("N_schema", LongTuple.of(Arrays.asList(
+					new LongSimpleTerm(id++), new StringSimpleTerm(s.getLabel())), engine.getDictionary()));
 		}
 		for (SchemaEdge s : Schema.getSchemaEdges()) {
 			int fromId = nodeToId.get(s.getFrom());
 			int toId = nodeToId.get(s.getTo());
-			engine.insertTuple("E_schema", new Tuple<SimpleTerm>(Arrays.asList(
+			engine.insertTuple("E_schema", LongTuple.of(Arrays.asList(
 					new LongSimpleTerm(id++), new LongSimpleTerm(fromId)
-					, new LongSimpleTerm(toId), new StringSimpleTerm(s.getLabel()))));
+					, new LongSimpleTerm(toId), new StringSimpleTerm(s.getLabel())), engine.getDictionary()));
 		}
 	}
 
@@ -339,7 +340,7 @@ public class RuleOverlapCheckPruner {
 		rulePairsList = rulePairs;
 		ruleEgdsMap = ruleEgds;
 		
-		engine = new SimpleDatalogEngine<SimpleTerm>();
+		engine = new SimpleDatalogEngine();
 
 		int tid = Util.startTimer();
 		loadCatalog();
@@ -0,0 +1,225 @@
+package edu.upenn.cis.db.helper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.upenn.cis.db.graphtrans.Config;
+
+/**
+ * Parallel loader of a CSV file with a header line. The rows are split into chunks (byte ranges
+ * starting at a line) that are loaded by a ChunkLoader on several threads, and the progress
+ * (rows/sec) is printed while they are loaded. Quoted values must not span lines.
+ *
+ * Settings in the [default] section of the config file:
+ *  import_threads: # of threads loading chunks (1: the file is loaded as one chunk)
+ *  import_chunk_mb: min size of a chunk (MB)
+ *  import_progress_sec: interval of the progress messages (sec)
+ */
+public class CSVBulkLoader {
+	public interface ChunkLoader {
+		/**
+		 * Load the rows of a chunk (without the header line).
+		 * @return # of rows loaded
+		 */
+		long load(BufferedReader reader) throws Exception;
+	}
+
+	private static int numThreads = -1;
+	private static long minChunkSize = 16L << 20;
+	private static long progressMs = 5000;
+
+	private static synchronized void loadSettings() {
+		if (numThreads > 0) {
+			return;
+		}
+		String v;
+		numThreads = 4;
+		if ((v = Config.get("default.import_threads")) != null) {
+			numThreads = Math.max(1, Integer.parseInt(v.trim()));
+		}
+		if ((v = Config.get("default.import_chunk_mb")) != null) {
+			minChunkSize = Math.max(1, Long.parseLong(v.trim())) << 20;
+		}
+		if ((v = Config.get("default.import_progress_sec")) != null) {
+			progressMs = Math.max(1, Long.parseLong(v.trim())) * 1000;
+		}
+	}
+
+	public static int getNumThreads() {
+		loadSettings();
+		return numThreads;
+	}
+
+	/**
+	 * Load the rows of a CSV file in chunks on getNumThreads() threads. If a chunk fails, the chunks
+	 * not started yet are cancelled, the running ones finish, and an IllegalStateException with the
+	 * # of rows loaded by the other chunks (which stay loaded) is thrown.
+	 *
+	 * @return # of rows loaded
+	 */
+	public static long load(String filePath, ChunkLoader loader) throws IOException {
+		loadSettings();
+		File file = new File(filePath);
+		if (file.exists() == false) {
+			throw new FileNotFoundException(filePath);
+		}
+
+		ArrayList<Long> bounds = getChunkBounds(filePath, file.length());
+		int numChunks = bounds.size() - 1;
+		int tid = Util.startTimer();
+		AtomicLong rows = new AtomicLong();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+		ArrayList<Future<Long>> futures = new ArrayList<Future<Long>>();
+		try {
+			for (int i = 0; i < numChunks; i++) {
+				long start = bounds.get(i);
+				long end = bounds.get(i + 1);
+				futures.add(executor.submit(() -> {
+					try (BufferedReader reader = getReader(filePath, start, end)) {
+						long n = loader.load(reader);
+						rows.addAndGet(n);
+						return n;
+					}
+				}));
+			}
+
+			long lastProgress = System.currentTimeMillis();
+			for (int i = 0; i < futures.size(); ) {
+				try {
+					futures.get(i).get(100, TimeUnit.MILLISECONDS);
+					i++;
+				} catch (TimeoutException e) {
+					// not yet
+				}
+				if (System.currentTimeMillis() - lastProgress >= progressMs) {
+					lastProgress = System.currentTimeMillis();
+					printProgress(filePath, rows.get(), Util.getElapsedTime(tid), i, numChunks);
+				}
+			}
+		} catch (ExecutionException | InterruptedException e) {
+			for (Future<Long> f : futures) {
+				f.cancel(false);
+			}
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e2) {
+				Thread.currentThread().interrupt();
+			}
+			Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+			String msg = "[import] " + filePath + " failed after " + rows.get() + " row(s) were loaded: " + cause;
+			Util.Console.errln(msg);
+			throw new IllegalStateException(msg, cause);
+		} finally {
+			executor.shutdownNow();
+		}
+		printProgress(filePath, rows.get(), Util.getElapsedTime(tid), numChunks, numChunks);
+
+		return rows.get();
+	}
+
+	private static void printProgress(String filePath, long rows, long etime, int chunksDone, int numChunks) {
+		long rowsPerSec = (etime > 0) ? rows * 1000 / etime : rows;
+		Util.Console.logln("[import] " + filePath + " rows: " + rows + " (" + rowsPerSec + " rows/sec) chunks: "
+				+ chunksDone + "/" + numChunks + " etime: " + etime);
+	}
+
+	/**
+	 * Offsets where the chunks start (the first one right after the header line), and the file size at the end
+	 */
+	private static ArrayList<Long> getChunkBounds(String filePath, long size) throws IOException {
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		try (RandomAccessFile raf = new RandomAccessFile(filePath, "r")) {
+			long start = nextLine(raf, 0);
+			bounds.add(start);
+
+			int numChunks = (int)Math.max(1, Math.min((long)numThreads * 4, (size - start) / minChunkSize));
+			if (numThreads == 1) {
+				numChunks = 1;
+			}
+			for (int i = 1; i < numChunks; i++) {
+				long pos = nextLine(raf, start + (size - start) * i / numChunks);
+				if (pos > bounds.get(bounds.size() - 1) && pos < size) {
+					bounds.add(pos);
+				}
+			}
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	/**
+	 * Offset of the first line starting after pos (pos itself if a line starts there, except for 0)
+	 */
+	private static long nextLine(RandomAccessFile raf, long pos) throws IOException {
+		if (pos > 0) {
+			raf.seek(pos - 1);
+		} else {
+			raf.seek(0);
+		}
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = raf.read(buf)) > 0) {
+			for (int i = 0; i < n; i++) {
+				if (buf[i] == '\n') {
+					return raf.getFilePointer() - n + i + 1;
+				}
+			}
+		}
+		return raf.length();
+	}
+
+	private static BufferedReader getReader(String filePath, long start, long end) throws IOException {
+		FileInputStream in = new FileInputStream(filePath);
+		in.getChannel().position(start);
+		InputStream range = new InputStream() {
+			private long remaining = end - start;
+
+			@Override
+			public int read() throws IOException {
+				if (remaining <= 0) {
+					return -1;
+				}
+				int b = in.read();
+				if (b >= 0) {
+					remaining--;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (remaining <= 0) {
+					return -1;
+				}
+				int n = in.read(b, off, (int)Math.min(len, remaining));
+				if (n > 0) {
+					remaining -= n;
+				}
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+		return new BufferedReader(new InputStreamReader(range, StandardCharsets.UTF_8), 1 << 16);
+	}
+}
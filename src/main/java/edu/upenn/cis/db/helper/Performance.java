@@ -75,17 +75,17 @@ public class Performance {
 		t_createIndex = t;
 	}
 
-	public static void addUpdateTime(long time) {
+	public static synchronized void addUpdateTime(long time) {
 		t_query.add(time);
 		b_isUpdate.add(true);
 	}
 	
-	public static void addQueryTime(long time) {
+	public static synchronized void addQueryTime(long time) {
 		t_query.add(time);
 		b_isUpdate.add(false);
 	}
 	
-	public static void addQueryResult(int c) {
+	public static synchronized void addQueryResult(int c) {
 		t_query_result.add(c);
 	}
 
@@ -13,16 +13,18 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Util {
 	static long lastTime;
 	
 	private static HashMap<String, Integer> counter = new HashMap<String, Integer>();
-	private static HashMap<Integer, Long> timer = new HashMap<Integer, Long>(); 
+	private static ConcurrentHashMap<Integer, Long> timer = new ConcurrentHashMap<Integer, Long>(); 
 	private static HashMap<String, HashMap<String, Integer>> varDicEncodings = new HashMap<String, HashMap<String, Integer>>();;
 	private static HashMap<String, Integer> varDicEncodingIndexes = new HashMap<String, Integer>();
 
-	private static int timerId = 0;
+	private static AtomicInteger timerId = new AtomicInteger();
 	
 	private static boolean flag_console = true;
 	
@@ -92,6 +94,25 @@ public class Util {
 	 */
 	public static class Console {
 		private static boolean enable = true;
+		private static ThreadLocal<StringBuilder> capture = new ThreadLocal<StringBuilder>();
+		
+		/**
+		 * Collect the messages of the current thread (without colors) instead of printing them,
+		 * until stopCapture() is called.
+		 */
+		public static void startCapture() {
+			capture.set(new StringBuilder());
+		}
+		
+		/**
+		 * Stop collecting messages of the current thread.
+		 * @return messages collected since startCapture()
+		 */
+		public static String stopCapture() {
+			StringBuilder str = capture.get();
+			capture.remove();
+			return (str == null) ? "" : str.toString();
+		}
 		
 		/**
 		 * Set the enable flag.
@@ -106,7 +127,10 @@ public class Util {
 		 * @param msg
 		 */
 		public static void log(String msg) {
-			if (enable == true) {
+			StringBuilder str = capture.get();
+			if (str != null) {
+				str.append(msg);
+			} else if (enable == true) {
 				System.out.print(ANSI_GREEN + msg + ANSI_RESET);
 			}
 		}
@@ -125,7 +149,10 @@ public class Util {
 		 * @param msg
 		 */
 		public static void err(String msg) {
-			if (enable == true) {
+			StringBuilder str = capture.get();
+			if (str != null) {
+				str.append(msg);
+			} else if (enable == true) {
 				System.out.print(ANSI_RED + msg + ANSI_RESET);
 			}
 		}
@@ -215,7 +242,7 @@ public class Util {
 	
 	public static int startTimer() {
 		long lastTime = System.nanoTime();
-		int id = timerId++;
+		int id = timerId.getAndIncrement();
 		timer.put(id, lastTime);
 		
 		return id;
@@ -0,0 +1,132 @@
+package edu.upenn.cis.db.postgres;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of JDBC connections to one database. At most maxSize connections are
+ * handed out at a time; idle connections are checked with isValid() before reuse
+ * if they were idle longer than validationIdleMs.
+ */
+public class ConnectionPool {
+	private String url;
+	private String username;
+	private String password;
+	private long timeoutMs;
+	private long validationIdleMs = 10000;
+
+	private Semaphore permits;
+	private LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+	private volatile boolean closed = false;
+
+	private static class IdleConnection {
+		Connection conn;
+		long since;
+
+		IdleConnection(Connection conn) {
+			this.conn = conn;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	public ConnectionPool(String url, String username, String password, int maxSize, long timeoutMs) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.timeoutMs = timeoutMs;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Borrow a connection (in autocommit mode). Must be returned with release().
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed == true) {
+			throw new SQLException("Connection pool is closed. url: " + url);
+		}
+		try {
+			if (permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS) == false) {
+				throw new SQLException("Timeout waiting for a connection. url: " + url);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection. url: " + url);
+		}
+
+		IdleConnection c;
+		while ((c = idle.pollFirst()) != null) { // most recently used first
+			if (isHealthy(c) == true) {
+				return c.conn;
+			}
+			closeQuietly(c.conn);
+		}
+		try {
+			return DriverManager.getConnection(url, username, password);
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public void release(Connection conn) {
+		try {
+			if (closed == false && conn.isClosed() == false) {
+				if (conn.getAutoCommit() == false) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+				idle.offerFirst(new IdleConnection(conn));
+			} else {
+				closeQuietly(conn);
+			}
+		} catch (SQLException e) {
+			closeQuietly(conn);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private boolean isHealthy(IdleConnection c) {
+		try {
+			if (c.conn.isClosed() == true) {
+				return false;
+			}
+			if (System.currentTimeMillis() - c.since < validationIdleMs) {
+				return true;
+			}
+			return c.conn.isValid(5);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Close idle connections (e.g., after the database was dropped or its backends terminated).
+	 */
+	public void evictIdle() {
+		IdleConnection c;
+		while ((c = idle.pollFirst()) != null) {
+			closeQuietly(c.conn);
+		}
+	}
+
+	/**
+	 * Close the pool. Connections in use are closed when they are released.
+	 */
+	public void close() {
+		closed = true;
+		evictIdle();
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			// already broken
+		}
+	}
+}
@@ -5,14 +5,30 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,21 +36,62 @@ import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
 import org.postgresql.util.PSQLException;
 
+import edu.upenn.cis.db.datalog.simpleengine.IntegerSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.LongSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.SimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.StringSimpleTerm;
 import edu.upenn.cis.db.datalog.simpleengine.Tuple;
 import edu.upenn.cis.db.graphtrans.Config;
 import edu.upenn.cis.db.graphtrans.store.StoreResultSet;
+import edu.upenn.cis.db.graphtrans.store.StoreRowHandler;
+import edu.upenn.cis.db.helper.CSVBulkLoader;
 import edu.upenn.cis.db.helper.Util;
 
 public class Postgres {
 	final static Logger logger = LogManager.getLogger(Postgres.class);
 
-	private Connection conn = null;
-	private Statement stmt = null;
+	private ConnectionPool pool = null;
 	private String dbname = null;
 
+	/*
+	 * Buffered inserts (see insert()). Settings in the [postgres] section of the config file:
+	 *  insert_batch_size: flush when this many tuples are buffered
+	 *  insert_flush_ms: flush tuples buffered longer than this (0: only on size or before other statements)
+	 *  insert_copy_threshold: use COPY instead of a JDBC batch for at least this many tuples of a relation
+	 *  analyze_threshold: analyze N_g and E_g before a statement only after this many rows are inserted
+	 *  fetch_size: rows fetched at a time by select()
+	 *  pool_size: max # of connections to the database (statements run concurrently up to this)
+	 *  pool_timeout_ms: max wait for a free connection
+	 *  log_sql: append executed SQL to test.sql
+	 *  bulk_skolem: assign Skolem ids of a materialized view in one statement before creating it
+	 *  partition_by_label: create N_g and E_g partitioned by label, with (label, column) indexes
+	 *  union_all: combine rules proven to derive disjoint tuples by UNION ALL instead of UNION
+	 *    (only if the ids of N_g and E_g are unique, see hasUniqueIds())
+	 *  import_defer_indexes: drop the indexes of an empty table before importing a CSV file into it,
+	 *    and build them after the import
+	 */
+	private int insertBatchSize = 1000;
+	private long insertFlushMs = 100;
+	private int insertCopyThreshold = 5000;
+	private long analyzeThreshold = 10000;
+	private int fetchSize = 10000;
+	private int poolSize = 8;
+	private long poolTimeoutMs = 60000;
+	private boolean logSql = false;
+	private boolean bulkSkolem = true;
+	private boolean partitionByLabel = false;
+	private boolean unionAll = true;
+	private boolean importDeferIndexes = true;
+	private volatile Boolean uniqueIds = null; // null: not checked since the last schema or index change
+
+	private LinkedHashMap<String, ArrayList<ArrayList<SimpleTerm>>> pendingInserts = new LinkedHashMap<String, ArrayList<ArrayList<SimpleTerm>>>();
+	private int numPendingInserts = 0;
+	private long pendingSince = 0;
+	private AtomicLong rowsSinceAnalyze = new AtomicLong(-1); // -1: never analyzed
+	private Object analyzeLock = new Object();
+	private ScheduledExecutorService flusher = null;
+	private Exception insertFailure = null; // first failure of a flush, thrown by the next insert, flushInserts or select
+
 	public String getDBname() {
 		return dbname;
 	}
@@ -42,35 +99,355 @@ public class Postgres {
 	public boolean connect(String ip, int port, String username, String password, String name) {
 //		System.out.println("[connect] conn: " + conn + " stmt: " + stmt);
 
-		if (conn != null) {
+		if (pool != null) {
 			disconnect();
 		}
+		loadSettings();
 		
 		try {
 			Class.forName("org.postgresql.Driver");
-			conn = DriverManager
-					.getConnection("jdbc:postgresql://" + ip + ":" + port +"/" + name, username, password);
-//			conn.setAutoCommit(false);
+			// server-side prepared statements are reused from the first execution on each connection
+			String url = "jdbc:postgresql://" + ip + ":" + port +"/" + name
+					+ "?reWriteBatchedInserts=true&prepareThreshold=1&preparedStatementCacheQueries=256";
+			pool = new ConnectionPool(url, username, password, poolSize, poolTimeoutMs);
+			pool.release(pool.getConnection()); // check that the database is reachable
 
-			stmt = conn.createStatement();
 			dbname = name;
+			rowsSinceAnalyze.set(-1);
+			uniqueIds = null;
 			
+			if (insertFlushMs > 0) {
+				flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "pg-insert-flusher-" + name);
+					t.setDaemon(true);
+					return t;
+				});
+				flusher.scheduleWithFixedDelay(() -> flushInsertsIfOld(), insertFlushMs, insertFlushMs, TimeUnit.MILLISECONDS);
+			}
 		} catch (Exception e) {
+			if (pool != null) {
+				pool.close();
+				pool = null;
+			}
 			return false;
 		}
 		return true;
 	}
 
-	public void disconnect() {
+	private void release(Connection conn) {
 		if (conn != null) {
+			pool.release(conn);
+		}
+	}
+
+	private void loadSettings() {
+		String v;
+		if ((v = Config.get("postgres.insert_batch_size")) != null) {
+			insertBatchSize = Integer.parseInt(v.trim());
+		}
+		if ((v = Config.get("postgres.insert_flush_ms")) != null) {
+			insertFlushMs = Long.parseLong(v.trim());
+		}
+		if ((v = Config.get("postgres.insert_copy_threshold")) != null) {
+			insertCopyThreshold = Integer.parseInt(v.trim());
+		}
+		if ((v = Config.get("postgres.analyze_threshold")) != null) {
+			analyzeThreshold = Long.parseLong(v.trim());
+		}
+		if ((v = Config.get("postgres.fetch_size")) != null) {
+			fetchSize = Integer.parseInt(v.trim());
+		}
+		if ((v = Config.get("postgres.pool_size")) != null) {
+			poolSize = Integer.parseInt(v.trim());
+		}
+		if ((v = Config.get("postgres.pool_timeout_ms")) != null) {
+			poolTimeoutMs = Long.parseLong(v.trim());
+		}
+		if ((v = Config.get("postgres.log_sql")) != null) {
+			logSql = Boolean.parseBoolean(v.trim());
+		}
+		if ((v = Config.get("postgres.bulk_skolem")) != null) {
+			bulkSkolem = Boolean.parseBoolean(v.trim());
+		}
+		if ((v = Config.get("postgres.partition_by_label")) != null) {
+			partitionByLabel = Boolean.parseBoolean(v.trim());
+		}
+		if ((v = Config.get("postgres.union_all")) != null) {
+			unionAll = Boolean.parseBoolean(v.trim());
+		}
+		if ((v = Config.get("postgres.import_defer_indexes")) != null) {
+			importDeferIndexes = Boolean.parseBoolean(v.trim());
+		}
+	}
+
+	public boolean isBulkSkolem() {
+		return bulkSkolem;
+	}
+
+	public boolean isPartitionByLabel() {
+		return partitionByLabel;
+	}
+
+	/**
+	 * @return true if union_all is on and the ids of N_g and E_g are unique (the proofs of RuleDisjointnessCheck assume it)
+	 */
+	public boolean isUnionAll() {
+		return unionAll == true && hasUniqueIds() == true;
+	}
+
+	/**
+	 * Whether N_g and E_g have a unique index on their id (_0). There is none if they are partitioned by label,
+	 * or if it could not be built because of duplicate ids.
+	 */
+	public boolean hasUniqueIds() {
+		Boolean v = uniqueIds;
+		if (v != null) {
+			return v;
+		}
+		v = false;
+		Connection conn = null;
+		try {
+			conn = pool.getConnection();
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT count(DISTINCT c.relname) FROM pg_index i "
+							+ "JOIN pg_class c ON c.oid = i.indrelid "
+							+ "JOIN pg_attribute a ON a.attrelid = c.oid AND a.attnum = i.indkey[0] "
+							+ "WHERE i.indisunique AND i.indnatts = 1 AND a.attname = '_0' "
+							+ "AND c.relnamespace = current_schema()::regnamespace "
+							+ "AND c.relname IN ('" + (Config.relname_node + Config.relname_base_postfix).toLowerCase() + "', '"
+							+ (Config.relname_edge + Config.relname_base_postfix).toLowerCase() + "')")) {
+				v = rs.next() == true && rs.getInt(1) == 2;
+			}
+		} catch (SQLException e) {
+			Util.Console.errln("Failed to check the unique ids of N_g and E_g e: " + e.getMessage());
+		} finally {
+			release(conn);
+		}
+		uniqueIds = v;
+		return v;
+	}
+
+	/**
+	 * Check hasUniqueIds() again at its next call (after N_g, E_g or their indexes changed)
+	 */
+	public void resetUniqueIds() {
+		uniqueIds = null;
+	}
+
+	private void logSql(String query) {
+		if (logSql == true) {
+			Util.writeToFile("test.sql", query + "\n\n", true); // log sql
+		}
+	}
+
+	/**
+	 * Analyze the base tables if enough rows were inserted since the last analyze
+	 * (or they were never analyzed).
+	 */
+	private void analyzeIfNeeded(Connection conn) {
+		long rows = rowsSinceAnalyze.get();
+		if (rows >= 0 && rows < analyzeThreshold) {
+			return;
+		}
+		synchronized (analyzeLock) {
+			rows = rowsSinceAnalyze.get();
+			if (rows >= 0 && rows < analyzeThreshold) {
+				return; // analyzed by another thread
+			}
+			// Wrap in try-catch to handle cases where tables don't exist yet
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("analyze N_g");
+				stmt.execute("analyze E_g");
+				rowsSinceAnalyze.set(0);
+			} catch (SQLException analyzeEx) {
+				// Tables don't exist yet (during initialization), silently ignore
+			}
+		}
+	}
+
+	private void addRowsSinceAnalyze(long rows) {
+		rowsSinceAnalyze.updateAndGet(v -> (v < 0) ? v : v + rows);
+	}
+
+	/**
+	 * Buffer a tuple to insert into rel. Buffered tuples are written by a JDBC batch
+	 * (or COPY for large bursts) when the buffer is full, when they are older than
+	 * insert_flush_ms, or before any other statement on this connection.
+	 */
+	public synchronized void insert(String rel, ArrayList<SimpleTerm> tuple) {
+		throwInsertFailure();
+		ArrayList<ArrayList<SimpleTerm>> tuples = pendingInserts.get(rel);
+		if (tuples == null) {
+			tuples = new ArrayList<ArrayList<SimpleTerm>>();
+			pendingInserts.put(rel, tuples);
+		}
+		if (numPendingInserts == 0) {
+			pendingSince = System.currentTimeMillis();
+		}
+		tuples.add(tuple);
+		numPendingInserts++;
+		if (numPendingInserts >= insertBatchSize) {
+			flushInserts();
+		}
+	}
+
+	private synchronized void flushInsertsIfOld() {
+		if (numPendingInserts > 0 && System.currentTimeMillis() - pendingSince >= insertFlushMs) {
+			flushPendingInserts(); // a failure is thrown by the next call from the user
+		}
+	}
+
+	/**
+	 * Write all buffered tuples, and throw the failure of this or an earlier flush.
+	 */
+	public synchronized void flushInserts() {
+		flushPendingInserts();
+		throwInsertFailure();
+	}
+
+	/**
+	 * Write all buffered tuples. A batch of a relation that fails is retried row by row, so only the
+	 * rows that fail are dropped. If no connection can be had, the tuples stay buffered.
+	 * The first failure is kept for throwInsertFailure().
+	 */
+	private synchronized void flushPendingInserts() {
+		if (numPendingInserts == 0) {
+			return;
+		}
+		Connection conn = null;
+		try {
+			conn = pool.getConnection();
+		} catch (SQLException e) {
+			recordInsertFailure("insert failed #tuples: " + numPendingInserts + " (kept buffered)", e);
+			return;
+		}
+		try {
+			Iterator<Entry<String, ArrayList<ArrayList<SimpleTerm>>>> it = pendingInserts.entrySet().iterator();
+			while (it.hasNext() == true) {
+				Entry<String, ArrayList<ArrayList<SimpleTerm>>> entry = it.next();
+				String rel = entry.getKey();
+				ArrayList<ArrayList<SimpleTerm>> tuples = entry.getValue();
+				try {
+					if (tuples.size() >= insertCopyThreshold) {
+						copyTuples(conn, rel, tuples);
+					} else {
+						batchTuples(conn, rel, tuples);
+					}
+				} catch (SQLException | IOException e) { // nothing was written, as COPY and the batch are atomic
+					Util.Console.errln("insert failed rel: " + rel + " #tuples: " + tuples.size() + " e: " + e.getMessage()
+							+ " (retrying row by row)");
+					insertRowByRow(conn, rel, tuples);
+				}
+				addRowsSinceAnalyze(tuples.size());
+				numPendingInserts -= tuples.size();
+				it.remove();
+			}
+		} finally {
+			release(conn);
+		}
+	}
+
+	private void insertRowByRow(Connection conn, String rel, ArrayList<ArrayList<SimpleTerm>> tuples) {
+		ArrayList<ArrayList<SimpleTerm>> row = new ArrayList<ArrayList<SimpleTerm>>();
+		for (ArrayList<SimpleTerm> t : tuples) {
+			row.clear();
+			row.add(t);
 			try {
-				stmt.close();
-				conn.close();
-				conn = null;
+				batchTuples(conn, rel, row);
 			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				recordInsertFailure("insert failed rel: " + rel + " tuple: " + t, e);
+			}
+		}
+	}
+
+	private void recordInsertFailure(String msg, Exception e) {
+		Util.Console.errln(msg + " e: " + e.getMessage());
+		if (insertFailure == null) {
+			insertFailure = e;
+		}
+	}
+
+	private synchronized void throwInsertFailure() {
+		if (insertFailure != null) {
+			Exception e = insertFailure;
+			insertFailure = null;
+			throw new IllegalStateException("Buffered insert failed: " + e.getMessage(), e);
+		}
+	}
+
+	private void batchTuples(Connection conn, String rel, ArrayList<ArrayList<SimpleTerm>> tuples) throws SQLException {
+		int arity = tuples.get(0).size();
+		StringBuilder str = new StringBuilder();
+		str.append("INSERT INTO ").append(rel).append(" VALUES (");
+		for (int i = 0; i < arity; i++) {
+			str.append((i > 0) ? ", ?" : "?");
+		}
+		str.append(")");
+		logSql(str.toString() + " #tuples: " + tuples.size());
+
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try (PreparedStatement ps = conn.prepareStatement(str.toString())) {
+			for (ArrayList<SimpleTerm> t : tuples) {
+				for (int i = 0; i < t.size(); i++) {
+					SimpleTerm st = t.get(i);
+					if (st instanceof StringSimpleTerm) {
+						ps.setObject(i + 1, st.getString(), Types.OTHER); // untyped like a quoted literal
+					} else if (st instanceof LongSimpleTerm) {
+						ps.setLong(i + 1, st.getLong());
+					} else if (st instanceof IntegerSimpleTerm) {
+						ps.setInt(i + 1, st.getInt());
+					}
+				}
+				ps.addBatch();
 			}
+			ps.executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	private void copyTuples(Connection conn, String rel, ArrayList<ArrayList<SimpleTerm>> tuples) throws SQLException, IOException {
+		StringBuilder str = new StringBuilder();
+		for (ArrayList<SimpleTerm> t : tuples) {
+			for (int i = 0; i < t.size(); i++) {
+				if (i > 0) {
+					str.append(",");
+				}
+				SimpleTerm st = t.get(i);
+				if (st instanceof StringSimpleTerm) {
+					str.append("\"").append(st.getString().replace("\"", "\"\"")).append("\"");
+				} else if (st instanceof LongSimpleTerm) {
+					str.append(st.getLong());
+				} else if (st instanceof IntegerSimpleTerm) {
+					str.append(st.getInt());
+				}
+			}
+			str.append("\n");
+		}
+		String sql = "COPY " + rel + " FROM STDIN (FORMAT csv)";
+		logSql(sql + " #tuples: " + tuples.size());
+		new CopyManager(conn.unwrap(BaseConnection.class)).copyIn(sql, new StringReader(str.toString()));
+	}
+
+	public synchronized void disconnect() {
+		if (flusher != null) {
+			flusher.shutdown();
+			flusher = null;
+		}
+		if (pool != null) {
+			flushPendingInserts();
+			if (numPendingInserts > 0) {
+				Util.Console.errln("disconnect drops #tuples: " + numPendingInserts + " not inserted");
+				pendingInserts.clear();
+				numPendingInserts = 0;
+			}
+			pool.close();
+			pool = null;
 		}
 		
 //		try {
@@ -86,49 +463,55 @@ public class Postgres {
 	public void executeUpdate(String query) {
 //		System.out.println("[executeUpdate] query: " + query + " stmt: " + stmt + " dbname: " + dbname);
 //		int tid = Util.startTimer();
+		flushInserts();
+		logSql(query);
 		
-		Util.writeToFile("test.sql", query + "\n\n", true); // log sql
-		
+		Connection conn = null;
 		try {
-			// Analyze base tables if they exist (for query optimization)
-			// Wrap in try-catch to handle cases where tables don't exist yet
-			try {
-				stmt.execute("analyze N_g");
-				stmt.execute("analyze E_g");
-			} catch (PSQLException analyzeEx) {
-				// Tables don't exist yet (during initialization), silently ignore
-			}
+			conn = pool.getConnection();
+			// Analyze base tables (for query optimization) if they changed enough
+			analyzeIfNeeded(conn);
 
 //			ResultSet rs = stmt.executeQuery("EXPLAIN " + query);
 //			while(rs.next()) {
 //				System.out.println("[Postgres] 4321999rs: " + rs.getShort(0));
 //			}
 
-			System.out.println("[executeUpdate] ... after analyze");
-			stmt.executeUpdate(query);
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate(query);
+			}
 		} catch (PSQLException e) {
 			System.out.println("[ERR] query: " + query + " e: " + e + " msg: " + e.getMessage());
 		} catch ( Exception e ) {
 			System.out.println("[ERR] query2: " + query + " e: " + e + " msg: " + e.getMessage());
 			e.printStackTrace();
+		} finally {
+			release(conn);
 		}
 	}
 
 	public void executeUpdate2(String query) {
 //		System.out.println("[executeUpdate] query: " + query + " stmt: " + stmt + " dbname: " + dbname);
 //		int tid = Util.startTimer();
+		flushInserts();
+		Connection conn = null;
 		try {
+			conn = pool.getConnection();
+			Statement stmt = conn.createStatement();
 //			stmt.executeUpdate("COMMIT; VACUUM; COMMIT;");
 			ResultSet rs = stmt.executeQuery("EXPLAIN ANALYZE " + query);
 			while(rs.next()) {
 				System.out.println("[Postgres] 4321rs: " + rs.getShort(0));
 			}
 			System.out.println("[Postgres] ************************ sisdio23109847");
+			stmt.close();
 		} catch (PSQLException e) {
 			Util.Console.errln("query: " + query + " e: " + e + " msg: " + e.getMessage());
 		} catch ( Exception e ) {
 			Util.Console.errln("query2: " + query + " e: " + e + " msg: " + e.getMessage());
 			e.printStackTrace();
+		} finally {
+			release(conn);
 		}
 	}
 
@@ -152,119 +535,172 @@ public class Postgres {
 
 		String sql = "INSERT INTO " + name +" (ID,NAME,AGE,ADDRESS,SALARY) "
 				+ "VALUES (" + i + ", 'Paul', " + rv + ", 'California', 20000.00 );";
-		try {
-			stmt.executeUpdate(sql);
-		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		executeUpdate(sql);
 	}
 
+	/**
+	 * Run a query and return its (fully read) result set, which stays usable after the
+	 * connection goes back to the pool.
+	 */
 	public ResultSet getResultSetFromSelect(String query) {
-		ResultSet rs = null;
+		CachedRowSet crs = null;
+		flushInserts();
+		Connection conn = null;
 		try {
-			rs = stmt.executeQuery(query);		
+			conn = pool.getConnection();
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery(query)) {
+				crs = RowSetProvider.newFactory().createCachedRowSet();
+				crs.populate(rs);
+			}
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			release(conn);
 		}
-		return rs;
+		return crs;
 	}
 
 	public StoreResultSet select(String query) {
-		ResultSet rs = null;
 		StoreResultSet result = new StoreResultSet();
 
-		Util.writeToFile("test.sql", query + "\n\n", true); // log sql
-		
-//		if (query.startsWith("((SELECT DISTINCT R0._1 AS _0 FROM E_g AS R0 CROSS JOIN") == true) {
-//			query = "((SELECT count(DISTINCT R0._1) FROM E_g AS R0 CROSS JOIN E_g AS R2 CROSS JOIN E_g AS R4 CROSS JOIN E_g AS R6 CROSS JOIN N_g AS R8 CROSS JOIN N_g AS R10 CROSS JOIN N_g AS R12 CROSS JOIN N_g AS R14 WHERE R0._2 = R6._2 AND R0._2 = R8._0 AND R0._1 = R2._2 AND R0._1 = R10._0 AND R4._2 = R6._1 AND R4._2 = R12._0 AND R2._1 = R4._1 AND R2._1 = R14._0 AND R0._3 = 'KNOWS' AND R2._3 = 'HASCREATOR' AND R4._3 = 'REPLYOF' AND R6._3 = 'HASCREATOR' AND R8._1 = 'Person' AND R10._1 = 'Person' AND R12._1 = 'Post' AND R14._1 = 'Comment' AND R0._1 < 3945000));";
-//		}
-		
-		int numRows = 0;
-		int numCols = 0;
+		select(query, new StoreRowHandler() {
+			@Override
+			public void setColumns(ArrayList<String> columns) {
+				result.getColumns().addAll(columns);
+			}
 
-		try {
-			System.out.println("[Postgres-342] query: " + query);
+			@Override
+			public boolean handle(Tuple<SimpleTerm> row) {
+				result.getResultSet().add(row);
+				return true;
+			}
+		});
+		return result;
+	}
 
-//			System.out.println("rs: " + rs.toString())		
-//			stmt.executeUpdate("COMMIT; VACUUM; COMMIT;");
+	/**
+	 * Run a query and pass its rows to handler as they are fetched. Rows are read through
+	 * a cursor of fetch_size rows ([postgres] section of the config file), so memory does not
+	 * grow with the size of the answer. The plan is printed only when debug logging is on.
+	 * 
+	 * @return number of rows passed to handler
+	 */
+	public long select(String query, StoreRowHandler handler) {
+		return select(query, null, handler);
+	}
 
-			// Analyze base tables if they exist (for query optimization)
-			// Wrap in try-catch to handle cases where tables don't exist yet
-			try {
-				stmt.execute("analyze N_g");
-				stmt.execute("analyze E_g");
-			} catch (PSQLException analyzeEx) {
-				// Tables don't exist yet (during initialization), silently ignore
-			}
+	/**
+	 * Run a query with ? placeholders bound to params in order, through a PreparedStatement,
+	 * so the server can reuse its plan (prepareThreshold) across values. Values are sent with
+	 * an unspecified type and take the type of the column they are compared with.
+	 * 
+	 * @param params values of the placeholders (null: query has no placeholders)
+	 * @return number of rows passed to handler
+	 * @throws IllegalStateException if the query fails, possibly after some rows were passed to handler
+	 */
+	public long select(String query, List<Object> params, StoreRowHandler handler) {
+		flushInserts();
+		logSql(query + ((params != null) ? " params: " + params : ""));
+		
+		long numRows = 0;
+		Connection conn = null;
+		try {
+			conn = pool.getConnection();
+			// Analyze base tables (for query optimization) if they changed enough
+			analyzeIfNeeded(conn);
 			
-			rs = stmt.executeQuery("explain " + query);
-//			rs = stmt.executeQuery("select plan_table_output from table(dbms_xplan.display())");
-			while (rs.next())
-			{
-			  System.out.println(rs.getString(1));
+			if (logger.isDebugEnabled() == true) {
+				try (PreparedStatement stmt = conn.prepareStatement("explain " + query)) {
+					bindParams(stmt, params);
+					try (ResultSet plan = stmt.executeQuery()) {
+						while (plan.next()) {
+							logger.debug(plan.getString(1));
+						}
+					}
+				}
 			}
 			
-			System.out.println("[Postgres-342] queryA: " + query);
-			
 			int tid4 = Util.startTimer();
-			rs = stmt.executeQuery(query);
-
-			System.out.println("[Postgres-343] etime: " + Util.getElapsedTime(tid4) + " query: " + query);
-//			Util.Console.logln("=== [BEGIN] QUERY ANSWER ===");
-
-			ResultSetMetaData rsmd = rs.getMetaData();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-				result.getColumns().add(rsmd.getColumnName(i));
-			}
-			numCols = rsmd.getColumnCount();
-
-//			if (Config.isAnswerEnabled() == true) { 
-//				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-//					System.out.print(rsmd.getColumnName(i) + " ");
-//				}
-//				System.out.println("\n=========");
-//			} 
-
-			while ( rs.next() ) {
-				Tuple<SimpleTerm> t = new Tuple<SimpleTerm>();
-				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-					if (rsmd.getColumnType(i) == Types.INTEGER) {
-						int val = rs.getInt(i);
-						t.getTuple().add(new LongSimpleTerm(val));
-//						if (Config.isAnswerEnabled() == true) {
-//							System.out.print(val + " ");
-//						}
-					} else {
-						String val = rs.getString(i);
-						t.getTuple().add(new StringSimpleTerm(val));
-//						if (Config.isAnswerEnabled() == true) {
-//							System.out.print(val + " ");
-//						}
-					} 
+			
+			// cursors are used only outside of autocommit mode
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try (PreparedStatement cursorStmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				cursorStmt.setFetchSize(fetchSize);
+				bindParams(cursorStmt, params);
+				ResultSet rs = cursorStmt.executeQuery();
+				
+				ResultSetMetaData rsmd = rs.getMetaData();
+				int numCols = rsmd.getColumnCount();
+				int[] types = new int[numCols + 1];
+				ArrayList<String> columns = new ArrayList<String>();
+				for (int i = 1; i <= numCols; i++) {
+					columns.add(rsmd.getColumnName(i));
+					types[i] = rsmd.getColumnType(i);
 				}
-				result.getResultSet().add(t);
-				numRows++;
-//				if (Config.isAnswerEnabled() == true) {;
-//					System.out.println();
-//				}
+				handler.setColumns(columns);
+	
+				while (rs.next()) {
+					Tuple<SimpleTerm> t = new Tuple<SimpleTerm>();
+					for (int i = 1; i <= numCols; i++) {
+						if (types[i] == Types.INTEGER) {
+							t.getTuple().add(new LongSimpleTerm(rs.getInt(i)));
+						} else {
+							t.getTuple().add(new StringSimpleTerm(rs.getString(i)));
+						} 
+					}
+					numRows++;
+					if (handler.handle(t) == false) {
+						break;
+					}
+				}
+				rs.close();
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
 			}
-			rs.close();	
-//			Util.Console.logln("(" + numRows + " row(s) " + numCols + " col(s))");			         
+			logger.debug("[select] etime: " + Util.getElapsedTime(tid4) + " #rows: " + numRows + " query: " + query);
 		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			Util.Console.errln("select failed query: " + query);
+			// rows already passed to handler may have been sent, so the caller must not take them as the answer
+			Util.Console.errln("select failed after " + numRows + " row(s) query: " + query);
+			throw new IllegalStateException("select failed after " + numRows + " row(s): " + e.getMessage(), e);
+		} finally {
+			release(conn);
+		}
+		return numRows;
+	}
 
-			e.printStackTrace();
+	private static void bindParams(PreparedStatement stmt, List<Object> params) throws SQLException {
+		if (params == null) {
+			return;
+		}
+		for (int i = 0; i < params.size(); i++) {
+			stmt.setObject(i + 1, String.valueOf(params.get(i)), Types.OTHER);
+		}
+	}
+
+	/**
+	 * Run a statement on a pooled connection, throwing its error to the caller.
+	 */
+	private void executeStatement(String sql) throws SQLException {
+		Connection conn = pool.getConnection();
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate(sql);
+		} finally {
+			release(conn);
 		}
-		return result;
 	}
 
 	public boolean createDatabase(String name) {
+		flushInserts();
 		String sql = "CREATE DATABASE " + name;
 		try {
-			stmt.executeUpdate(sql);
+			executeStatement(sql);
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 //			System.out.println("[createDatabase] sql: " + sql);
@@ -276,11 +712,12 @@ public class Postgres {
 	}	
 
 	public boolean dropDatabase(String name) {
+		flushInserts();
 		String sql = "DROP DATABASE " + name;
 
 		try {
 //			System.out.println("dbname: " + dbname+ " drop: " + sql);
-			stmt.executeUpdate(sql);
+			executeStatement(sql);
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			System.out.println("****FAILED TO DROP DB dbname: " + dbname+ " drop: " + sql);
@@ -294,9 +731,10 @@ public class Postgres {
 //	}
 
 	public void dropTable(String name) {
+		flushInserts();
 		String sql = "DROP TABLE IF EXISTS " + name;
 		try {
-			stmt.executeUpdate(sql);
+			executeStatement(sql);
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -305,8 +743,11 @@ public class Postgres {
 
 	public void copy(String sql, String filePath) {
 		CopyManager copyManager;
+		flushInserts();
+		Connection conn = null;
 		try {
-			copyManager = new CopyManager((BaseConnection) conn);
+			conn = pool.getConnection();
+			copyManager = new CopyManager(conn.unwrap(BaseConnection.class));
 			FileReader fileReader = new FileReader(filePath);
 			copyManager.copyIn(sql, fileReader );
 		} catch (SQLException e) {
@@ -318,38 +759,125 @@ public class Postgres {
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			release(conn);
 		}
 	}
 
+	/**
+	 * Import N or E from a CSV file (with a header line). Chunks of the file are copied over
+	 * import_threads connections in parallel (see CSVBulkLoader). If the table is empty and
+	 * import_defer_indexes is set, its indexes are dropped before the load and built again
+	 * (in parallel) after it.
+	 */
 	public long importFromCSV(String relName, String filePath) {
 		// TODO Auto-generated method stub
 		long rowsInserted = 0;
+		flushInserts();
+		String table = relName + Config.relname_base_postfix;
+		String cols = "";
+		if (relName.equalsIgnoreCase("n")) {
+			cols = "(_0, _1)";
+		} else {
+			cols = "(_0, _1, _2, _3)";
+		}
+		String copy = "COPY " + table + " " + cols + " FROM STDIN (FORMAT csv)";
+		logSql(copy + " -- " + filePath);
+		
+		ArrayList<String> indexes = null;
 		try {
-			String cols = "";
-			if (relName.equalsIgnoreCase("n")) {
-				cols = "(_0, _1)";
-			} else {
-				cols = "(_0, _1, _2, _3)";
+			if (importDeferIndexes == true && isEmpty(table) == true) {
+				indexes = dropIndexes(table);
 			}
-			rowsInserted = new CopyManager((BaseConnection) conn)
-					.copyIn(
-							"COPY " + relName + Config.relname_base_postfix + " " + cols + " FROM STDIN (FORMAT csv, HEADER)", 
-							new BufferedReader(new FileReader(filePath))
-							);
+			rowsInserted = CSVBulkLoader.load(filePath, reader -> {
+				Connection conn = pool.getConnection();
+				try {
+					return new CopyManager(conn.unwrap(BaseConnection.class)).copyIn(copy, reader);
+				} finally {
+					release(conn);
+				}
+			});
+			addRowsSinceAnalyze(rowsInserted);
 		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
 			Util.Console.errln("File Not Exists [" + filePath +"]"); 
-//			e.printStackTrace();
-		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		} catch (IOException | SQLException e) {
+			throw new IllegalStateException("Cannot import CSV file [" + filePath + "] into " + table, e);
+		} finally {
+			if (indexes != null) {
+				createIndexes(indexes);
+			}
 		}
 		return rowsInserted;
 	}
 	
+	private boolean isEmpty(String table) throws SQLException {
+		Connection conn = pool.getConnection();
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT NOT EXISTS (SELECT 1 FROM " + table + ")")) {
+			return rs.next() == true && rs.getBoolean(1) == true;
+		} finally {
+			release(conn);
+		}
+	}
+	
+	/**
+	 * Drop the indexes of a table.
+	 * @return statements to create them again
+	 */
+	private ArrayList<String> dropIndexes(String table) throws SQLException {
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<String> defs = new ArrayList<String>();
+		Connection conn = pool.getConnection();
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT indexname, indexdef FROM pg_indexes "
+						+ "WHERE schemaname = current_schema() AND tablename = '" + table.toLowerCase() + "'")) {
+			while (rs.next()) {
+				names.add(rs.getString(1));
+				// an index of a partitioned table is defined ON ONLY the table, without its partitions
+				defs.add(rs.getString(2).replace(" ON ONLY ", " ON "));
+			}
+		} finally {
+			release(conn);
+		}
+		for (String name : names) {
+			executeStatement("DROP INDEX IF EXISTS \"" + name + "\"");
+		}
+		uniqueIds = null;
+		logger.debug("[importFromCSV] dropped indexes of " + table + ": " + names);
+		return defs;
+	}
+	
+	/**
+	 * Create indexes over import_threads connections in parallel
+	 */
+	private void createIndexes(ArrayList<String> defs) {
+		if (defs.size() == 0) {
+			return;
+		}
+		int tid = Util.startTimer();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(CSVBulkLoader.getNumThreads(), defs.size()));
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (String def : defs) {
+			futures.add(executor.submit(() -> {
+				executeStatement(def);
+				return null;
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				Util.Console.errln("Failed to create index: " + defs.get(i) + " e: " + e.getCause());
+			}
+		}
+		executor.shutdown();
+		uniqueIds = null;
+		Util.Console.logln("[import] built " + defs.size() + " index(es) etime: " + Util.getElapsedTime(tid));
+	}
+	
 	/**
 	 * @param dbName Database name
 	 * @param filePath File path to the sql file to import
@@ -0,0 +1,163 @@
+package edu.upenn.cis.db.datalog.simpleengine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.DatalogParser;
+import edu.upenn.cis.db.datalog.DatalogProgram;
+import edu.upenn.cis.db.graphtrans.Config;
+
+public class SimpleDatalogEngineTest {
+	// 1 -> 2 -> 3 -> 4 -> 2
+	private static final long[][] edges = {{1, 2}, {2, 3}, {3, 4}, {4, 2}};
+
+	@BeforeClass
+	public static void setUp() {
+		Config.initialize();
+	}
+
+	private static List<DatalogClause> parse(String ... rules) {
+		ArrayList<DatalogClause> cs = new ArrayList<DatalogClause>();
+		for (String r : rules) {
+			cs.add(new DatalogParser(new DatalogProgram()).ParseQuery(r));
+		}
+		return cs;
+	}
+
+	private static void addRel(SimpleDatalogEngine engine, String name, long[][] tuples) {
+		ArrayList<String> cols = new ArrayList<String>();
+		for (int i = 0; i < tuples[0].length; i++) {
+			cols.add("_" + (i + 1));
+		}
+		Relation rel = new Relation(cols, engine.getDictionary());
+		for (long[] t : tuples) {
+			rel.addTuple(new LongTuple(t));
+		}
+		engine.addRel(name, rel);
+	}
+
+	private static HashSet<LongTuple> getTuples(SimpleDatalogEngine engine, String name) {
+		HashSet<LongTuple> tuples = new HashSet<LongTuple>();
+		if (engine.getRelation(name) != null) {
+			for (LongTuple t : engine.getRelation(name)) {
+				tuples.add(t);
+			}
+		}
+		return tuples;
+	}
+
+	private static HashSet<LongTuple> getTuples(long[][] tuples) {
+		HashSet<LongTuple> set = new HashSet<LongTuple>();
+		for (long[] t : tuples) {
+			set.add(new LongTuple(t));
+		}
+		return set;
+	}
+
+	private static SimpleDatalogEngine getEngine() {
+		SimpleDatalogEngine engine = new SimpleDatalogEngine();
+		addRel(engine, "E", edges);
+		addRel(engine, "N", new long[][] {{1}, {2}, {3}, {4}});
+		return engine;
+	}
+
+	@Test
+	public void testReachability() {
+		SimpleDatalogEngine engine = getEngine();
+		engine.executeRules(parse("R(x,y) <- E(x,y).", "R(x,z) <- R(x,y), E(y,z)."));
+
+		assertEquals(getTuples(new long[][] {
+			{1, 2}, {1, 3}, {1, 4},
+			{2, 2}, {2, 3}, {2, 4},
+			{3, 2}, {3, 3}, {3, 4},
+			{4, 2}, {4, 3}, {4, 4}}), getTuples(engine, "R"));
+	}
+
+	@Test
+	public void testNegationOverLowerStratum() {
+		SimpleDatalogEngine engine = getEngine();
+		// U reads R, so it runs after the recursive stratum of R although it is listed first
+		engine.executeRules(parse("U(x,y) <- N(x), N(y), !R(x,y).",
+				"R(x,y) <- E(x,y).", "R(x,z) <- R(x,y), E(y,z)."));
+
+		assertEquals(getTuples(new long[][] {{1, 1}, {2, 1}, {3, 1}, {4, 1}}), getTuples(engine, "U"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegationInCycle() {
+		SimpleDatalogEngine engine = getEngine();
+		engine.executeRules(parse("P(x) <- N(x), !Q(x).", "Q(y) <- P(x), E(x,y)."));
+	}
+
+	@Test
+	public void testNonRecursiveStrata() {
+		SimpleDatalogEngine engine = getEngine();
+		engine.executeRules(parse("T(x,z) <- P(x,y), E(y,z).", "P(x,y) <- E(x,y), x < y."));
+
+		assertEquals(getTuples(new long[][] {{1, 2}, {2, 3}, {3, 4}}), getTuples(engine, "P"));
+		assertEquals(getTuples(new long[][] {{1, 3}, {2, 4}, {3, 2}}), getTuples(engine, "T"));
+	}
+
+	@Test
+	public void testParallelStrata() {
+		long[][] f = new long[200][];
+		for (int i = 0; i < 100; i++) {
+			f[2 * i] = new long[] {i, (i + 1) % 100};
+			f[2 * i + 1] = new long[] {i, (i * 3) % 100};
+		}
+		String[][] strata = {
+			{"R1(x,y) <- E(x,y).", "R1(x,z) <- R1(x,y), E(y,z)."},
+			{"R2(x,y) <- F(x,y).", "R2(x,z) <- R2(x,y), F(y,z)."},
+			{"U(x,y) <- N(x), N(y), !R1(x,y)."},
+			{"W(x,y) <- R1(x,y), R2(x,y)."}};
+
+		// independent strata run on the pool
+		SimpleDatalogEngine parallel = getEngine();
+		addRel(parallel, "F", f);
+		ArrayList<DatalogClause> cs = new ArrayList<DatalogClause>();
+		for (String[] stratum : strata) {
+			cs.addAll(parse(stratum));
+		}
+		parallel.executeRules(cs);
+
+		// a single stratum at a time runs on the calling thread
+		SimpleDatalogEngine sequential = getEngine();
+		addRel(sequential, "F", f);
+		for (String[] stratum : strata) {
+			sequential.executeRules(parse(stratum));
+		}
+
+		assertEquals(10000, getTuples(sequential, "R2").size());
+		for (String rel : new String[] {"R1", "R2", "U", "W"}) {
+			assertEquals(rel, getTuples(sequential, rel), getTuples(parallel, rel));
+		}
+	}
+
+	@Test
+	public void testParallelJoin() {
+		SimpleDatalogEngine engine = new SimpleDatalogEngine();
+		// more probe rows than the threshold of partitioned joins
+		long[][] a = new long[100000][];
+		long[][] b = new long[1000][];
+		HashSet<LongTuple> expected = new HashSet<LongTuple>();
+		for (int i = 0; i < a.length; i++) {
+			a[i] = new long[] {i, i % b.length};
+			expected.add(new LongTuple(i, 2 * (i % b.length)));
+		}
+		for (int i = 0; i < b.length; i++) {
+			b[i] = new long[] {i, 2 * i};
+		}
+		addRel(engine, "A", a);
+		addRel(engine, "B", b);
+		engine.executeRules(parse("J(x,z) <- A(x,y), B(y,z)."));
+
+		assertEquals(expected, getTuples(engine, "J"));
+	}
+}
@@ -0,0 +1,58 @@
+package edu.upenn.cis.db.graphtrans;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PreparedQueryTest {
+	@Test
+	public void testNumParams() {
+		assertEquals(0, new PreparedQuery("q", "MATCH (a:A) FROM g RETURN (a)").getNumParams());
+		assertEquals(2, new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $1 AND a < $2 AND a != $1 RETURN (a)").getNumParams());
+		assertEquals(1, new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $ 1 RETURN (a)").getNumParams());
+	}
+
+	@Test
+	public void testQuotedParameter() {
+		PreparedQuery pq = new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a.name = \"$1\" AND a = $1 RETURN (a)");
+		assertEquals(1, pq.getNumParams());
+		assertEquals("MATCH (a:A) FROM g WHERE a.name = \"$1\" AND a = 7 RETURN (a)",
+				pq.getQueryForValues(Arrays.asList((Object)7L)));
+	}
+
+	@Test
+	public void testQueryForValues() {
+		PreparedQuery pq = new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $1 AND a.name = $2 RETURN (a)");
+		assertEquals("MATCH (a:A) FROM g WHERE a = 7 AND a.name = \"B\" RETURN (a)",
+				pq.getQueryForValues(Arrays.asList((Object)7L, "B")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingParameter() {
+		new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $1 AND a < $3 RETURN (a)");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParameterZero() {
+		new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $0 RETURN (a)");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDollarWithoutNumber() {
+		new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $x RETURN (a)");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewValues() {
+		PreparedQuery pq = new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a = $1 AND a < $2 RETURN (a)");
+		pq.getQueryForValues(Arrays.asList((Object)7L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueWithDoubleQuote() {
+		PreparedQuery pq = new PreparedQuery("q", "MATCH (a:A) FROM g WHERE a.name = $1 RETURN (a)");
+		pq.getQueryForValues(Arrays.asList((Object)"a\"b"));
+	}
+}
@@ -0,0 +1,48 @@
+package edu.upenn.cis.db.graphtrans;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class QueryPlanCacheTest {
+	@Test
+	public void testWhitespace() {
+		assertEquals("MATCH (a:A) FROM g RETURN (a)", QueryPlanCache.normalize("  MATCH (a:A)\n\tFROM   g RETURN (a) "));
+		assertEquals(QueryPlanCache.normalize("MATCH (a:A) FROM g RETURN (a)"), QueryPlanCache.normalize("MATCH  (a:A) FROM g\nRETURN (a)"));
+	}
+
+	@Test
+	public void testSemicolon() {
+		assertEquals("MATCH (a:A) FROM g RETURN (a)", QueryPlanCache.normalize("MATCH (a:A) FROM g RETURN (a);"));
+		assertEquals("MATCH (a:A) FROM g RETURN (a)", QueryPlanCache.normalize("MATCH (a:A) FROM g RETURN (a) ; "));
+		assertEquals("MATCH (a:A) FROM g WHERE a.x = \"b;\"", QueryPlanCache.normalize("MATCH (a:A) FROM g WHERE a.x = \"b;\""));
+	}
+
+	@Test
+	public void testQuotes() {
+		assertEquals("WHERE a.x = \"b  c\" AND a.y = 'd  e'", QueryPlanCache.normalize("WHERE  a.x = \"b  c\"  AND a.y = 'd  e'"));
+		assertEquals("WHERE a.x = 'it''s  b'", QueryPlanCache.normalize("WHERE a.x =  'it''s  b'"));
+		assertNotEquals(QueryPlanCache.normalize("WHERE a.x = \"b c\""), QueryPlanCache.normalize("WHERE a.x = \"b  c\""));
+	}
+
+	@Test
+	public void testParameters() {
+		assertEquals("WHERE a.x = \"$1\" AND a = $1", QueryPlanCache.normalize("WHERE a.x = \"$1\"   AND a = $1"));
+		assertNotEquals(QueryPlanCache.normalize("WHERE a.x = \"$1\""), QueryPlanCache.normalize("WHERE a.x = $1"));
+	}
+
+	@Test
+	public void testPlatform() {
+		String platform = Config.getPlatform();
+		try {
+			Config.setPlatform("pg");
+			String key = QueryPlanCache.getKey("MATCH (a:A) FROM g RETURN (a)");
+			assertEquals(key, QueryPlanCache.getKey("MATCH (a:A)  FROM g RETURN (a);"));
+			Config.setPlatform("n4");
+			assertNotEquals(key, QueryPlanCache.getKey("MATCH (a:A) FROM g RETURN (a)"));
+		} finally {
+			Config.setPlatform(platform);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package edu.upenn.cis.db.graphtrans.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class QueryToCypherParserTest {
+	@Test
+	public void testLiftConstants() {
+		ArrayList<Object> constants = new ArrayList<Object>();
+		String query = QueryToCypherParser.liftConstants(
+				"MATCH (a:A)-[x:X]->(b:B) FROM g WHERE a.val = 10 AND b.name >= \"B\" AND a != b RETURN (a)", 1, constants);
+		assertEquals("MATCH (a:A)-[x:X]->(b:B) FROM g WHERE a.val = $1 AND b.name >= $2 AND a != b RETURN (a)", query);
+		assertEquals(Arrays.asList((Object)10L, "B"), constants);
+	}
+
+	@Test
+	public void testFirstParam() {
+		ArrayList<Object> constants = new ArrayList<Object>(Arrays.asList((Object)"C"));
+		String query = QueryToCypherParser.liftConstants("MATCH (a:A) FROM g WHERE a.name = $1 AND a < 150 RETURN (a)", 2, constants);
+		assertEquals("MATCH (a:A) FROM g WHERE a.name = $1 AND a < $2 RETURN (a)", query);
+		assertEquals(Arrays.asList((Object)"C", 150L), constants);
+	}
+
+	@Test
+	public void testLongInteger() {
+		ArrayList<Object> constants = new ArrayList<Object>();
+		String query = "MATCH (a:A) FROM g WHERE a = 99999999999999999999 RETURN (a)";
+		assertEquals(query, QueryToCypherParser.liftConstants(query, 1, constants));
+		assertEquals(0, constants.size());
+	}
+
+	@Test
+	public void testQuotedParameter() {
+		ArrayList<Object> constants = new ArrayList<Object>();
+		String query = "MATCH (a:A) FROM g WHERE a.name = \"$1\" RETURN (a)";
+		assertEquals(query, QueryToCypherParser.liftConstants(query, 1, constants));
+		assertEquals(0, constants.size());
+	}
+}
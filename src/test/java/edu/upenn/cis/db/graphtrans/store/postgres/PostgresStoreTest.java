@@ -0,0 +1,68 @@
+package edu.upenn.cis.db.graphtrans.store.postgres;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PostgresStoreTest {
+	private static final List<Object> params = Arrays.asList((Object)10L, "A");
+
+	@Test
+	public void testParameters() {
+		ArrayList<Object> values = new ArrayList<Object>();
+		String sql = PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE x = $1 AND l = $2 AND y > $1", params, values);
+		assertEquals("SELECT x FROM t WHERE x = ? AND l = ? AND y > ?", sql);
+		assertEquals(Arrays.asList((Object)10L, "A", 10L), values);
+	}
+
+	@Test
+	public void testQuotedParameter() {
+		ArrayList<Object> values = new ArrayList<Object>();
+		String sql = PostgresStore.getSqlWithPlaceholders("SELECT '$2' AS l, x FROM t WHERE x = $1", params, values);
+		assertEquals("SELECT ? AS l, x FROM t WHERE x = ?", sql);
+		assertEquals(Arrays.asList((Object)"A", 10L), values);
+	}
+
+	@Test
+	public void testParameterInString() {
+		ArrayList<Object> values = new ArrayList<Object>();
+		String sql = PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE l = 'a $1' AND x = $1", params, values);
+		assertEquals("SELECT x FROM t WHERE l = 'a $1' AND x = ?", sql);
+		assertEquals(Arrays.asList((Object)10L), values);
+	}
+
+	@Test
+	public void testEscapedQuotes() {
+		ArrayList<Object> values = new ArrayList<Object>();
+		String sql = PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE l = 'it''s $1' OR l = 'x''$1' OR l = '''$1'''",
+				params, values);
+		assertEquals("SELECT x FROM t WHERE l = 'it''s $1' OR l = 'x''$1' OR l = '''$1'''", sql);
+		assertEquals(0, values.size());
+
+		sql = PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE l = '$1''s' AND x = $1", params, values);
+		assertEquals("SELECT x FROM t WHERE l = '$1''s' AND x = ?", sql);
+		assertEquals(Arrays.asList((Object)10L), values);
+	}
+
+	@Test
+	public void testStringStartingWithDollar() {
+		ArrayList<Object> values = new ArrayList<Object>();
+		String sql = PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE l = '$1a' OR l = '$' OR l = '$$'", params, values);
+		assertEquals("SELECT x FROM t WHERE l = '$1a' OR l = '$' OR l = '$$'", sql);
+		assertEquals(0, values.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParameterOutOfRange() {
+		PostgresStore.getSqlWithPlaceholders("SELECT x FROM t WHERE x = $3", params, new ArrayList<Object>());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQuotedParameterOutOfRange() {
+		PostgresStore.getSqlWithPlaceholders("SELECT '$0' AS l FROM t", params, new ArrayList<Object>());
+	}
+}
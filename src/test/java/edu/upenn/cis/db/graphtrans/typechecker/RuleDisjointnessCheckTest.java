@@ -0,0 +1,81 @@
+package edu.upenn.cis.db.graphtrans.typechecker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.upenn.cis.db.datalog.DatalogClause;
+import edu.upenn.cis.db.datalog.DatalogParser;
+import edu.upenn.cis.db.datalog.DatalogProgram;
+import edu.upenn.cis.db.graphtrans.Config;
+
+public class RuleDisjointnessCheckTest {
+	@BeforeClass
+	public static void setUp() {
+		Config.initialize();
+	}
+
+	private static DatalogClause parse(String rule) {
+		return new DatalogParser(new DatalogProgram()).ParseQuery(rule);
+	}
+
+	private static List<DatalogClause> parse(String ... rules) {
+		ArrayList<DatalogClause> cs = new ArrayList<DatalogClause>();
+		for (String r : rules) {
+			cs.add(parse(r));
+		}
+		return cs;
+	}
+
+	@Test
+	public void testDuplicateFree() {
+		assertTrue(RuleDisjointnessCheck.isDuplicateFree(parse("V(a,l) <- N_g(a,l).")));
+		assertTrue(RuleDisjointnessCheck.isDuplicateFree(parse("V(e,a,b) <- E_g(e,a,b,\"X\"), N_g(a,\"A\"), N_g(b,\"B\").")));
+		assertTrue(RuleDisjointnessCheck.isDuplicateFree(parse("V(s) <- N_g(a,\"A\"), GENNEWID_MAP_1(a,s).")));
+	}
+
+	@Test
+	public void testNotDuplicateFree() {
+		assertFalse(RuleDisjointnessCheck.isDuplicateFree(parse("V(l) <- N_g(a,l).")));
+		assertFalse(RuleDisjointnessCheck.isDuplicateFree(parse("V(a) <- E_g(e,a,b,\"X\").")));
+		assertFalse(RuleDisjointnessCheck.isDuplicateFree(parse("V(a) <- W(a).")));
+	}
+
+	@Test
+	public void testDisjointByLabel() {
+		assertTrue(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,\"A\")."), parse("V(a) <- N_g(a,\"B\").")));
+		assertTrue(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,l), l = \"A\"."), parse("V(a) <- N_g(a,\"B\").")));
+		assertFalse(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,\"A\")."), parse("V(a) <- N_g(a,l).")));
+		assertFalse(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,\"A\")."), parse("V(a) <- N_g(a,\"A\").")));
+	}
+
+	@Test
+	public void testDisjointByHeadConstant() {
+		assertTrue(RuleDisjointnessCheck.isDisjoint(parse("V(a,\"x\") <- N_g(a,l)."), parse("V(a,\"y\") <- N_g(a,l).")));
+		assertTrue(RuleDisjointnessCheck.isDisjoint(parse("V(a,k) <- N_g(a,l), k = 1."), parse("V(a,2) <- N_g(a,l).")));
+		assertFalse(RuleDisjointnessCheck.isDisjoint(parse("V(a,\"x\") <- N_g(a,l)."), parse("V(a,k) <- N_g(a,k).")));
+	}
+
+	@Test
+	public void testDifferentHeads() {
+		assertFalse(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,\"A\")."), parse("W(a) <- N_g(a,\"B\").")));
+		assertFalse(RuleDisjointnessCheck.isDisjoint(parse("V(a) <- N_g(a,\"A\")."), parse("V(a,l) <- N_g(a,l), l = \"B\".")));
+	}
+
+	@Test
+	public void testDisjointRules() {
+		assertEquals(Arrays.asList(0, 1), RuleDisjointnessCheck.getDisjointRules(parse(
+				"V(a) <- N_g(a,\"A\").", "V(a) <- N_g(a,\"B\").")));
+		assertEquals(Arrays.asList(1), RuleDisjointnessCheck.getDisjointRules(parse(
+				"V(a) <- N_g(a,\"A\").", "V(a) <- N_g(a,\"B\").", "V(a) <- N_g(a,l), l = \"A\".")));
+		assertTrue(RuleDisjointnessCheck.getDisjointRules(parse(
+				"V(l) <- N_g(a,l), l = \"A\".", "V(l) <- N_g(a,l), l = \"B\".")).isEmpty());
+	}
+}